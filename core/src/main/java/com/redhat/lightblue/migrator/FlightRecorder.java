@@ -0,0 +1,224 @@
+package com.redhat.lightblue.migrator;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java Flight Recorder events defined at runtime, shared by the
+ * migrator and the DAO facade, so migration work can be correlated
+ * with GC and CPU activity in a JFR recording.
+ *
+ * The modules are built for Java 7, so the events are defined using
+ * jdk.jfr.EventFactory through reflection. If the JVM does not have
+ * JFR (before JDK 11), all event types are disabled, which is logged
+ * at debug level. An event type that cannot be defined or recorded is
+ * disabled, which is logged once at warn level. An event is only
+ * created if its type is enabled in a running recording, otherwise
+ * begin() returns a no-op event.
+ *
+ * <pre>
+ *   Event e=TYPE.begin();
+ *   ...
+ *   e.set("documentCount",n).commit();
+ * </pre>
+ */
+public final class FlightRecorder {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(FlightRecorder.class);
+
+    public static final String CATEGORY="Lightblue Migrator";
+
+    private static Constructor<?> annotationElementCtor;
+    private static Constructor<?> valueDescriptorCtor;
+    private static Method createFactory;
+    private static Method newEvent;
+    private static Method getEventType;
+    private static Method isEnabled;
+    private static Method eventBegin;
+    private static Method eventCommit;
+    private static Method eventSet;
+    private static Class<?> nameAnnotation;
+    private static Class<?> labelAnnotation;
+    private static Class<?> descriptionAnnotation;
+    private static Class<?> categoryAnnotation;
+
+    static {
+        try {
+            Class<?> factoryClass=Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventClass=Class.forName("jdk.jfr.Event");
+            annotationElementCtor=Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class,Object.class);
+            valueDescriptorCtor=Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class,String.class);
+            createFactory=factoryClass.getMethod("create",List.class,List.class);
+            newEvent=factoryClass.getMethod("newEvent");
+            getEventType=factoryClass.getMethod("getEventType");
+            isEnabled=Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            eventBegin=eventClass.getMethod("begin");
+            eventCommit=eventClass.getMethod("commit");
+            eventSet=eventClass.getMethod("set",int.class,Object.class);
+            nameAnnotation=Class.forName("jdk.jfr.Name");
+            labelAnnotation=Class.forName("jdk.jfr.Label");
+            descriptionAnnotation=Class.forName("jdk.jfr.Description");
+            categoryAnnotation=Class.forName("jdk.jfr.Category");
+        } catch (Exception e) {
+            LOGGER.debug("Flight recorder is not available:{}",e.toString());
+            createFactory=null;
+        }
+    }
+
+    private FlightRecorder() {}
+
+    public static boolean isAvailable() {
+        return createFactory!=null;
+    }
+
+    /**
+     * A runtime defined event type
+     */
+    public static final class EventType {
+        private final String name;
+        private final String[] fields;
+        private final Object factory;
+        private final Object eventType;
+        private volatile boolean failed;
+
+        /**
+         * Defines an event type in the CATEGORY category
+         *
+         * @param name Event name
+         * @param label Event label
+         * @param description Event description
+         * @param fields Field names
+         * @param types Field types, one for each field
+         */
+        public EventType(String name,String label,String description,String[] fields,Class<?>[] types) {
+            this.name=name;
+            this.fields=fields;
+            Object f=null;
+            Object t=null;
+            if(createFactory!=null) {
+                try {
+                    List<Object> annotations=new ArrayList<>();
+                    annotations.add(annotationElementCtor.newInstance(nameAnnotation,name));
+                    annotations.add(annotationElementCtor.newInstance(labelAnnotation,label));
+                    annotations.add(annotationElementCtor.newInstance(descriptionAnnotation,description));
+                    annotations.add(annotationElementCtor.newInstance(categoryAnnotation,new String[] {CATEGORY}));
+                    List<Object> values=new ArrayList<>();
+                    for(int i=0;i<fields.length;i++)
+                        values.add(valueDescriptorCtor.newInstance(types[i],fields[i]));
+                    f=createFactory.invoke(null,annotations,values);
+                    t=getEventType.invoke(f);
+                } catch (Exception e) {
+                    LOGGER.warn("Cannot define flight recorder event {}:{}",name,e.toString());
+                    f=null;
+                    t=null;
+                }
+            }
+            factory=f;
+            eventType=t;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns true if this event type is enabled in a recording
+         */
+        public boolean isEnabled() {
+            if(eventType==null||failed)
+                return false;
+            try {
+                return (Boolean)isEnabled.invoke(eventType);
+            } catch (Exception e) {
+                disable(e);
+                return false;
+            }
+        }
+
+        /**
+         * Starts timing an event. Returns a no-op event if the event
+         * type is not enabled.
+         */
+        public Event begin() {
+            if(isEnabled()) {
+                try {
+                    Object event=newEvent.invoke(factory);
+                    eventBegin.invoke(event);
+                    return new Event(this,event);
+                } catch (Exception e) {
+                    disable(e);
+                }
+            }
+            return Event.NONE;
+        }
+
+        private int indexOf(String field) {
+            for(int i=0;i<fields.length;i++)
+                if(fields[i].equals(field))
+                    return i;
+            throw new IllegalArgumentException(name+" has no field "+field+", fields: "+Arrays.toString(fields));
+        }
+
+        private void disable(Exception e) {
+            if(!failed) {
+                failed=true;
+                LOGGER.warn("Disabling flight recorder event {}:{}",name,e.toString());
+            }
+        }
+    }
+
+    /**
+     * An event being timed. Committing the event ends it.
+     */
+    public static class Event {
+        static final Event NONE=new Event(null,null);
+
+        private final EventType type;
+        private final Object event;
+
+        Event(EventType type,Object event) {
+            this.type=type;
+            this.event=event;
+        }
+
+        /**
+         * Returns false for the no-op event, so values that are costly
+         * to compute can be left out
+         */
+        public boolean isRecording() {
+            return event!=null;
+        }
+
+        public Event set(String field,Object value) {
+            if(event!=null) {
+                try {
+                    eventSet.invoke(event,type.indexOf(field),value);
+                } catch (IllegalArgumentException e) {
+                    throw e;
+                } catch (Exception e) {
+                    type.disable(e);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Ends the event and writes it to the recording
+         */
+        public void commit() {
+            if(event!=null) {
+                try {
+                    eventCommit.invoke(event);
+                } catch (Exception e) {
+                    type.disable(e);
+                }
+            }
+        }
+    }
+}
@@ -120,9 +120,9 @@ public class DAOFacadeBase<D> {
                     @Override
                     public T call() throws Exception {
                         Method method = lightblueDAO.getClass().getMethod(methodName, types);
-                        Timer dest = new Timer("destination."+methodName);
+                        Timer dest = new Timer("destination."+methodName, returnedType, values);
                         try {
-                            return (T) method.invoke(lightblueDAO, values);
+                            return dest.result((T) method.invoke(lightblueDAO, values));
                         } finally {
                             dest.complete();
                         }
@@ -137,9 +137,9 @@ public class DAOFacadeBase<D> {
             // fetch from oracle, synchronously
             log.debug("."+methodName+" reading from legacy");
             Method method = legacyDAO.getClass().getMethod(methodName,types);
-            Timer source = new Timer("source."+methodName);
+            Timer source = new Timer("source."+methodName, returnedType, values);
             try {
-                legacyEntity = (T) method.invoke(legacyDAO, values);
+                legacyEntity = source.result((T) method.invoke(legacyDAO, values));
             } finally {
                 source.complete();
             }
@@ -216,9 +216,9 @@ public class DAOFacadeBase<D> {
                 @Override
                 public T call() throws Exception {
                     Method method = lightblueDAO.getClass().getMethod(methodName, types);
-                    Timer dest = new Timer("destination."+methodName);
+                    Timer dest = new Timer("destination."+methodName, returnedType, values);
                     try {
-                        return (T) method.invoke(lightblueDAO, values);
+                        return dest.result((T) method.invoke(lightblueDAO, values));
                     } finally {
                         dest.complete();
                     }
@@ -233,9 +233,9 @@ public class DAOFacadeBase<D> {
             // fetch from oracle, synchronously
             log.debug("."+methodName+" writing to legacy");
             Method method = legacyDAO.getClass().getMethod(methodName,types);
-            Timer source = new Timer("source."+methodName);
+            Timer source = new Timer("source."+methodName, returnedType, values);
             try {
-                legacyEntity = (T) method.invoke(legacyDAO, values);
+                legacyEntity = source.result((T) method.invoke(legacyDAO, values));
             } finally {
                 source.complete();
             }
@@ -302,9 +302,9 @@ public class DAOFacadeBase<D> {
             // insert to oracle, synchronously
             log.debug("."+methodName+" creating in legacy");
             Method method = legacyDAO.getClass().getMethod(methodName,types);
-            Timer source = new Timer("source."+methodName);
+            Timer source = new Timer("source."+methodName, returnedType, values);
             try {
-                legacyEntity = (T) method.invoke(legacyDAO, values);
+                legacyEntity = source.result((T) method.invoke(legacyDAO, values));
             } finally {
                 source.complete();
             }
@@ -332,10 +332,10 @@ public class DAOFacadeBase<D> {
 
             Method method = lightblueDAO.getClass().getMethod(methodName, types);
 
-            Timer dest = new Timer("destination."+methodName);
+            Timer dest = new Timer("destination."+methodName, returnedType, values);
             // it's expected that this method in lightblueDAO will extract id from idStore
             try {
-                lightblueEntity = (T) method.invoke(lightblueDAO, values);
+                lightblueEntity = dest.result((T) method.invoke(lightblueDAO, values));
             } catch (Exception e) {
                 log.error("Error when calling lightblue DAO", e);
                 log.debug("Returing data from legacy due to lightblue error");
@@ -1,13 +1,22 @@
 package com.redhat.lightblue.migrator.facade;
 
+import java.lang.reflect.Array;
+import java.util.Collection;
 import java.util.Date;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.redhat.lightblue.migrator.FlightRecorder;
+
 /**
  * A helper class to measure method execution times.
  *
+ * Calls are also recorded as Java Flight Recorder events when running
+ * on a JVM with JFR (JDK 11 and later) and the
+ * com.redhat.lightblue.migrator.facade.DAOCall event is enabled in a
+ * recording. See FlightRecorder.
+ *
  * @author mpatercz
  *
  */
@@ -15,14 +24,52 @@ public class Timer {
 
     private static final Logger log = LoggerFactory.getLogger(Timer.class);
 
+    public static final String EVENT_NAME = "com.redhat.lightblue.migrator.facade.DAOCall";
+
+    static final FlightRecorder.EventType DAO_CALL = new FlightRecorder.EventType(EVENT_NAME,
+            "DAO Facade Call",
+            "A call to the legacy (source) or lightblue (destination) DAO",
+            new String[] {"method", "entityName", "batchSize", "documentCount"},
+            new Class<?>[] {String.class, String.class, long.class, long.class});
+
     public final String method;
 
     public final Date start;
 
+    private final String entityName;
+
+    private final long batchSize;
+
+    private long documentCount;
+
+    private final FlightRecorder.Event event;
+
     public Timer(String method) {
+        this(method, null, null);
+    }
+
+    /**
+     * @param method Name of the timed call
+     * @param returnedType Type of the entity returned by the call, can be null
+     * @param args Call arguments. The batch size is the size of the largest collection or array argument, 1 if there are none
+     */
+    public Timer(String method, Class<?> returnedType, Object[] args) {
         super();
         this.method = method;
+        this.entityName = returnedType != null ? returnedType.getName() : null;
         this.start = log.isDebugEnabled() ? new Date(): null;
+        this.event = DAO_CALL.begin();
+        this.batchSize = event.isRecording() ? batchSize(args) : 0;
+    }
+
+    /**
+     * Records the result of the call. Returns the result.
+     */
+    public <T> T result(T result) {
+        if (event.isRecording()) {
+            documentCount = size(result);
+        }
+        return result;
     }
 
     public void complete() {
@@ -30,6 +77,35 @@ public class Timer {
             Date end = new Date();
             log.debug(method+" call took "+ (end.getTime()-start.getTime())+"ms");
         }
+        event.set("method", method)
+            .set("entityName", entityName)
+            .set("batchSize", batchSize)
+            .set("documentCount", documentCount)
+            .commit();
+    }
+
+    private static long batchSize(Object[] args) {
+        long n = 1;
+        if (args != null) {
+            for (Object arg : args) {
+                if (arg instanceof Collection || (arg != null && arg.getClass().isArray())) {
+                    n = Math.max(n, size(arg));
+                }
+            }
+        }
+        return n;
+    }
+
+    private static long size(Object o) {
+        if (o == null) {
+            return 0;
+        } else if (o instanceof Collection) {
+            return ((Collection<?>) o).size();
+        } else if (o.getClass().isArray()) {
+            return Array.getLength(o);
+        } else {
+            return 1;
+        }
     }
 
 }
@@ -0,0 +1,304 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server bound to the loopback interface, for
+ * monitoring and controlling a running migrator daemon.
+ *
+ * <pre>
+ *   GET  /metrics                      Metrics in Prometheus text format
+ *   GET  /status                       State of each configuration
+ *   GET  /paths[?name=cfg&amp;top=n]       Paths with the most inconsistent documents for each configuration
+ *   POST /pause?name=cfg               Stop starting new jobs for cfg
+ *   POST /resume?name=cfg              Resume cfg, cancels drain
+ *   POST /drain[?name=cfg]             Stop starting new jobs, for all configurations if name is not given
+ *   POST /threads?name=cfg&amp;count=n     Set the thread count of cfg, 0 restores the configured value
+ * </pre>
+ */
+public class AdminServer {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(AdminServer.class);
+
+    public static final String METRICS_CONTENT_TYPE="text/plain; version=0.0.4; charset=utf-8";
+    public static final String PREFIX="lightblue_migrator_";
+    public static final int DEFAULT_TOP_PATHS=20;
+
+    private final Controller controller;
+    private final HttpServer server;
+
+    public AdminServer(Controller controller,int port) throws IOException {
+        this.controller=controller;
+        server=HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),port),0);
+        server.createContext("/metrics",new MetricsHandler());
+        server.createContext("/status",new StatusHandler());
+        server.createContext("/paths",new PathsHandler());
+        server.createContext("/pause",new ControlHandler("pause"));
+        server.createContext("/resume",new ControlHandler("resume"));
+        server.createContext("/drain",new ControlHandler("drain"));
+        server.createContext("/threads",new ControlHandler("threads"));
+        server.setExecutor(Executors.newSingleThreadExecutor());
+    }
+
+    public void start() {
+        LOGGER.info("Starting admin server on {}",server.getAddress());
+        server.start();
+    }
+
+    public void stop() {
+        LOGGER.info("Stopping admin server");
+        server.stop(0);
+        ((java.util.concurrent.ExecutorService)server.getExecutor()).shutdown();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private List<MigratorController> getControllers(String name) {
+        List<MigratorController> list=new ArrayList<>();
+        for(Controller.MigrationProcess p:controller.getMigrationProcesses().values()) {
+            if(name==null||name.equals(p.mig.getMigrationConfiguration().getConfigurationName()))
+                list.add(p.mig);
+        }
+        return list;
+    }
+
+    private static void respond(HttpExchange x,int code,String contentType,String body) throws IOException {
+        byte[] bytes=body.getBytes(StandardCharsets.UTF_8);
+        x.getResponseHeaders().set("Content-Type",contentType);
+        x.sendResponseHeaders(code,bytes.length);
+        try (OutputStream out=x.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    static Map<String,String> parseQuery(String query) throws IOException {
+        Map<String,String> map=new HashMap<>();
+        if(query!=null) {
+            for(String s:query.split("&")) {
+                int ix=s.indexOf('=');
+                if(ix>0)
+                    map.put(URLDecoder.decode(s.substring(0,ix),"UTF-8"),URLDecoder.decode(s.substring(ix+1),"UTF-8"));
+                else if(s.length()>0)
+                    map.put(URLDecoder.decode(s,"UTF-8"),"");
+            }
+        }
+        return map;
+    }
+
+    private class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange x) throws IOException {
+            try {
+                List<MigratorMetrics> metrics=new ArrayList<>();
+                for(MigratorController c:getControllers(null))
+                    metrics.add(c.getMetrics());
+                respond(x,200,METRICS_CONTENT_TYPE,formatMetrics(metrics));
+            } finally {
+                x.close();
+            }
+        }
+    }
+
+    private class StatusHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange x) throws IOException {
+            try {
+                StringBuilder sb=new StringBuilder();
+                ThreadBudget budget=controller.getThreadBudget();
+                if(budget!=null)
+                    sb.append("threadBudget ").append(budget).append('\n');
+                MemoryAdmission admission=controller.getMemoryAdmission();
+                if(admission!=null)
+                    sb.append("memory ").append(admission).append('\n');
+                for(MigratorController c:getControllers(null)) {
+                    sb.append(c.getMigrationConfiguration().getConfigurationName()).
+                        append(" threads=").append(c.getMetrics().getActiveMigratorThreads()).
+                        append('/').append(c.getThreadCount()).
+                        append(" paused=").append(c.isPaused()).
+                        append(" draining=").append(c.isDraining()).
+                        append(" drained=").append(c.isDrained()).append('\n');
+                }
+                respond(x,200,"text/plain; charset=utf-8",sb.toString());
+            } finally {
+                x.close();
+            }
+        }
+    }
+
+    private class PathsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange x) throws IOException {
+            try {
+                Map<String,String> params=parseQuery(x.getRequestURI().getRawQuery());
+                int top=DEFAULT_TOP_PATHS;
+                if(params.containsKey("top")) {
+                    try {
+                        top=Integer.parseInt(params.get("top"));
+                    } catch (NumberFormatException e) {
+                        respond(x,400,"text/plain","Invalid top\n");
+                        return;
+                    }
+                }
+                StringBuilder sb=new StringBuilder();
+                for(MigratorController c:getControllers(params.get("name"))) {
+                    String name=c.getMigrationConfiguration().getConfigurationName();
+                    InconsistencySink sink=c.getInconsistencySink();
+                    if(sink==null)
+                        continue;
+                    for(PathCount p:sink.getTopPaths(top))
+                        sb.append(name).append(' ').append(p.getPath()).append(' ').append(p.getCount()).append('\n');
+                }
+                respond(x,200,"text/plain; charset=utf-8",sb.toString());
+            } finally {
+                x.close();
+            }
+        }
+    }
+
+    private class ControlHandler implements HttpHandler {
+        private final String command;
+
+        ControlHandler(String command) {
+            this.command=command;
+        }
+
+        @Override
+        public void handle(HttpExchange x) throws IOException {
+            try {
+                if(!"POST".equals(x.getRequestMethod())) {
+                    respond(x,405,"text/plain","POST required\n");
+                    return;
+                }
+                Map<String,String> params=parseQuery(x.getRequestURI().getRawQuery());
+                String name=params.get("name");
+                if(name==null&&!"drain".equals(command)) {
+                    respond(x,400,"text/plain","name required\n");
+                    return;
+                }
+                int count=0;
+                if("threads".equals(command)) {
+                    try {
+                        count=Integer.parseInt(params.get("count"));
+                    } catch (NumberFormatException e) {
+                        respond(x,400,"text/plain","count required\n");
+                        return;
+                    }
+                }
+                List<MigratorController> list=getControllers(name);
+                if(list.isEmpty()) {
+                    respond(x,404,"text/plain","No configuration "+name+"\n");
+                    return;
+                }
+                for(MigratorController c:list) {
+                    switch(command) {
+                    case "pause": c.pause();break;
+                    case "resume": c.resume();break;
+                    case "drain": c.drain();break;
+                    case "threads": c.setThreadCountOverride(count);break;
+                    }
+                }
+                respond(x,200,"text/plain","OK\n");
+            } finally {
+                x.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the metrics in Prometheus text exposition format. Each
+     * configuration is a separate series, labeled with the
+     * configuration name.
+     */
+    public static String formatMetrics(Collection<MigratorMetrics> metrics) {
+        StringBuilder sb=new StringBuilder();
+        header(sb,"jobs_started_total","counter","Number of jobs started");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"jobs_started_total",m,null,m.getJobsStarted());
+        header(sb,"jobs_completed_total","counter","Number of jobs completed");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"jobs_completed_total",m,null,m.getJobsCompleted());
+        header(sb,"jobs_failed_total","counter","Number of jobs failed");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"jobs_failed_total",m,null,m.getJobsFailed());
+        header(sb,"jobs_split_total","counter","Number of jobs split into smaller jobs");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"jobs_split_total",m,null,m.getJobsSplit());
+        header(sb,"lock_failures_total","counter","Number of failed attempts to lock a job");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"lock_failures_total",m,null,m.getLockFailures());
+        header(sb,"jobs_deferred_total","counter","Number of jobs not started for lack of heap");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"jobs_deferred_total",m,null,m.getJobsDeferred());
+        header(sb,"documents_fetched_total","counter","Number of documents read from source and destination");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"documents_fetched_total",m,null,m.getDocumentsFetched());
+        header(sb,"documents_compared_total","counter","Number of documents compared");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"documents_compared_total",m,null,m.getDocumentsCompared());
+        header(sb,"documents_saved_total","counter","Number of documents written to destination");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"documents_saved_total",m,null,m.getDocumentsSaved());
+        header(sb,"active_threads","gauge","Number of running migrator threads");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"active_threads",m,null,m.getActiveMigratorThreads());
+        header(sb,"migrator_thread_allocated_bytes_max","gauge","Maximum bytes allocated by a migrator thread for a single job, excluding pool threads");
+        for(MigratorMetrics m:metrics)
+            sample(sb,"migrator_thread_allocated_bytes_max",m,null,m.getMaxMigratorThreadAllocatedBytes());
+        header(sb,"batch_latency_seconds","histogram","Latency of destination write batches");
+        for(MigratorMetrics m:metrics) {
+            MigratorMetrics.LatencyHistogram h=m.getBatchLatency();
+            long[] counts=h.getBucketCounts();
+            long cumulative=0;
+            for(int i=0;i<counts.length;i++) {
+                cumulative+=counts[i];
+                String le=i<MigratorMetrics.LatencyHistogram.BUCKETS.length?
+                    Double.toString(MigratorMetrics.LatencyHistogram.BUCKETS[i]/1000.0):"+Inf";
+                sample(sb,"batch_latency_seconds_bucket",m,le,cumulative);
+            }
+            sample(sb,"batch_latency_seconds_sum",m,null,h.getSum()/1000.0);
+            sample(sb,"batch_latency_seconds_count",m,null,cumulative);
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb,String name,String type,String help) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb,String name,MigratorMetrics m,String le,Object value) {
+        sb.append(PREFIX).append(name).append("{configuration=\"").append(escape(m.getConfigurationName())).append('"');
+        if(le!=null)
+            sb.append(",le=\"").append(le).append('"');
+        sb.append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Escapes a label value
+     */
+    static String escape(String s) {
+        if(s==null)
+            return "";
+        return s.replace("\\","\\\\").replace("\"","\\\"").replace("\n","\\n");
+    }
+}
@@ -1,7 +1,8 @@
 package com.redhat.lightblue.migrator;
 
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,6 +11,13 @@ import org.slf4j.LoggerFactory;
  * Works like a breakpoint in a debugger. If stop is called, execution
  * stops when run() is called until resume() is called by another
  * thread.
+ *
+ * The static checkpoint methods are placed at the pipeline boundaries
+ * of the controllers and migrators. In addition to the named
+ * breakpoints used by tests, any registered CheckpointListener is
+ * notified when a checkpoint is reached. If there are no listeners and
+ * no breakpoint with that name was used, a checkpoint is only a map
+ * lookup.
  */
 public class Breakpoint {
 
@@ -20,7 +28,10 @@ public class Breakpoint {
     private boolean waiting=false;
     private final String name;
 
-    private static final Map<String,Breakpoint> bps=new HashMap<>();
+    private static final ConcurrentMap<String,Breakpoint> bps=new ConcurrentHashMap<>();
+
+    private static final CheckpointListener[] NO_LISTENERS=new CheckpointListener[0];
+    private static volatile CheckpointListener[] listeners=NO_LISTENERS;
 
     public Breakpoint() {
         name=null;
@@ -104,13 +115,66 @@ public class Breakpoint {
     }
 
     public static void checkpoint(String bp) {
-        get(bp).checkpoint();
+        checkpoint(bp,null,-1);
+    }
+
+    /**
+     * Reached a checkpoint
+     *
+     * @param bp Checkpoint name
+     * @param jobId Migration job id, or null
+     * @param count Number of documents or jobs processed, or -1
+     */
+    public static void checkpoint(String bp,String jobId,long count) {
+        CheckpointListener[] l=listeners;
+        if(l.length>0)
+            notifyListeners(l,new CheckpointEvent(bp,jobId,count));
+        // A breakpoint that is not created yet cannot be stopped or waited on
+        Breakpoint x=bps.get(bp);
+        if(x!=null)
+            x.checkpoint();
+    }
+
+    public static void addListener(CheckpointListener listener) {
+        synchronized(bps) {
+            CheckpointListener[] l=Arrays.copyOf(listeners,listeners.length+1);
+            l[l.length-1]=listener;
+            listeners=l;
+        }
+    }
+
+    public static void removeListener(CheckpointListener listener) {
+        synchronized(bps) {
+            CheckpointListener[] l=listeners;
+            for(int i=0;i<l.length;i++) {
+                if(l[i]==listener) {
+                    CheckpointListener[] n=new CheckpointListener[l.length-1];
+                    System.arraycopy(l,0,n,0,i);
+                    System.arraycopy(l,i+1,n,i,l.length-i-1);
+                    listeners=n;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void notifyListeners(CheckpointListener[] l,CheckpointEvent event) {
+        for(CheckpointListener listener:l) {
+            try {
+                listener.checkpoint(event);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Checkpoint listener failed at {}:{}",event.getName(),e);
+            }
+        }
     }
 
     private static Breakpoint get(String bp) {
         Breakpoint x=bps.get(bp);
-        if(x==null)
-            bps.put(bp,x=new Breakpoint(bp));
+        if(x==null) {
+            Breakpoint y=bps.putIfAbsent(bp,x=new Breakpoint(bp));
+            if(y!=null)
+                x=y;
+        }
         return x;
     }
 }
@@ -0,0 +1,70 @@
+package com.redhat.lightblue.migrator;
+
+/**
+ * A checkpoint reached by a thread, with the context known at that
+ * point
+ */
+public class CheckpointEvent {
+
+    private final String name;
+    private final long timeMillis;
+    private final long nanoTime;
+    private final String jobId;
+    private final long count;
+    private final Thread thread;
+
+    public CheckpointEvent(String name,String jobId,long count) {
+        this.name=name;
+        this.timeMillis=System.currentTimeMillis();
+        this.nanoTime=System.nanoTime();
+        this.jobId=jobId;
+        this.count=count;
+        this.thread=Thread.currentThread();
+    }
+
+    /**
+     * Checkpoint name, such as "Migrator:sourceDocs"
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Wall clock time the checkpoint is reached
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * System.nanoTime() when the checkpoint is reached, to measure
+     * the time between checkpoints
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * The migration job id, or null if the checkpoint is not for a job
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * The number of documents or jobs processed up to the checkpoint,
+     * or -1 if not applicable
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    @Override
+    public String toString() {
+        return name+" jobId="+jobId+" count="+count+" thread="+thread.getName()+" time="+timeMillis;
+    }
+}
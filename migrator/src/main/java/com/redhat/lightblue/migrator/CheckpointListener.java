@@ -0,0 +1,12 @@
+package com.redhat.lightblue.migrator;
+
+/**
+ * Receives the checkpoints reached by the controllers and migrators,
+ * for timing and tracing. Listeners are registered with
+ * Breakpoint.addListener, and called synchronously on the thread
+ * reaching the checkpoint, so they should return quickly.
+ */
+public interface CheckpointListener {
+
+    void checkpoint(CheckpointEvent event);
+}
@@ -0,0 +1,193 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * An id-doc map that keeps documents Smile-encoded. Documents are
+ * encoded when they are put into the map, and decoded every time they
+ * are read from the map, so changes to a document read from the map
+ * are not reflected in the map. The encoded documents can also be
+ * read using a parser, without decoding them into trees.
+ */
+public class CompactDocumentMap extends AbstractMap<Identity,JsonNode> {
+
+    private static final ObjectMapper SMILE=new ObjectMapper(new SmileFactory());
+
+    private final Map<Identity,byte[]> docs;
+
+    /**
+     * @param docs The map to store the encoded documents in
+     */
+    public CompactDocumentMap(Map<Identity,byte[]> docs) {
+        this.docs=docs;
+    }
+
+    /**
+     * Returns true if the encoded documents are kept in a
+     * LongIdentityMap
+     */
+    public boolean isLongKeyed() {
+        return docs instanceof LongIdentityMap;
+    }
+
+    @Override
+    public int size() {
+        return docs.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return docs.containsKey(key);
+    }
+
+    @Override
+    public JsonNode get(Object key) {
+        return decode(docs.get(key));
+    }
+
+    @Override
+    public JsonNode put(Identity key,JsonNode value) {
+        return decode(docs.put(key,encode(value)));
+    }
+
+    /**
+     * Puts a document with a primitive key. The encoded documents
+     * must be kept in a LongIdentityMap.
+     */
+    public JsonNode put(long key,JsonNode value) {
+        return decode(getLongKeyedDocs().put(key,encode(value)));
+    }
+
+    public boolean containsKey(long key) {
+        return getLongKeyedDocs().containsKey(key);
+    }
+
+    public JsonNode get(long key) {
+        return decode(getLongKeyedDocs().get(key));
+    }
+
+    /**
+     * Returns the keys of a map that is long keyed, see LongIdentityMap.keys()
+     */
+    public long[] keys() {
+        return getLongKeyedDocs().keys();
+    }
+
+    private LongIdentityMap<byte[]> getLongKeyedDocs() {
+        if(!isLongKeyed())
+            throw new IllegalStateException("Not long keyed");
+        return (LongIdentityMap<byte[]>)docs;
+    }
+
+    @Override
+    public JsonNode remove(Object key) {
+        return decode(docs.remove(key));
+    }
+
+    @Override
+    public void clear() {
+        docs.clear();
+    }
+
+    @Override
+    public Set<Identity> keySet() {
+        return docs.keySet();
+    }
+
+    /**
+     * Returns a parser for the document with the given id, or null if
+     * there is no such document
+     */
+    public JsonParser getParser(Object key) throws IOException {
+        return getParser(docs.get(key));
+    }
+
+    /**
+     * Returns a parser for the document with the given primitive key,
+     * or null if there is no such document
+     */
+    public JsonParser getParser(long key) throws IOException {
+        return getParser(getLongKeyedDocs().get(key));
+    }
+
+    private static JsonParser getParser(byte[] data) throws IOException {
+        return data==null?null:SMILE.getFactory().createParser(data);
+    }
+
+    @Override
+    public Set<Map.Entry<Identity,JsonNode>> entrySet() {
+        return new AbstractSet<Map.Entry<Identity,JsonNode>>() {
+            @Override
+            public int size() {
+                return docs.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<Identity,JsonNode>> iterator() {
+                final Iterator<Map.Entry<Identity,byte[]>> itr=docs.entrySet().iterator();
+                return new Iterator<Map.Entry<Identity,JsonNode>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return itr.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<Identity,JsonNode> next() {
+                        final Map.Entry<Identity,byte[]> entry=itr.next();
+                        return new Map.Entry<Identity,JsonNode>() {
+                            @Override
+                            public Identity getKey() {
+                                return entry.getKey();
+                            }
+
+                            @Override
+                            public JsonNode getValue() {
+                                return decode(entry.getValue());
+                            }
+
+                            @Override
+                            public JsonNode setValue(JsonNode value) {
+                                return decode(entry.setValue(encode(value)));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        itr.remove();
+                    }
+                };
+            }
+        };
+    }
+
+    private static byte[] encode(JsonNode doc) {
+        if(doc==null)
+            return null;
+        try {
+            return SMILE.writeValueAsBytes(doc);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot encode document:"+e);
+        }
+    }
+
+    private static JsonNode decode(byte[] data) {
+        if(data==null)
+            return null;
+        try {
+            return SMILE.readTree(data);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot decode document:"+e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.LightblueClientConfiguration;
+import com.redhat.lightblue.client.http.LightblueHttpClient;
+import com.redhat.lightblue.client.request.LightblueRequest;
+import com.redhat.lightblue.client.request.AbstractLightblueDataRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import com.redhat.lightblue.client.response.LightblueResponse;
+
+/**
+ * A lightblue data client that gzip-compresses request bodies larger
+ * than a threshold, and accepts gzip-compressed responses. Request
+ * and response sizes, before and after compression, are recorded in
+ * a TrafficStats instance.
+ *
+ * This client does not support certificate authentication. Metadata
+ * requests are sent uncompressed using a LightblueHttpClient with the
+ * same configuration. The lightblue server must be configured to
+ * accept gzip content encoding.
+ */
+public class CompressingLightblueHttpClient implements LightblueClient {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(CompressingLightblueHttpClient.class);
+
+    private static final Charset UTF8=Charset.forName("UTF-8");
+
+    public static final int DEFAULT_COMPRESSION_THRESHOLD=1024;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS=30000;
+    public static final int DEFAULT_READ_TIMEOUT_MS=300000;
+
+    private final LightblueClientConfiguration configuration;
+    private final int compressionThreshold;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final TrafficStats stats;
+
+    private LightblueClient metadataClient;
+
+    /**
+     * @param configuration The lightblue client configuration
+     * @param compressionThreshold Request bodies smaller than this many bytes are sent uncompressed
+     * @param connectTimeout Connect timeout in msecs, 0 means no timeout
+     * @param readTimeout Read timeout in msecs, 0 means no timeout
+     * @param stats Traffic counters, can be null
+     */
+    public CompressingLightblueHttpClient(LightblueClientConfiguration configuration,
+                                          int compressionThreshold,
+                                          int connectTimeout,
+                                          int readTimeout,
+                                          TrafficStats stats) {
+        this.configuration=configuration;
+        this.compressionThreshold=compressionThreshold;
+        this.connectTimeout=connectTimeout;
+        this.readTimeout=readTimeout;
+        this.stats=stats;
+    }
+
+    @Override
+    public LightblueResponse metadata(LightblueRequest lightblueRequest) {
+        return getMetadataClient().metadata(lightblueRequest);
+    }
+
+    private synchronized LightblueClient getMetadataClient() {
+        if(metadataClient==null)
+            metadataClient=new LightblueHttpClient(configuration);
+        return metadataClient;
+    }
+
+    @Override
+    public LightblueResponse data(LightblueRequest lightblueRequest) {
+        try {
+            return callService(lightblueRequest);
+        } catch (IOException e) {
+            LOGGER.error("Error calling lightblue:{}",e);
+            throw new RuntimeException("Error calling lightblue:"+e);
+        }
+    }
+
+    @Override
+    public <T> T data(AbstractLightblueDataRequest lightblueRequest, Class<T> type) throws IOException {
+        return callService(lightblueRequest).parseProcessed(type);
+    }
+
+    private LightblueResponse callService(LightblueRequest request) throws IOException {
+        String uri=request.getRestURI(configuration.getDataServiceURI());
+        String body=request.getBody();
+        byte[] rawBody=body==null?new byte[0]:body.getBytes(UTF8);
+        boolean compress=rawBody.length>=compressionThreshold;
+        byte[] wireBody=compress?gzip(rawBody):rawBody;
+        LOGGER.debug("Calling {}, raw size={}, wire size={}",uri,rawBody.length,wireBody.length);
+
+        // The connection is not disconnected, so it can be kept alive
+        // and reused once its streams are read and closed
+        HttpURLConnection conn=(HttpURLConnection)new URL(uri).openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setRequestMethod(request instanceof DataInsertRequest?"PUT":"POST");
+        conn.setRequestProperty("Content-Type","application/json");
+        conn.setRequestProperty("Accept-Encoding","gzip");
+        if(compress)
+            conn.setRequestProperty("Content-Encoding","gzip");
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(wireBody.length);
+        try (OutputStream out=conn.getOutputStream()) {
+            out.write(wireBody);
+        }
+
+        InputStream in=conn.getResponseCode()>=400?conn.getErrorStream():conn.getInputStream();
+        String text="";
+        long wireReceived=0;
+        long rawReceived=0;
+        if(in!=null) {
+            // Closing the outermost stream also releases the inflater
+            InputStream stream=in;
+            try {
+                CountingInputStream wireIn=new CountingInputStream(in);
+                CountingInputStream rawIn=new CountingInputStream("gzip".equalsIgnoreCase(conn.getContentEncoding())?
+                                                                  new GZIPInputStream(wireIn):wireIn);
+                stream=rawIn;
+                text=IOUtils.toString(rawIn,UTF8);
+                wireReceived=wireIn.getByteCount();
+                rawReceived=rawIn.getByteCount();
+            } finally {
+                stream.close();
+            }
+        }
+        if(stats!=null)
+            stats.addRequest(rawBody.length,wireBody.length,rawReceived,wireReceived);
+        return new LightblueResponse(text);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream(data.length/4+64);
+        try (GZIPOutputStream out=new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+}
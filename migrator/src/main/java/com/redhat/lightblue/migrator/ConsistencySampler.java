@@ -0,0 +1,183 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Selects a random sample of the identities of a job, and estimates
+ * the inconsistency rate of the job from the inconsistencies found in
+ * the sample.
+ *
+ * If the number of strata is more than one, identities are sorted and
+ * divided into that many key ranges of equal size, and the same
+ * fraction of identities is sampled from each range. The estimate is
+ * then the weighted average of the range estimates.
+ *
+ * Confidence bounds are 95% Wilson score bounds, with finite
+ * population correction.
+ */
+public class ConsistencySampler {
+
+    /**
+     * z for a 95% confidence level
+     */
+    public static final double Z=1.96;
+
+    private final double rate;
+    private final int numStrata;
+    private final Random rnd;
+
+    private List<Stratum> strata;
+    private int populationSize;
+    private int sampleSize;
+
+    /**
+     * @param rate The fraction of identities to sample, 0&lt;rate&lt;1
+     * @param numStrata Number of key ranges to sample from, 1 or less for simple random sampling
+     */
+    public ConsistencySampler(double rate,int numStrata,Random rnd) {
+        if(rate<=0||rate>1)
+            throw new IllegalArgumentException("rate");
+        this.rate=rate;
+        this.numStrata=Math.max(1,numStrata);
+        this.rnd=rnd;
+    }
+
+    public ConsistencySampler(double rate,int numStrata) {
+        this(rate,numStrata,new Random());
+    }
+
+    /**
+     * Returns a random sample of the identities. Every key range gets at
+     * least one sample.
+     */
+    public List<Identity> sample(Collection<Identity> ids) {
+        Identity[] all=ids.toArray(new Identity[ids.size()]);
+        if(numStrata>1)
+            Arrays.sort(all,KEY_ORDER);
+        populationSize=all.length;
+        strata=new ArrayList<>(numStrata);
+        List<Identity> sample=new ArrayList<>();
+        for(int h=0;h<numStrata;h++) {
+            int from=(int)((long)all.length*h/numStrata);
+            int to=(int)((long)all.length*(h+1)/numStrata);
+            int n=to-from;
+            int k=n==0?0:Math.min(n,Math.max(1,(int)Math.round(n*rate)));
+            Stratum stratum=new Stratum(n);
+            // Partial Fisher-Yates shuffle of the range
+            for(int i=0;i<k;i++) {
+                int j=from+i+rnd.nextInt(n-i);
+                Identity t=all[j];
+                all[j]=all[from+i];
+                all[from+i]=t;
+                stratum.sample.add(t);
+            }
+            strata.add(stratum);
+            sample.addAll(stratum.sample);
+        }
+        sampleSize=sample.size();
+        return sample;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    /**
+     * Estimates the inconsistency rate of the population
+     *
+     * @param inconsistent The sampled identities found to be inconsistent
+     * @return {estimate, lower bound, upper bound}
+     */
+    public double[] estimate(Set<Identity> inconsistent) {
+        if(strata==null)
+            throw new IllegalStateException();
+        if(sampleSize==0)
+            return new double[] {0,0,0};
+        double p=0;
+        for(Stratum stratum:strata) {
+            if(!stratum.sample.isEmpty()) {
+                int bad=0;
+                for(Identity id:stratum.sample)
+                    if(inconsistent.contains(id))
+                        bad++;
+                p+=(double)stratum.populationSize/populationSize*bad/stratum.sample.size();
+            }
+        }
+        return wilson(p,sampleSize,populationSize);
+    }
+
+    /**
+     * Returns the estimate and Wilson score bounds for the observed
+     * rate p in a sample of n out of a population of size N. The
+     * finite population correction is applied by using the effective
+     * sample size n(N-1)/(N-n).
+     */
+    static double[] wilson(double p,int n,int N) {
+        if(n>=N)
+            return new double[] {p,p,p};
+        double neff=(double)n*(N-1)/(N-n);
+        double z2=Z*Z/neff;
+        double center=(p+z2/2)/(1+z2);
+        double half=Z*Math.sqrt(p*(1-p)/neff+z2/(4*neff))/(1+z2);
+        return new double[] {p,Math.max(0,center-half),Math.min(1,center+half)};
+    }
+
+    private static final class Stratum {
+        final int populationSize;
+        final List<Identity> sample=new ArrayList<>();
+
+        Stratum(int populationSize) {
+            this.populationSize=populationSize;
+        }
+    }
+
+    /**
+     * Orders identities by value. Integer values are compared as
+     * numbers, and come before other values.
+     */
+    static final Comparator<Identity> KEY_ORDER=new Comparator<Identity>() {
+        @Override
+        public int compare(Identity x,Identity y) {
+            int n=Math.min(x.size(),y.size());
+            for(int i=0;i<n;i++) {
+                int c=compareValues(x.get(i),y.get(i));
+                if(c!=0)
+                    return c;
+            }
+            return x.size()-y.size();
+        }
+    };
+
+    private static int compareValues(Object x,Object y) {
+        if(x==null)
+            return y==null?0:-1;
+        if(y==null)
+            return 1;
+        String s=x.toString();
+        String t=y.toString();
+        Long a=toLong(s);
+        Long b=toLong(t);
+        if(a!=null)
+            return b==null?-1:a.compareTo(b);
+        else
+            return b==null?s.compareTo(t):1;
+    }
+
+    private static Long toLong(String s) {
+        try {
+            return Long.valueOf(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
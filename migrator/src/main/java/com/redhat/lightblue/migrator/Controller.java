@@ -2,8 +2,11 @@ package com.redhat.lightblue.migrator;
 
 import java.io.IOException;
 
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,7 +26,10 @@ public class Controller extends Thread {
     
     private final MainConfiguration cfg;
     private final LightblueClient lightblueClient;
-    private final Map<String,MigrationProcess> migrationMap=new HashMap<>();
+    private final Map<String,MigrationProcess> migrationMap=new ConcurrentHashMap<>();
+    private volatile JobPoller jobPoller;
+    private final ThreadBudget threadBudget;
+    private final MemoryAdmission memoryAdmission;
 
 
     public static class MigrationProcess {
@@ -40,12 +46,57 @@ public class Controller extends Thread {
     public Controller(MainConfiguration cfg) {
         this.cfg=cfg;
         this.lightblueClient=getLightblueClient();
+        this.threadBudget=cfg.getThreadBudget()>0?new ThreadBudget(cfg.getThreadBudget()):null;
+        this.memoryAdmission=cfg.getMaxHeapPercent()>0?new MemoryAdmission(cfg.getMaxHeapPercent()):null;
     }
 
     public Map<String,MigrationProcess> getMigrationProcesses() {
         return migrationMap;
     }
 
+    /**
+     * Returns the job poller retrieving jobs for all migrator
+     * controllers, or null if the controller is not running. If there
+     * is no job poller, migrator controllers retrieve their own jobs.
+     */
+    public JobPoller getJobPoller() {
+        return jobPoller;
+    }
+
+    /**
+     * Returns the budget of migrator threads shared by all migrator
+     * controllers, or null if there is no limit
+     */
+    public ThreadBudget getThreadBudget() {
+        return threadBudget;
+    }
+
+    /**
+     * Returns the heap check for starting jobs, or null if jobs are
+     * started regardless of the heap
+     */
+    public MemoryAdmission getMemoryAdmission() {
+        return memoryAdmission;
+    }
+
+    /**
+     * Returns true if there is enough heap to start a job needing
+     * estimate bytes, next to the jobs of all migrator controllers
+     */
+    public boolean admitJob(long estimate) {
+        if(memoryAdmission==null)
+            return true;
+        long running=0;
+        int n=0;
+        for(MigrationProcess p:migrationMap.values()) {
+            for(Migrator m:p.mig.getRunningMigrators()) {
+                running+=m.getEstimatedMemory();
+                n++;
+            }
+        }
+        return memoryAdmission.admit(estimate,running,n);
+    }
+
     public MainConfiguration getMainConfiguration() {
         return cfg;
     }
@@ -82,15 +133,35 @@ public class Controller extends Thread {
      *
      * Once created, each thread manages its own lifecycle. If the
      * corresponding configuration is removed, thread terminates, or
-     * it is modified, thread behaves accordingly.
+     * it is modified, thread behaves accordingly. If the job poller
+     * is running, the threads get the reloaded configurations from
+     * here instead of reloading them one by one, and the threads of
+     * removed configurations are stopped.
      */
     public void createControllers(MigrationConfiguration[] configurations) throws IOException {
+        Set<String> ids=new HashSet<>();
         for(MigrationConfiguration cfg:configurations) {
-            if(!migrationMap.containsKey(cfg.get_id())) {
+            ids.add(cfg.get_id());
+            MigrationProcess process=migrationMap.get(cfg.get_id());
+            if(process==null) {
                 LOGGER.debug("Creating a controller thread for configuration {}: {}",cfg.get_id(),cfg.getConfigurationName());
                 MigratorController c=new MigratorController(this,cfg);
                 migrationMap.put(cfg.get_id(),new MigrationProcess(cfg,c));
                 c.start();
+            } else if(jobPoller!=null) {
+                // Controllers don't reload their own configuration
+                // when there is a job poller
+                process.mig.setMigrationConfiguration(cfg);
+            }
+        }
+        if(jobPoller!=null) {
+            for(Iterator<Map.Entry<String,MigrationProcess>> itr=migrationMap.entrySet().iterator();itr.hasNext();) {
+                Map.Entry<String,MigrationProcess> entry=itr.next();
+                if(!ids.contains(entry.getKey())) {
+                    LOGGER.debug("Configuration {} is removed, stopping its controller",entry.getKey());
+                    entry.getValue().mig.interrupt();
+                    itr.remove();
+                }
             }
         }
     }
@@ -99,6 +170,17 @@ public class Controller extends Thread {
     public void run() {
         LOGGER.debug("Starting controller");
         boolean interrupted=false;
+        AdminServer adminServer=null;
+        if(cfg.getAdminPort()>0) {
+            try {
+                adminServer=new AdminServer(this,cfg.getAdminPort());
+                adminServer.start();
+            } catch (IOException e) {
+                LOGGER.error("Cannot start admin server on port {}:{}",cfg.getAdminPort(),e);
+            }
+        }
+        jobPoller=new JobPoller(this,lightblueClient);
+        jobPoller.start();
         Breakpoint.checkpoint("Controller:start");
         while(!interrupted) {
             interrupted=isInterrupted();
@@ -120,8 +202,11 @@ public class Controller extends Thread {
                 }
             }
         }
+        jobPoller.interrupt();
         for(MigrationProcess p:migrationMap.values()) {
             p.mig.interrupt();
         }
+        if(adminServer!=null)
+            adminServer.stop();
     }
 }
@@ -2,20 +2,37 @@ package com.redhat.lightblue.migrator;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java.io.IOException;
 
+import java.lang.reflect.Method;
+
 import java.sql.SQLException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -24,16 +41,22 @@ import org.apache.commons.lang.StringUtils;
 
 import com.redhat.lightblue.client.LightblueClient;
 import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
 import com.redhat.lightblue.client.request.data.DataSaveRequest;
+import com.redhat.lightblue.client.request.data.DataUpdateRequest;
 import com.redhat.lightblue.client.request.SortCondition;
 import com.redhat.lightblue.client.response.LightblueResponse;
 import com.redhat.lightblue.client.enums.SortDirection;
 import com.redhat.lightblue.client.enums.ExpressionOperation;
 import com.redhat.lightblue.client.expression.query.Query;
 import com.redhat.lightblue.client.expression.query.ValueQuery;
+import com.redhat.lightblue.client.expression.update.SetUpdate;
+import com.redhat.lightblue.client.expression.update.PathValuePair;
+import com.redhat.lightblue.client.expression.update.LiteralRValue;
 import com.redhat.lightblue.client.projection.Projection;
 import com.redhat.lightblue.client.projection.FieldProjection;
 import static com.redhat.lightblue.client.projection.FieldProjection.includeFieldRecursively;
+import static com.redhat.lightblue.client.projection.FieldProjection.includeField;
 import static com.redhat.lightblue.client.projection.FieldProjection.excludeField;
 import static com.redhat.lightblue.client.expression.query.NaryLogicalQuery.and;
 import static com.redhat.lightblue.client.expression.query.NaryLogicalQuery.or;
@@ -43,10 +66,43 @@ public class DefaultMigrator extends Migrator {
     private static final Logger LOGGER=LoggerFactory.getLogger(DefaultMigrator.class);
 
     protected static final int BATCH_SIZE = 64;
+    protected static final int IDENTITY_PROBE_BATCH_SIZE = 256;
+
+    private static final ObjectMapper MAPPER=new ObjectMapper();
 
     private LightblueClient sourceCli;
     private LightblueClient destCli;
 
+    /**
+     * If raw pass-through is enabled, the text of the source documents
+     * as received from the source, keyed by the parsed documents. A
+     * document replaced by a subclass is not found, and is written
+     * serialized.
+     */
+    private Map<JsonNode,String> rawSourceDocs;
+
+    /**
+     * Methods through which subclasses can change documents before
+     * they are written. Raw pass-through is disabled if a subclass
+     * overrides any of these, because the raw text would not have the
+     * changes. Documents are not fetched directly into compact maps
+     * either, because the overriding methods would not be called.
+     */
+    private static final List<String> DOCUMENT_HOOKS=Arrays.asList("getSourceDocuments",
+                                                                   "getDocumentIdMap",
+                                                                   "insert",
+                                                                   "save",
+                                                                   "rewrite");
+
+    private Boolean overridesDocumentHooks;
+
+    private StreamingDocComparator comparator;
+
+    /**
+     * Executor for concurrent writes, see getWriteExecutor()
+     */
+    private ExecutorService writeExecutor;
+
     public DefaultMigrator(ThreadGroup grp) {
         super(grp);
     }
@@ -76,15 +132,18 @@ public class DefaultMigrator extends Migrator {
     public List<JsonNode> getSourceDocuments() {
         LOGGER.debug("Retrieving source docs");
         try {
-            DataFindRequest sourceRequest = new DataFindRequest(getMigrationConfiguration().getSourceEntityName(),
-                                                                getMigrationConfiguration().getSourceEntityVersion());
-            sourceRequest.where(new Query() {
-                    public String toJson() {
-                        return getMigrationJob().getQuery();
-                    }
-                });
-            sourceRequest.select(includeFieldRecursively("*"), excludeField("objectType"));
-            LOGGER.debug("Source docs retrieval req: {}",sourceRequest.getBody());
+            DataFindRequest sourceRequest = getSourceRequest();
+            if(getMigrationConfiguration().isRawPassThrough()&&!overridesDocumentHooks()) {
+                final List<JsonNode> results=new ArrayList<>();
+                rawSourceDocs=new IdentityHashMap<>();
+                parseDocuments(getSourceResponseText(sourceRequest),new DocumentSink() {
+                        public void add(JsonNode doc) {
+                            results.add(doc);
+                        }
+                    },rawSourceDocs);
+                LOGGER.debug("There are {} source docs",results.size());
+                return results;
+            }
             JsonNode[] results=getSourceCli().data(sourceRequest,JsonNode[].class);
             LOGGER.debug("There are {} source docs",results.length);
             return Arrays.asList(results);
@@ -93,52 +152,336 @@ public class DefaultMigrator extends Migrator {
             throw new RuntimeException("Cannot retrieve source documents:"+e);
         }
     }
-  
+
+    /**
+     * If compactDocuments is set, parses the source documents one by
+     * one from the response, and encodes each into the map before the
+     * next one is parsed. So only the response text and the encoded
+     * documents are in memory, not the trees of all documents. This
+     * is not done if the migrator class overrides any of the document
+     * hooks.
+     */
+    @Override
+    public Map<Identity,JsonNode> getSourceDocumentMap() {
+        if(!getMigrationConfiguration().isCompactDocuments()||overridesDocumentHooks())
+            return super.getSourceDocumentMap();
+        LOGGER.debug("Retrieving compact source docs");
+        try {
+            DocumentMapBuilder builder=new DocumentMapBuilder();
+            parseDocuments(getSourceResponseText(getSourceRequest()),builder,null);
+            LOGGER.debug("There are {} source docs",builder.map.size());
+            return builder.map;
+        } catch (Exception e) {
+            LOGGER.error("Error while retrieving source documents:{}",e);
+            throw new RuntimeException("Cannot retrieve source documents:"+e);
+        }
+    }
+
+    private DataFindRequest getSourceRequest() {
+        DataFindRequest sourceRequest = new DataFindRequest(getMigrationConfiguration().getSourceEntityName(),
+                                                            getMigrationConfiguration().getSourceEntityVersion());
+        sourceRequest.where(new Query() {
+                public String toJson() {
+                    return getMigrationJob().getQuery();
+                }
+            });
+        sourceRequest.select(includeFieldRecursively("*"), excludeField("objectType"));
+        LOGGER.debug("Source docs retrieval req: {}",sourceRequest.getBody());
+        return sourceRequest;
+    }
+
+    private String getSourceResponseText(DataFindRequest sourceRequest) {
+        LightblueResponse response=getSourceCli().data(sourceRequest);
+        if(response.hasError())
+            throw new RuntimeException("Error retrieving source documents:"+response.getJson());
+        return response.getText();
+    }
+
+    /**
+     * Splits the job into ranges of splitField if the job has more than
+     * maxJobSize documents. The job documents are counted first, and
+     * only if there are more than maxJobSize, the values of splitField
+     * of the documents of the job are read in order, a page at a time,
+     * and a range boundary is placed after every maxJobSize documents,
+     * see JobGenerator.getSplitQueries. Documents with the same value
+     * are never split into different jobs. The first and last jobs are
+     * open ended, so documents added after the split are not missed.
+     */
+    @Override
+    public List<String> splitJob(int maxJobSize) {
+        String field=getMigrationConfiguration().getSplitField();
+        if(field==null)
+            field=getMigrationConfiguration().getDestinationIdentityFields().get(0);
+        try {
+            JobGenerator generator=getJobGenerator();
+            long count=generator.countSourceDocuments(getSourceCli(),getMigrationJob().getQuery(),field);
+            LOGGER.debug("Job {} has {} docs",getMigrationJob().get_id(),count);
+            if(count<=maxJobSize)
+                return null;
+            return generator.getSplitQueries(getSourceCli(),getMigrationJob().getQuery(),field,maxJobSize);
+        } catch (Exception e) {
+            LOGGER.error("Cannot split job {}:{}",getMigrationJob().get_id(),e);
+            throw new RuntimeException("Cannot split job:"+e);
+        }
+    }
+
+    /**
+     * Receives documents one by one
+     */
+    private interface DocumentSink {
+        void add(JsonNode doc);
+    }
+
+    /**
+     * Adds documents to an id-doc map
+     */
+    private final class DocumentMapBuilder implements DocumentSink {
+        Map<Identity,JsonNode> map=newDocumentIdMap();
+
+        @Override
+        public void add(JsonNode doc) {
+            map=addDocument(map,doc);
+        }
+    }
+
+    /**
+     * Parses the processed documents of a find response one by one,
+     * and passes them to the sink. If raw is not null, the text of
+     * each document is kept in raw, so the document can be written
+     * without serializing it again.
+     */
+    private static void parseDocuments(String responseText,DocumentSink sink,Map<JsonNode,String> raw)
+        throws IOException {
+        try (JsonParser parser=MAPPER.getFactory().createParser(responseText)) {
+            if(parser.nextToken()==JsonToken.START_OBJECT) {
+                while(parser.nextToken()==JsonToken.FIELD_NAME) {
+                    String field=parser.getCurrentName();
+                    if(parser.nextToken()==JsonToken.START_ARRAY&&"processed".equals(field)) {
+                        while(parser.nextToken()==JsonToken.START_OBJECT) {
+                            int start=(int)parser.getTokenLocation().getCharOffset();
+                            JsonNode doc=MAPPER.readTree(parser);
+                            if(raw!=null) {
+                                int end=(int)parser.getCurrentLocation().getCharOffset();
+                                raw.put(doc,responseText.substring(start,end));
+                            }
+                            sink.add(doc);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the raw text of the given source documents, or null if
+     * any of the documents is not available as raw text
+     */
+    private List<String> getRawDocuments(List<JsonNode> docs) {
+        if(rawSourceDocs==null)
+            return null;
+        List<String> ret=new ArrayList<>(docs.size());
+        for(JsonNode doc:docs) {
+            String raw=rawSourceDocs.get(doc);
+            if(raw==null)
+                return null;
+            ret.add(raw);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns true if the class of this migrator overrides any of the
+     * document hooks
+     */
+    private boolean overridesDocumentHooks() {
+        if(overridesDocumentHooks==null) {
+            overridesDocumentHooks=overrides(DOCUMENT_HOOKS.toArray(new String[DOCUMENT_HOOKS.size()]));
+            if(overridesDocumentHooks)
+                LOGGER.warn("Raw pass-through and compact fetch disabled, {} overrides document hooks:{}",
+                            getClass().getName(),getMigrationConfiguration().getConfigurationName());
+        }
+        return overridesDocumentHooks;
+    }
+
+    /**
+     * Returns true if the class of this migrator overrides any of the
+     * given methods of DefaultMigrator
+     */
+    private boolean overrides(String... methods) {
+        List<String> names=Arrays.asList(methods);
+        for(Class<?> c=getClass();c!=DefaultMigrator.class;c=c.getSuperclass())
+            for(Method m:c.getDeclaredMethods())
+                if(names.contains(m.getName()))
+                    return true;
+        return false;
+    }
+
+    /**
+     * Builds a request body containing the given documents as is
+     */
+    private static String getRawRequestBody(List<String> docs,List<Projection> projections) {
+        StringBuilder body=new StringBuilder();
+        body.append("{\"data\":[");
+        boolean first=true;
+        for(String doc:docs) {
+            if(!first)
+                body.append(',');
+            body.append(doc);
+            first=false;
+        }
+        body.append(']');
+        if(projections!=null) {
+            body.append(",\"projection\":[");
+            first=true;
+            for(Projection p:projections) {
+                if(!first)
+                    body.append(',');
+                body.append(p.toJson());
+                first=false;
+            }
+            body.append(']');
+        }
+        return body.append('}').toString();
+    }
+
+    /**
+     * Insert request with a prebuilt body
+     */
+    private static final class RawDataInsertRequest extends DataInsertRequest {
+        private final String body;
+
+        public RawDataInsertRequest(String entityName,String entityVersion,String body) {
+            super(entityName,entityVersion);
+            this.body=body;
+        }
+
+        @Override
+        public String getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Save request with a prebuilt body
+     */
+    private static final class RawDataSaveRequest extends DataSaveRequest {
+        private final String body;
+
+        public RawDataSaveRequest(String entityName,String entityVersion,String body) {
+            super(entityName,entityVersion);
+            this.body=body;
+        }
+
+        @Override
+        public String getBody() {
+            return body;
+        }
+    }
+
     public List<JsonNode> getDestinationDocuments(Collection<Identity> ids) {
+        final List<JsonNode> destinationDocuments = new ArrayList<>();
+        fetchDestinationDocuments(ids,new DocumentSink() {
+                public void add(JsonNode doc) {
+                    destinationDocuments.add(doc);
+                }
+            });
+        return destinationDocuments;
+    }
+
+    /**
+     * If compactDocuments is set, encodes the documents of each
+     * destination batch into the map before the next batch is
+     * fetched. This is not done if the migrator class overrides
+     * getDestinationDocuments, or any of the document hooks.
+     */
+    @Override
+    public Map<Identity,JsonNode> getDestinationDocumentMap(Collection<Identity> ids) {
+        if(!getMigrationConfiguration().isCompactDocuments()||
+           overrides("getDestinationDocuments")||overridesDocumentHooks())
+            return super.getDestinationDocumentMap(ids);
+        DocumentMapBuilder builder=new DocumentMapBuilder();
+        fetchDestinationDocuments(ids,builder);
+        return builder.map;
+    }
+
+    private void fetchDestinationDocuments(Collection<Identity> ids,DocumentSink sink) {
         try {
-            List<JsonNode> destinationDocuments = new ArrayList<>();
             if (ids == null || ids.isEmpty()) {
                 LOGGER.debug("Unable to fetch any destination documents as there are no source documents");
-                return destinationDocuments;
+                return;
+            }
+
+            if(getMigrationConfiguration().isDestinationIdentityProbe()) {
+                ids=getExistingDestinationIdentities(ids);
+                LOGGER.debug("There are {} existing destination docs",ids.size());
             }
             
             List<Identity> batch=new ArrayList<>();
             for(Identity id:ids) {
                 batch.add(id);
                 if(batch.size()>=BATCH_SIZE) {
-                    doDestinationDocumentFetch(batch,destinationDocuments);
+                    doDestinationDocumentFetch(batch,sink);
                     batch.clear();
                 }
             }
             
             if(!batch.isEmpty()) {
-                doDestinationDocumentFetch(batch,destinationDocuments);
+                doDestinationDocumentFetch(batch,sink);
             }
-            return destinationDocuments;
         } catch (Exception e) {
             LOGGER.error("Error while retrieving destination documents:{}",e);
             throw new RuntimeException("Cannot retrieve destination documents:"+e);
         }
     }
 
-    private void  doDestinationDocumentFetch(List<Identity> ids,List<JsonNode> dest)
+    /**
+     * Retrieves only the identity fields of the destination documents
+     * with the given ids, and returns the ids that exist in the
+     * destination, in the order they are given.
+     */
+    private List<Identity> getExistingDestinationIdentities(Collection<Identity> ids)
+        throws Exception {
+        Set<Identity> existing=new HashSet<>();
+        List<Identity> batch=new ArrayList<>();
+        for(Identity id:ids) {
+            batch.add(id);
+            if(batch.size()>=IDENTITY_PROBE_BATCH_SIZE) {
+                doDestinationIdentityProbe(batch,existing);
+                batch.clear();
+            }
+        }
+        if(!batch.isEmpty()) {
+            doDestinationIdentityProbe(batch,existing);
+        }
+        List<Identity> ret=new ArrayList<>(existing.size());
+        for(Identity id:ids)
+            if(existing.contains(id))
+                ret.add(id);
+        return ret;
+    }
+
+    private void doDestinationIdentityProbe(List<Identity> ids,Set<Identity> existing)
+        throws Exception {
+        DataFindRequest probeRequest = new DataFindRequest(getMigrationConfiguration().getDestinationEntityName(),
+                                                           getMigrationConfiguration().getDestinationEntityVersion());
+        probeRequest.where(getIdentityQuery(ids));
+        probeRequest.select(getIdentityProjection());
+        LOGGER.debug("Probing destination docs {}",probeRequest.getBody());
+        JsonNode[] nodes=getDestCli().data(probeRequest, JsonNode[].class);
+        if(nodes!=null) {
+            for(JsonNode node:nodes)
+                existing.add(new Identity(node,getMigrationConfiguration().getDestinationIdentityFields()));
+        }
+    }
+
+    private void  doDestinationDocumentFetch(List<Identity> ids,DocumentSink dest)
         throws Exception {
         if(ids!=null&&!ids.isEmpty()) {
             DataFindRequest destinationRequest = new DataFindRequest(getMigrationConfiguration().getDestinationEntityName(),
                                                                      getMigrationConfiguration().getDestinationEntityVersion());
-            List<Query> requestConditions = new ArrayList<>();
-            for (Identity id:ids) {
-                List<Query> docConditions = new ArrayList<>();
-                int i=0;
-                for (String keyField : getMigrationConfiguration().getDestinationIdentityFields()) {
-                    Object v=id.get(i);
-                    ValueQuery docQuery = new ValueQuery(keyField,ExpressionOperation.EQ,v==null?null:v.toString());
-                    docConditions.add(docQuery);
-                    i++;
-                }
-                requestConditions.add(and(docConditions));
-            }
-            destinationRequest.where(or(requestConditions));
+            destinationRequest.where(getIdentityQuery(ids));
             destinationRequest.select(includeFieldRecursively("*"), excludeField("objectType"));
             LOGGER.debug("Fetching destination docs {}",destinationRequest.getBody());
             JsonNode[] nodes=getDestCli().data(destinationRequest, JsonNode[].class);
@@ -151,6 +494,36 @@ public class DefaultMigrator extends Migrator {
         }
     }
 
+    /**
+     * Builds a query that matches the documents with the given ids
+     */
+    private Query getIdentityQuery(List<Identity> ids) {
+        List<Query> requestConditions = new ArrayList<>();
+        for (Identity id:ids) {
+            List<Query> docConditions = new ArrayList<>();
+            int i=0;
+            for (String keyField : getMigrationConfiguration().getDestinationIdentityFields()) {
+                Object v=id.get(i);
+                ValueQuery docQuery = new ValueQuery(keyField,ExpressionOperation.EQ,v==null?null:v.toString());
+                docConditions.add(docQuery);
+                i++;
+            }
+            requestConditions.add(and(docConditions));
+        }
+        return or(requestConditions);
+    }
+
+    /**
+     * Returns a projection that includes only the identity fields
+     */
+    private Projection[] getIdentityProjection() {
+        List<String> fields=getMigrationConfiguration().getDestinationIdentityFields();
+        Projection[] projections=new Projection[fields.size()];
+        for(int i=0;i<projections.length;i++)
+            projections[i]=includeField(fields.get(i));
+        return projections;
+    }
+
     /**
      *
      * @param sourceDocument
@@ -158,11 +531,43 @@ public class DefaultMigrator extends Migrator {
      * @return list of inconsistent paths
      */
     public List<String> compareDocs(JsonNode sourceDocument, JsonNode destinationDocument) {
+        if(MigrationConfiguration.COMPARISON_ENGINE_STREAM.equals(getMigrationConfiguration().getComparisonEngine())) {
+            return compareDocs(sourceDocument.traverse(),destinationDocument.traverse());
+        }
         List<String> inconsistentPaths = new ArrayList<>();
         compareDocs(inconsistentPaths, sourceDocument, destinationDocument, null);
         return inconsistentPaths;
     }
 
+    /**
+     * Compares two documents using their token streams if the
+     * comparison engine is stream, otherwise reads them into trees
+     *
+     * @return list of inconsistent paths
+     */
+    @Override
+    public List<String> compareDocs(JsonParser sourceDocument, JsonParser destinationDocument) {
+        if(!MigrationConfiguration.COMPARISON_ENGINE_STREAM.equals(getMigrationConfiguration().getComparisonEngine())) {
+            return super.compareDocs(sourceDocument,destinationDocument);
+        }
+        try {
+            return getComparator().compare(sourceDocument,destinationDocument);
+        } catch (IOException e) {
+            LOGGER.error("Cannot compare documents:{}",e);
+            throw new RuntimeException("Cannot compare documents:"+e);
+        }
+    }
+
+    /**
+     * Returns the comparator of this migrator. It is shared by the
+     * comparison threads.
+     */
+    private synchronized StreamingDocComparator getComparator() {
+        if(comparator==null)
+            comparator=new StreamingDocComparator(getMigrationConfiguration().getComparisonExclusionPaths());
+        return comparator;
+    }
+
     //Recursive method
     private void compareDocs(List<String> inconsistentPaths,
                              final JsonNode sourceDocument,
@@ -221,31 +626,348 @@ public class DefaultMigrator extends Migrator {
     }
 
 
+    /**
+     * Inserts new documents using insert requests, in batches of
+     * insertBatchSize with up to insertConcurrency concurrent requests
+     */
+    @Override
+    public List<LightblueResponse> insert(List<JsonNode> docs) {
+        return writeBatches(split(docs,getBatchSize(getMigrationConfiguration().getInsertBatchSize())),
+                            getMigrationConfiguration().getInsertConcurrency(),
+                            new ListWriter<JsonNode>() {
+                                public LightblueResponse write(List<JsonNode> batch) {
+                                    return insertBatch(batch);
+                                }
+                            });
+    }
+
+    /**
+     * Saves existing documents using save requests, in batches of
+     * rewriteBatchSize with up to rewriteConcurrency concurrent requests
+     */
     public List<LightblueResponse> save(List<JsonNode> docs) {
-        List<LightblueResponse> responses = new ArrayList<>();
-        List<JsonNode> batch=new ArrayList<>();
-        for(JsonNode doc:docs) {
-            batch.add(doc);
-            if(batch.size()>=BATCH_SIZE) {
-                responses.add(saveBatch(batch));
-                batch.clear();
+        return writeBatches(split(docs,getBatchSize(getMigrationConfiguration().getRewriteBatchSize())),
+                            getMigrationConfiguration().getRewriteConcurrency(),
+                            new ListWriter<JsonNode>() {
+                                public LightblueResponse write(List<JsonNode> batch) {
+                                    return saveBatch(batch);
+                                }
+                            });
+    }
+
+    private static int getBatchSize(int configured) {
+        return configured>0?configured:BATCH_SIZE;
+    }
+
+    private static <T> List<List<T>> split(List<T> items,int batchSize) {
+        List<List<T>> batches=new ArrayList<>();
+        for(int i=0;i<items.size();i+=batchSize)
+            batches.add(items.subList(i,Math.min(i+batchSize,items.size())));
+        return batches;
+    }
+
+    private interface BatchWriter<B> {
+        LightblueResponse write(B batch);
+
+        /**
+         * Returns the number of documents in the batch
+         */
+        int size(B batch);
+    }
+
+    private abstract static class ListWriter<T> implements BatchWriter<List<T>> {
+        @Override
+        public int size(List<T> batch) {
+            return batch.size();
+        }
+    }
+
+    /**
+     * Returns the executor for concurrent writes. It is created on
+     * first use with enough threads for both inserts and rewrites,
+     * and shut down when the job is done.
+     */
+    private synchronized ExecutorService getWriteExecutor() {
+        if(writeExecutor==null)
+            writeExecutor=Executors.newFixedThreadPool(Math.max(getMigrationConfiguration().getInsertConcurrency(),
+                                                                getMigrationConfiguration().getRewriteConcurrency()));
+        return writeExecutor;
+    }
+
+    @Override
+    public void cleanupMigrator() {
+        synchronized(this) {
+            if(writeExecutor!=null) {
+                writeExecutor.shutdownNow();
+                writeExecutor=null;
             }
         }
-        if(!batch.isEmpty()) {
-            responses.add(saveBatch(batch));
+        super.cleanupMigrator();
+    }
+
+    /**
+     * Writes the batches using the given writer. If concurrency is
+     * greater than one, up to that many batches are written
+     * concurrently using the write executor. Responses are returned
+     * in batch order.
+     */
+    private <B> List<LightblueResponse> writeBatches(final List<B> batches,
+                                                     int concurrency,
+                                                     final BatchWriter<B> writer) {
+        if(concurrency<=1||batches.size()<=1) {
+            List<LightblueResponse> responses = new ArrayList<>(batches.size());
+            for(B batch:batches)
+                responses.add(timedWrite(writer,batch));
+            return responses;
         }
-        return responses;
+        // Make sure client is initialized before it is shared
+        getDestCli();
+        final LightblueResponse[] responses=new LightblueResponse[batches.size()];
+        CompletionService<Void> completion=new ExecutorCompletionService<>(getWriteExecutor());
+        List<Future<Void>> futures=new ArrayList<>(batches.size());
+        int completed=0;
+        try {
+            // Keep at most concurrency batches in flight
+            while(completed<batches.size()) {
+                while(futures.size()<batches.size()&&futures.size()-completed<concurrency) {
+                    final int i=futures.size();
+                    futures.add(completion.submit(new Callable<Void>() {
+                            public Void call() {
+                                responses[i]=timedWrite(writer,batches.get(i));
+                                return null;
+                            }
+                        }));
+                }
+                completion.take().get();
+                completed++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing documents");
+        } catch (ExecutionException e) {
+            LOGGER.error("Error while writing documents:{}",e.getCause());
+            throw new RuntimeException("Cannot write documents:"+e.getCause());
+        } finally {
+            if(completed<batches.size())
+                for(Future<Void> future:futures)
+                    future.cancel(true);
+        }
+        return Arrays.asList(responses);
+    }
+
+    /**
+     * Writes a batch, and records its latency in the controller metrics
+     * and as a flight recorder event
+     */
+    private <B> LightblueResponse timedWrite(BatchWriter<B> writer,B batch) {
+        long start=System.currentTimeMillis();
+        FlightRecorder.Event event=FlightRecorderEvents.WRITE_BATCH.begin();
+        try {
+            return writer.write(batch);
+        } finally {
+            getController().getMetrics().batchCompleted(System.currentTimeMillis()-start);
+            event.set("configurationName",getMigrationConfiguration().getConfigurationName()).
+                set("batchSize",(long)writer.size(batch)).
+                commit();
+        }
+    }
+
+    private LightblueResponse insertBatch(List<JsonNode> documentsToInsert) {
+        List<Projection> projections = getWriteProjection();
+        List<String> rawDocs=getRawDocuments(documentsToInsert);
+        DataInsertRequest insertRequest;
+        if(rawDocs!=null) {
+            insertRequest = new RawDataInsertRequest(getMigrationConfiguration().getDestinationEntityName(),
+                                                     getMigrationConfiguration().getDestinationEntityVersion(),
+                                                     getRawRequestBody(rawDocs,projections));
+        } else {
+            insertRequest = new DataInsertRequest(getMigrationConfiguration().getDestinationEntityName(),
+                                                  getMigrationConfiguration().getDestinationEntityVersion());
+            insertRequest.create(documentsToInsert.toArray());
+            if(projections!=null)
+                insertRequest.returns(projections);
+        }
+        return checkWriteResponse(getDestCli().data(insertRequest),documentsToInsert.size());
     }
                 
     private LightblueResponse saveBatch(List<JsonNode> documentsToOverwrite) {
         // LightblueClient - save & overwrite documents
-        DataSaveRequest saveRequest = new DataSaveRequest(getMigrationConfiguration().getDestinationEntityName(),
-                                                          getMigrationConfiguration().getDestinationEntityVersion());
-        saveRequest.create(documentsToOverwrite.toArray());
-        List<Projection> projections = new ArrayList<>();
-        projections.add(new FieldProjection("*", false, true));
-        saveRequest.returns(projections);
-        return getDestCli().data(saveRequest);
+        List<Projection> projections = getWriteProjection();
+        List<String> rawDocs=getRawDocuments(documentsToOverwrite);
+        DataSaveRequest saveRequest;
+        if(rawDocs!=null) {
+            saveRequest = new RawDataSaveRequest(getMigrationConfiguration().getDestinationEntityName(),
+                                                 getMigrationConfiguration().getDestinationEntityVersion(),
+                                                 getRawRequestBody(rawDocs,projections));
+        } else {
+            saveRequest = new DataSaveRequest(getMigrationConfiguration().getDestinationEntityName(),
+                                              getMigrationConfiguration().getDestinationEntityVersion());
+            saveRequest.create(documentsToOverwrite.toArray());
+            if(projections!=null)
+                saveRequest.returns(projections);
+        }
+        return checkWriteResponse(getDestCli().data(saveRequest),documentsToOverwrite.size());
+    }
+
+    /**
+     * Returns the projection for insert and save requests based on
+     * the save response mode, or null if nothing should be returned
+     */
+    private List<Projection> getWriteProjection() {
+        String mode=getMigrationConfiguration().getSaveResponseMode();
+        if(MigrationConfiguration.SAVE_RESPONSE_COUNT.equals(mode)) {
+            return null;
+        } else if(MigrationConfiguration.SAVE_RESPONSE_IDENTITY.equals(mode)) {
+            return Arrays.asList(getIdentityProjection());
+        } else {
+            List<Projection> projections = new ArrayList<>();
+            projections.add(new FieldProjection("*", false, true));
+            return projections;
+        }
+    }
+
+    /**
+     * If the save response mode is not full, makes sure the write
+     * succeeded using the modified count. The response body is logged
+     * only if there is an error.
+     */
+    private LightblueResponse checkWriteResponse(LightblueResponse response,int numDocs) {
+        String mode=getMigrationConfiguration().getSaveResponseMode();
+        if(MigrationConfiguration.SAVE_RESPONSE_COUNT.equals(mode)||
+           MigrationConfiguration.SAVE_RESPONSE_IDENTITY.equals(mode)) {
+            checkModifiedCount(response,numDocs);
+        }
+        return response;
+    }
+
+    /**
+     * Makes sure the write succeeded, and modified numDocs documents
+     */
+    private static LightblueResponse checkModifiedCount(LightblueResponse response,int numDocs) {
+        if(response.hasError()||response.parseModifiedCount()!=numDocs) {
+            LOGGER.error("Write failed, expected {} modified docs, response:{}",numDocs,response.getJson());
+            throw new RuntimeException("Write failed, expected "+numDocs+" modified docs, got "+
+                                       (response.hasError()?"error":Integer.toString(response.parseModifiedCount())));
+        }
+        return response;
+    }
+
+    /**
+     * Patches the inconsistent paths of the destination documents
+     * using values from the source documents. Documents are grouped by
+     * the set of paths they need patched. Within a group, documents
+     * that get the same values are patched together using a single
+     * update request, and a document with values of its own, such as
+     * a timestamp, is patched using an update request of its own, so
+     * only its inconsistent fields are sent. All update requests go
+     * through the rewrite batches and concurrency. Only documents that
+     * cannot be patched (the whole document is inconsistent, or a
+     * container value has to be set) are saved in full, in batches.
+     */
+    @Override
+    public List<LightblueResponse> rewrite(Map<Identity,List<String>> inconsistentPaths) {
+        List<LightblueResponse> responses = new ArrayList<>();
+        List<JsonNode> fullSaves=new ArrayList<>();
+        // Patched paths -> patch values -> patch
+        Map<Set<String>,Map<String,Patch>> shapes=new LinkedHashMap<>();
+        int numPatches=0;
+        for(Map.Entry<Identity,List<String>> entry:inconsistentPaths.entrySet()) {
+            JsonNode sourceDoc=getSourceDocs().get(entry.getKey());
+            SortedMap<String,JsonNode> values=getPatchValues(sourceDoc,entry.getValue());
+            if(values==null) {
+                fullSaves.add(sourceDoc);
+            } else {
+                Map<String,Patch> patches=shapes.get(values.keySet());
+                if(patches==null)
+                    shapes.put(values.keySet(),patches=new LinkedHashMap<String,Patch>());
+                StringBuilder key=new StringBuilder();
+                for(JsonNode v:values.values())
+                    key.append(v.toString()).append('\n');
+                Patch patch=patches.get(key.toString());
+                if(patch==null) {
+                    patches.put(key.toString(),patch=new Patch(values));
+                    numPatches++;
+                }
+                patch.ids.add(entry.getKey());
+            }
+        }
+        LOGGER.debug("Patching {} docs with {} sets of paths using {} distinct patches, {} docs will be saved",
+                     inconsistentPaths.size()-fullSaves.size(),shapes.size(),numPatches,fullSaves.size());
+        // Batches of all patches are written together, so small
+        // patches are written concurrently too
+        int batchSize=getBatchSize(getMigrationConfiguration().getRewriteBatchSize());
+        List<PatchBatch> batches=new ArrayList<>();
+        for(Map<String,Patch> patches:shapes.values())
+            for(Patch patch:patches.values())
+                for(List<Identity> ids:split(patch.ids,batchSize))
+                    batches.add(new PatchBatch(patch,ids));
+        responses.addAll(writeBatches(batches,
+                                      getMigrationConfiguration().getRewriteConcurrency(),
+                                      new BatchWriter<PatchBatch>() {
+                                          public LightblueResponse write(PatchBatch batch) {
+                                              return patchBatch(batch.patch,batch.ids);
+                                          }
+
+                                          public int size(PatchBatch batch) {
+                                              return batch.ids.size();
+                                          }
+                                      }));
+        if(!fullSaves.isEmpty()) {
+            responses.addAll(save(fullSaves));
+        }
+        return responses;
+    }
+
+    private static final class Patch {
+        final SortedMap<String,JsonNode> values;
+        final List<Identity> ids=new ArrayList<>();
+
+        public Patch(SortedMap<String,JsonNode> values) {
+            this.values=values;
+        }
+    }
+
+    private static final class PatchBatch {
+        final Patch patch;
+        final List<Identity> ids;
+
+        public PatchBatch(Patch patch,List<Identity> ids) {
+            this.patch=patch;
+            this.ids=ids;
+        }
+    }
+
+    /**
+     * Returns the paths to set and their values from the source
+     * document, or null if the document cannot be patched. Inconsistent
+     * paths under arrays do not contain array indexes, so documents
+     * with inconsistent arrays cannot be patched.
+     */
+    private SortedMap<String,JsonNode> getPatchValues(JsonNode sourceDoc,List<String> paths) {
+        SortedMap<String,JsonNode> values=new TreeMap<>();
+        for(String path:paths) {
+            if("*".equals(path))
+                return null;
+            JsonNode value=Identity.getFieldValue(sourceDoc,path);
+            if(value==null||value.isContainerNode())
+                return null;
+            values.put(path,value);
+        }
+        return values;
+    }
+
+    private LightblueResponse patchBatch(Patch patch,List<Identity> ids) {
+        DataUpdateRequest updateRequest = new DataUpdateRequest(getMigrationConfiguration().getDestinationEntityName(),
+                                                                getMigrationConfiguration().getDestinationEntityVersion());
+        updateRequest.where(getIdentityQuery(ids));
+        updateRequest.returns(getIdentityProjection());
+        PathValuePair[] pairs=new PathValuePair[patch.values.size()];
+        int i=0;
+        for(Map.Entry<String,JsonNode> v:patch.values.entrySet())
+            pairs[i++]=new PathValuePair(v.getKey(),new LiteralRValue(v.getValue().toString()));
+        updateRequest.updates(new SetUpdate(pairs));
+        LOGGER.debug("Patching destination docs {}",updateRequest.getBody());
+        return checkModifiedCount(getDestCli().data(updateRequest),ids.size());
     }
 
 }
@@ -0,0 +1,99 @@
+package com.redhat.lightblue.migrator;
+
+/**
+ * Time, document count and lightblue traffic of a phase of a job
+ * execution
+ */
+public class ExecutionPhase {
+
+    private String name;
+    private long timeMillis;
+    private long documentCount;
+    private long requestCount;
+    private long bytesSent;
+    private long bytesReceived;
+    private long rawBytesSent;
+    private long rawBytesReceived;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String s) {
+        name=s;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public void setTimeMillis(long l) {
+        timeMillis=l;
+    }
+
+    public long getDocumentCount() {
+        return documentCount;
+    }
+
+    public void setDocumentCount(long l) {
+        documentCount=l;
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public void setRequestCount(long l) {
+        requestCount=l;
+    }
+
+    /**
+     * Bytes sent to lightblue, after compression
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public void setBytesSent(long l) {
+        bytesSent=l;
+    }
+
+    /**
+     * Bytes received from lightblue, before decompression
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public void setBytesReceived(long l) {
+        bytesReceived=l;
+    }
+
+    public long getRawBytesSent() {
+        return rawBytesSent;
+    }
+
+    public void setRawBytesSent(long l) {
+        rawBytesSent=l;
+    }
+
+    public long getRawBytesReceived() {
+        return rawBytesReceived;
+    }
+
+    public void setRawBytesReceived(long l) {
+        rawBytesReceived=l;
+    }
+
+    public double getDocumentsPerSecond() {
+        return timeMillis==0?0:documentCount*1000.0/timeMillis;
+    }
+
+    public String toString() {
+        return name+": timeMillis="+timeMillis+
+            " documents="+documentCount+
+            " requests="+requestCount+
+            " bytesSent="+bytesSent+
+            " bytesReceived="+bytesReceived;
+    }
+}
@@ -0,0 +1,93 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Traffic counters of a job execution, broken down into phases. The
+ * migrator starts and ends phases, and the requests made while a phase
+ * is active are counted for that phase as well as for the total.
+ * Phases are not nested, starting a phase ends the current one. Each
+ * phase is also recorded as a flight recorder event.
+ */
+public class ExecutionStats extends TrafficStats {
+
+    public static final String PHASE_SOURCE_FETCH="sourceFetch";
+    public static final String PHASE_DESTINATION_FETCH="destinationFetch";
+    public static final String PHASE_COMPARE="compare";
+    public static final String PHASE_INSERT="insert";
+    public static final String PHASE_REWRITE="rewrite";
+
+    private final List<ExecutionPhase> phases=new ArrayList<>();
+
+    private volatile TrafficStats currentTraffic;
+    private String currentPhase;
+    private long phaseStart;
+    private FlightRecorder.Event currentEvent;
+    private String configurationName;
+    private String jobId;
+
+    /**
+     * Sets the job the flight recorder events are recorded for
+     */
+    public synchronized void setJob(String configurationName,String jobId) {
+        this.configurationName=configurationName;
+        this.jobId=jobId;
+    }
+
+    @Override
+    public void addRequest(long rawSent,long wireSent,long rawReceived,long wireReceived) {
+        super.addRequest(rawSent,wireSent,rawReceived,wireReceived);
+        TrafficStats t=currentTraffic;
+        if(t!=null)
+            t.addRequest(rawSent,wireSent,rawReceived,wireReceived);
+    }
+
+    public synchronized void startPhase(String name) {
+        if(currentPhase!=null)
+            endPhase(0);
+        currentPhase=name;
+        phaseStart=System.currentTimeMillis();
+        currentTraffic=new TrafficStats();
+        currentEvent=FlightRecorderEvents.PHASE.begin();
+    }
+
+    /**
+     * Ends the current phase
+     *
+     * @param documentCount Number of documents processed in the phase
+     */
+    public synchronized void endPhase(long documentCount) {
+        if(currentPhase!=null) {
+            TrafficStats t=currentTraffic;
+            currentTraffic=null;
+            ExecutionPhase phase=new ExecutionPhase();
+            phase.setName(currentPhase);
+            phase.setTimeMillis(System.currentTimeMillis()-phaseStart);
+            phase.setDocumentCount(documentCount);
+            phase.setRequestCount(t.getRequestCount());
+            phase.setBytesSent(t.getWireBytesSent());
+            phase.setBytesReceived(t.getWireBytesReceived());
+            phase.setRawBytesSent(t.getRawBytesSent());
+            phase.setRawBytesReceived(t.getRawBytesReceived());
+            phases.add(phase);
+            currentEvent.set("configurationName",configurationName).
+                set("jobId",jobId).
+                set("phase",currentPhase).
+                set("documentCount",documentCount).
+                set("requestCount",t.getRequestCount()).
+                set("bytesSent",t.getWireBytesSent()).
+                set("bytesReceived",t.getWireBytesReceived()).
+                commit();
+            currentEvent=null;
+            currentPhase=null;
+        }
+    }
+
+    /**
+     * Returns the completed phases
+     */
+    public synchronized List<ExecutionPhase> getPhases() {
+        return new ArrayList<>(phases);
+    }
+}
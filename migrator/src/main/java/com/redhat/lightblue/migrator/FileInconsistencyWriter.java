@@ -0,0 +1,102 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.client.util.ClientConstants;
+
+/**
+ * Writes inconsistencies to a file as newline delimited JSON, one
+ * inconsistency per line. When the file grows over maxBytes, it is
+ * renamed to file.1, file.1 is renamed to file.2, and so on, keeping
+ * at most maxFiles old files.
+ */
+public class FileInconsistencyWriter implements InconsistencyWriter {
+
+    public static final long DEFAULT_MAX_BYTES=64l*1024l*1024l;
+    public static final int DEFAULT_MAX_FILES=10;
+
+    private final File file;
+    private final long maxBytes;
+    private final int maxFiles;
+
+    private OutputStream out;
+    private long size;
+
+    public FileInconsistencyWriter(String fileName,long maxBytes,int maxFiles) throws IOException {
+        this.file=new File(fileName);
+        this.maxBytes=maxBytes;
+        this.maxFiles=maxFiles;
+        open();
+    }
+
+    public FileInconsistencyWriter(String fileName) throws IOException {
+        this(fileName,DEFAULT_MAX_BYTES,DEFAULT_MAX_FILES);
+    }
+
+    private void open() throws IOException {
+        File dir=file.getAbsoluteFile().getParentFile();
+        if(dir!=null&&!dir.exists())
+            dir.mkdirs();
+        size=file.length();
+        out=new BufferedOutputStream(new FileOutputStream(file,true));
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        new File(file.getPath()+"."+maxFiles).delete();
+        for(int i=maxFiles-1;i>=1;i--) {
+            File f=new File(file.getPath()+"."+i);
+            if(f.exists())
+                f.renameTo(new File(file.getPath()+"."+(i+1)));
+        }
+        if(maxFiles>0)
+            file.renameTo(new File(file.getPath()+".1"));
+        else
+            file.delete();
+        open();
+    }
+
+    @Override
+    public void write(List<Inconsistency> batch) throws IOException {
+        for(Inconsistency x:batch) {
+            byte[] line=(toJson(x).toString()+"\n").getBytes(StandardCharsets.UTF_8);
+            if(size>0&&size+line.length>maxBytes)
+                roll();
+            out.write(line);
+            size+=line.length;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    static ObjectNode toJson(Inconsistency x) {
+        ObjectNode node=JsonNodeFactory.instance.objectNode();
+        node.put("configurationName",x.getConfigurationName());
+        node.put("destinationEntityName",x.getDestinationEntityName());
+        node.put("destinationEntityVersion",x.getDestinationEntityVersion());
+        node.put("migrationJobId",x.getMigrationJobId());
+        node.put("identityFields",x.getIdentityFields());
+        node.put("identityFieldValues",x.getIdentityFieldValues());
+        ArrayNode paths=node.putArray("inconsistentPaths");
+        if(x.getInconsistentPaths()!=null)
+            for(String p:x.getInconsistentPaths())
+                paths.add(p);
+        if(x.getCreationDate()!=null)
+            node.put("creationDate",ClientConstants.getDateFormat().format(x.getCreationDate()));
+        return node;
+    }
+}
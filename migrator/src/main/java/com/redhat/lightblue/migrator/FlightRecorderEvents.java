@@ -0,0 +1,57 @@
+package com.redhat.lightblue.migrator;
+
+import com.redhat.lightblue.migrator.FlightRecorder.EventType;
+
+/**
+ * Java Flight Recorder event types for migration work, so migration
+ * jobs can be correlated with GC and CPU activity in a JFR
+ * recording. See FlightRecorder for how the events are defined.
+ *
+ * <pre>
+ *   FlightRecorder.Event e=FlightRecorderEvents.PHASE.begin();
+ *   ...
+ *   e.set("documentCount",n).commit();
+ * </pre>
+ */
+public final class FlightRecorderEvents {
+
+    /**
+     * A phase of a migration job, see ExecutionStats
+     */
+    public static final EventType PHASE=new EventType("com.redhat.lightblue.migrator.JobPhase",
+                                                      "Migration Job Phase",
+                                                      "A phase of a migration job",
+                                                      new String[] {"configurationName","jobId","phase","documentCount",
+                                                                    "requestCount","bytesSent","bytesReceived"},
+                                                      new Class<?>[] {String.class,String.class,String.class,long.class,
+                                                                      long.class,long.class,long.class});
+
+    /**
+     * Writing a batch of documents to the destination
+     */
+    public static final EventType WRITE_BATCH=new EventType("com.redhat.lightblue.migrator.WriteBatch",
+                                                            "Migration Write Batch",
+                                                            "A batch of documents written to the destination",
+                                                            new String[] {"configurationName","batchSize"},
+                                                            new Class<?>[] {String.class,long.class});
+
+    /**
+     * An attempt to lock a migration job
+     */
+    public static final EventType LOCK=new EventType("com.redhat.lightblue.migrator.JobLock",
+                                                     "Migration Job Lock",
+                                                     "An attempt to lock a migration job",
+                                                     new String[] {"configurationName","jobId","locked"},
+                                                     new Class<?>[] {String.class,String.class,boolean.class});
+
+    /**
+     * Removing the lock of a migration job
+     */
+    public static final EventType UNLOCK=new EventType("com.redhat.lightblue.migrator.JobUnlock",
+                                                       "Migration Job Unlock",
+                                                       "Removal of the lock of a migration job",
+                                                       new String[] {"configurationName","activeExecutionId"},
+                                                       new Class<?>[] {String.class,String.class});
+
+    private FlightRecorderEvents() {}
+}
@@ -32,6 +32,10 @@ public class Identity {
         return values[i];
     }
 
+    public int size() {
+        return values.length;
+    }
+
     public int hashCode() {
         int v=37;
         for(Object x:values)
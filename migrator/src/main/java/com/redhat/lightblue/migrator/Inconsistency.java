@@ -0,0 +1,115 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A document found to be inconsistent between the source and the
+ * destination. Written to an InconsistencyWriter by the
+ * InconsistencySink, and stored in the inconsistency entity when the
+ * lightblue writer is used.
+ */
+public class Inconsistency {
+
+    private String _id;
+    private String configurationName;
+    private String destinationEntityName;
+    private String destinationEntityVersion;
+    private String migrationJobId;
+    private String identityFields;
+    private String identityFieldValues;
+    private List<String> inconsistentPaths;
+    private Date creationDate;
+
+    public Inconsistency() {}
+
+    public Inconsistency(MigrationConfiguration cfg,
+                         String migrationJobId,
+                         String identityFields,
+                         String identityFieldValues,
+                         List<String> inconsistentPaths) {
+        this.configurationName=cfg.getConfigurationName();
+        this.destinationEntityName=cfg.getDestinationEntityName();
+        this.destinationEntityVersion=cfg.getDestinationEntityVersion();
+        this.migrationJobId=migrationJobId;
+        this.identityFields=identityFields;
+        this.identityFieldValues=identityFieldValues;
+        this.inconsistentPaths=inconsistentPaths;
+        this.creationDate=new Date();
+    }
+
+    public String get_id() {
+        return _id;
+    }
+
+    public void set_id(String id) {
+        _id=id;
+    }
+
+    public String getConfigurationName() {
+        return configurationName;
+    }
+
+    public void setConfigurationName(String s) {
+        configurationName=s;
+    }
+
+    public String getDestinationEntityName() {
+        return destinationEntityName;
+    }
+
+    public void setDestinationEntityName(String s) {
+        destinationEntityName=s;
+    }
+
+    public String getDestinationEntityVersion() {
+        return destinationEntityVersion;
+    }
+
+    public void setDestinationEntityVersion(String s) {
+        destinationEntityVersion=s;
+    }
+
+    public String getMigrationJobId() {
+        return migrationJobId;
+    }
+
+    public void setMigrationJobId(String s) {
+        migrationJobId=s;
+    }
+
+    /**
+     * Comma separated identity field names
+     */
+    public String getIdentityFields() {
+        return identityFields;
+    }
+
+    public void setIdentityFields(String s) {
+        identityFields=s;
+    }
+
+    public String getIdentityFieldValues() {
+        return identityFieldValues;
+    }
+
+    public void setIdentityFieldValues(String s) {
+        identityFieldValues=s;
+    }
+
+    public List<String> getInconsistentPaths() {
+        return inconsistentPaths;
+    }
+
+    public void setInconsistentPaths(List<String> l) {
+        inconsistentPaths=l;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public void setCreationDate(Date d) {
+        creationDate=d;
+    }
+}
@@ -0,0 +1,239 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the inconsistencies found by the migrators of a
+ * configuration, and writes them in batches from a background thread,
+ * so migrator threads never wait for log or database I/O.
+ *
+ * The number of inconsistencies per path is always counted. Above
+ * maxPerSecond inconsistencies in a second, only one in
+ * OVERFLOW_SAMPLE_RATE is written. If the queue is full, the
+ * inconsistency is dropped. Periodically, and when the sink is closed,
+ * a summary of the counts per path and of the sampled out and dropped
+ * inconsistencies is logged.
+ */
+public class InconsistencySink {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(InconsistencySink.class);
+
+    public static final String WRITER_LOG="log";
+    public static final String WRITER_FILE="file";
+    public static final String WRITER_LIGHTBLUE="lightblue";
+
+    public static final int DEFAULT_CAPACITY=10000;
+    public static final int DEFAULT_BATCH_SIZE=100;
+    public static final int OVERFLOW_SAMPLE_RATE=100;
+    public static final long SUMMARY_INTERVAL_MS=60000l;
+    public static final int SUMMARY_PATHS=20;
+
+    private static final Inconsistency EOF=new Inconsistency();
+
+    private final String name;
+    private final InconsistencyWriter writer;
+    private final BlockingQueue<Inconsistency> queue;
+    private final int batchSize;
+    private final int maxPerSecond;
+
+    private final AtomicLong received=new AtomicLong();
+    private final AtomicLong written=new AtomicLong();
+    private final AtomicLong sampledOut=new AtomicLong();
+    private final AtomicLong dropped=new AtomicLong();
+    private final PathHistogram paths=new PathHistogram();
+
+    // Rate window, guarded by this
+    private long windowStart;
+    private int windowCount;
+
+    private volatile boolean closed=false;
+    private Thread thread;
+
+    /**
+     * @param name Name of the sink, used for the thread name and log messages
+     * @param writer The backend
+     * @param capacity Maximum number of queued inconsistencies
+     * @param batchSize Maximum number of inconsistencies passed to the writer at once
+     * @param maxPerSecond Inconsistencies per second above which they are sampled, 0 for no sampling
+     */
+    public InconsistencySink(String name,InconsistencyWriter writer,int capacity,int batchSize,int maxPerSecond) {
+        this.name=name;
+        this.writer=writer;
+        this.queue=new ArrayBlockingQueue<>(capacity);
+        this.batchSize=batchSize;
+        this.maxPerSecond=maxPerSecond;
+    }
+
+    public synchronized void start() {
+        if(thread==null) {
+            thread=new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                },"inconsistencySink:"+name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Adds an inconsistency. Never blocks.
+     */
+    public void add(Inconsistency x) {
+        received.incrementAndGet();
+        if(!accept(x)) {
+            sampledOut.incrementAndGet();
+        } else if(closed||!queue.offer(x)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts the paths, and decides whether the inconsistency is
+     * written
+     */
+    private synchronized boolean accept(Inconsistency x) {
+        if(x.getInconsistentPaths()!=null)
+            paths.addDocument(x.getInconsistentPaths());
+        if(maxPerSecond<=0)
+            return true;
+        long now=System.currentTimeMillis();
+        if(now-windowStart>=1000) {
+            windowStart=now;
+            windowCount=0;
+        }
+        windowCount++;
+        return windowCount<=maxPerSecond||(windowCount-maxPerSecond)%OVERFLOW_SAMPLE_RATE==0;
+    }
+
+    /**
+     * Writes the queued inconsistencies and stops the background
+     * thread. Inconsistencies added after close are dropped.
+     */
+    public void close() {
+        closed=true;
+        Thread t;
+        synchronized(this) {
+            t=thread;
+        }
+        if(t!=null) {
+            try {
+                if(queue.offer(EOF,SUMMARY_INTERVAL_MS,TimeUnit.MILLISECONDS))
+                    t.join(SUMMARY_INTERVAL_MS);
+                else
+                    LOGGER.warn("Inconsistency sink {} is not draining",name);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            List<Inconsistency> batch=new ArrayList<>();
+            flush(batch);
+            write(batch);
+        }
+        try {
+            writer.close();
+        } catch (Exception e) {
+            LOGGER.error("Cannot close inconsistency writer {}:{}",name,e);
+        }
+        logSummary();
+    }
+
+    private void drain() {
+        List<Inconsistency> batch=new ArrayList<>(batchSize);
+        long lastSummary=System.currentTimeMillis();
+        boolean done=false;
+        while(!done) {
+            try {
+                Inconsistency x=queue.poll(1,TimeUnit.SECONDS);
+                if(x!=null) {
+                    batch.add(x);
+                    queue.drainTo(batch,batchSize-1);
+                    if(batch.remove(EOF)) {
+                        done=true;
+                        flush(batch);
+                    }
+                    write(batch);
+                }
+            } catch (InterruptedException e) {
+                done=true;
+            }
+            if(System.currentTimeMillis()-lastSummary>=SUMMARY_INTERVAL_MS) {
+                lastSummary=System.currentTimeMillis();
+                if(sampledOut.get()>0||dropped.get()>0)
+                    logSummary();
+            }
+        }
+    }
+
+    /**
+     * Writes whatever is left in the queue
+     */
+    private void flush(List<Inconsistency> batch) {
+        queue.drainTo(batch);
+        batch.remove(EOF);
+        while(batch.size()>batchSize) {
+            List<Inconsistency> head=batch.subList(0,batchSize);
+            write(new ArrayList<>(head));
+            head.clear();
+        }
+    }
+
+    private void write(List<Inconsistency> batch) {
+        if(!batch.isEmpty()) {
+            try {
+                writer.write(batch);
+                written.addAndGet(batch.size());
+            } catch (Exception e) {
+                dropped.addAndGet(batch.size());
+                LOGGER.error("Cannot write {} inconsistencies for {}:{}",batch.size(),name,e);
+            }
+            batch.clear();
+        }
+    }
+
+    private void logSummary() {
+        LOGGER.info("Inconsistencies for {}: received={} written={} sampledOut={} dropped={} paths={}",
+                    name,received.get(),written.get(),sampledOut.get(),dropped.get(),getTopPaths(SUMMARY_PATHS));
+    }
+
+    /**
+     * Returns the number of inconsistent documents seen for a path.
+     * This is the roll up of the paths of all jobs of the
+     * configuration run by this controller.
+     */
+    public synchronized long getPathCount(String path) {
+        return paths.getCount(path);
+    }
+
+    /**
+     * Returns the n paths with the most inconsistent documents
+     */
+    public synchronized List<PathCount> getTopPaths(int n) {
+        return paths.getTop(n);
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getSampledOut() {
+        return sampledOut.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
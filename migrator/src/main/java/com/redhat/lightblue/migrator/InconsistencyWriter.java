@@ -0,0 +1,15 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Backend of the InconsistencySink. The sink calls write from a single
+ * background thread, with batches of inconsistencies.
+ */
+public interface InconsistencyWriter {
+
+    void write(List<Inconsistency> batch) throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,487 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.enums.ExpressionOperation;
+import com.redhat.lightblue.client.enums.SortDirection;
+import com.redhat.lightblue.client.expression.query.Query;
+import com.redhat.lightblue.client.http.LightblueHttpClient;
+import com.redhat.lightblue.client.hystrix.LightblueHystrixClient;
+import com.redhat.lightblue.client.request.SortCondition;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import com.redhat.lightblue.client.response.LightblueResponse;
+import com.redhat.lightblue.client.util.ClientConstants;
+
+import static com.redhat.lightblue.client.expression.query.ValueQuery.withValue;
+import static com.redhat.lightblue.client.projection.FieldProjection.includeField;
+import static com.redhat.lightblue.client.projection.FieldProjection.includeFieldRecursively;
+
+/**
+ * Creates migration jobs that partition the source documents of a
+ * migration configuration over ranges of a field. The ranges are
+ * either evenly spaced over a key or date range, or balanced so that
+ * each job has about the same number of documents. Balancing walks
+ * the sorted field values of the source once, a page at a time, and
+ * takes the values at evenly spaced positions.
+ *
+ * Jobs are inserted in batches of JOB_INSERT_BATCH_SIZE.
+ */
+public class JobGenerator {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(JobGenerator.class);
+
+    private static final ObjectMapper MAPPER=new ObjectMapper();
+
+    public static final int JOB_INSERT_BATCH_SIZE=64;
+
+    /**
+     * Number of field values retrieved per request when balancing
+     */
+    public static final int DEFAULT_VALUE_PAGE_SIZE=10000;
+
+    public static final Options options;
+
+    private final LightblueClient lbClient;
+    private final MigrationConfiguration migrationConfiguration;
+    private int valuePageSize=DEFAULT_VALUE_PAGE_SIZE;
+
+    static {
+        options = new Options();
+
+        options.addOption(OptionBuilder.
+                          withArgName("config").
+                          withLongOpt("config").
+                          hasArg(true).
+                          withDescription("Path to configuration file for migration").
+                          isRequired().
+                          create('c'));
+        options.addOption(OptionBuilder.
+                          withArgName("name").
+                          withLongOpt("configurationName").
+                          hasArg(true).
+                          withDescription("Name of the migration configuration to create jobs for").
+                          isRequired().
+                          create('n'));
+        options.addOption(OptionBuilder.
+                          withArgName("field").
+                          withLongOpt("field").
+                          hasArg(true).
+                          withDescription("The field to partition the documents with").
+                          isRequired().
+                          create('f'));
+        options.addOption(OptionBuilder.
+                          withArgName("from").
+                          withLongOpt("from").
+                          hasArg(true).
+                          withDescription("Start of the range, inclusive").
+                          isRequired().
+                          create('s'));
+        options.addOption(OptionBuilder.
+                          withArgName("to").
+                          withLongOpt("to").
+                          hasArg(true).
+                          withDescription("End of the range, exclusive").
+                          isRequired().
+                          create('e'));
+        options.addOption(OptionBuilder.
+                          withArgName("step").
+                          withLongOpt("step").
+                          hasArg(true).
+                          withDescription("Size of each partition, in hours for dates").
+                          isRequired().
+                          create('p'));
+        options.addOption(OptionBuilder.
+                          withLongOpt("date").
+                          withDescription("The field is a date, from and to are in lightblue date format").
+                          create('d'));
+        options.addOption(OptionBuilder.
+                          withLongOpt("balance").
+                          withDescription("Scan the field values of the source to create jobs of similar sizes").
+                          create('b'));
+        options.addOption(OptionBuilder.
+                          withLongOpt("estimate").
+                          withDescription("Count the source documents of each job, so larger jobs can be started first").
+                          create('x'));
+        options.addOption(OptionBuilder.
+                          withArgName("query").
+                          withLongOpt("query").
+                          hasArg(true).
+                          withDescription("Query restricting the documents of all jobs").
+                          create('q'));
+    }
+
+    /**
+     * @param lbClient Client for the migration database
+     * @param migrationConfiguration The configuration to create jobs for
+     */
+    public JobGenerator(LightblueClient lbClient,MigrationConfiguration migrationConfiguration) {
+        this.lbClient=lbClient;
+        this.migrationConfiguration=migrationConfiguration;
+    }
+
+    public MigrationConfiguration getMigrationConfiguration() {
+        return migrationConfiguration;
+    }
+
+    public int getValuePageSize() {
+        return valuePageSize;
+    }
+
+    public void setValuePageSize(int valuePageSize) {
+        this.valuePageSize=valuePageSize;
+    }
+
+    /**
+     * Returns a query that restricts the base query to
+     * from&lt;=field&lt;to. Null bounds and null base query are left out.
+     */
+    public static String getRangeQuery(JsonNode baseQuery,String field,JsonNode from,JsonNode to) {
+        ObjectNode query=JsonNodeFactory.instance.objectNode();
+        ArrayNode conditions=query.putArray("$and");
+        if(baseQuery!=null)
+            conditions.add(baseQuery);
+        if(from!=null)
+            conditions.addObject().put("field",field).put("op",">=").set("rvalue",from);
+        if(to!=null)
+            conditions.addObject().put("field",field).put("op","<").set("rvalue",to);
+        return query.toString();
+    }
+
+    /**
+     * Returns range queries for consecutive ranges given by the
+     * boundaries. There is one less query than boundaries.
+     */
+    public static List<String> getRangeQueries(String baseQuery,String field,List<JsonNode> boundaries)
+        throws IOException {
+        JsonNode base=baseQuery==null?null:MAPPER.readTree(baseQuery);
+        List<String> queries=new ArrayList<>();
+        for(int i=1;i<boundaries.size();i++)
+            queries.add(getRangeQuery(base,field,boundaries.get(i-1),boundaries.get(i)));
+        return queries;
+    }
+
+    /**
+     * Returns range queries partitioning [from,to) into ranges of step
+     */
+    public static List<String> getKeyRangeQueries(String baseQuery,String field,long from,long to,long step)
+        throws IOException {
+        if(step<=0)
+            throw new IllegalArgumentException("step");
+        List<JsonNode> boundaries=new ArrayList<>();
+        for(long k=from;k<to;k+=step)
+            boundaries.add(JsonNodeFactory.instance.numberNode(k));
+        boundaries.add(JsonNodeFactory.instance.numberNode(to));
+        return getRangeQueries(baseQuery,field,boundaries);
+    }
+
+    /**
+     * Returns range queries partitioning [from,to) into ranges of
+     * stepMillis
+     */
+    public static List<String> getDateRangeQueries(String baseQuery,String field,Date from,Date to,long stepMillis)
+        throws IOException {
+        if(stepMillis<=0)
+            throw new IllegalArgumentException("step");
+        List<JsonNode> boundaries=new ArrayList<>();
+        for(long t=from.getTime();t<to.getTime();t+=stepMillis)
+            boundaries.add(dateNode(new Date(t)));
+        boundaries.add(dateNode(to));
+        return getRangeQueries(baseQuery,field,boundaries);
+    }
+
+    private static JsonNode dateNode(Date d) {
+        return JsonNodeFactory.instance.textNode(ClientConstants.getDateFormat().format(d));
+    }
+
+    /**
+     * Returns range queries partitioning [from,to) into numJobs ranges
+     * containing about the same number of source documents. The source
+     * is queried for the number of documents in the range, and then
+     * the sorted values of the field are read once, in pages of
+     * valuePageSize. Each page continues after the last value of the
+     * previous page, so no request skips over documents. A boundary is
+     * placed at the first value at or after every count/numJobs
+     * documents that differs from the value before it. Documents
+     * repeating the last value of a page that do not fit in the page
+     * are not counted.
+     */
+    public List<String> getBalancedQueries(LightblueClient sourceCli,
+                                           String baseQuery,
+                                           String field,
+                                           JsonNode from,
+                                           JsonNode to,
+                                           int numJobs)
+        throws IOException {
+        ObjectNode rangeQuery=(ObjectNode)MAPPER.readTree(getRangeQuery(baseQuery==null?null:MAPPER.readTree(baseQuery),field,from,to));
+        long count=countSourceDocuments(sourceCli,rangeQuery.toString(),field);
+        LOGGER.debug("There are {} documents in range",count);
+
+        List<JsonNode> boundaries=new ArrayList<>();
+        boundaries.add(from);
+        int next=1;
+        long position=0;
+        JsonNode last=null;
+        while(next<numJobs&&count>0) {
+            JsonNode[] docs=getValuePage(sourceCli,rangeQuery,field,last);
+            for(int i=0;i<docs.length&&next<numJobs;i++) {
+                JsonNode value=Identity.getFieldValue(docs[i],field);
+                if(value==null||value.isNull())
+                    continue;
+                if(position>=count*next/numJobs&&(last==null||!sameValue(value,last))) {
+                    // Skip repeated values, they would create empty jobs
+                    if(!sameValue(value,boundaries.get(boundaries.size()-1)))
+                        boundaries.add(value);
+                    next++;
+                }
+                position++;
+                last=value;
+            }
+            if(docs.length<valuePageSize||last==null)
+                break;
+        }
+        LOGGER.debug("Read {} values for {} boundaries",position,boundaries.size());
+        if(!sameValue(to,boundaries.get(boundaries.size()-1)))
+            boundaries.add(to);
+        return getRangeQueries(baseQuery,field,boundaries);
+    }
+
+    /**
+     * Returns range queries splitting the documents of the base query
+     * into jobs of at most about maxJobSize documents, or null if they
+     * cannot be split. The sorted values of the field are read once,
+     * in pages of valuePageSize, as for balanced queries, and a
+     * boundary is placed at the first value after every maxJobSize
+     * documents that differs from the value before it, so documents
+     * with the same value are never split into different jobs. The
+     * first and last ranges are open ended.
+     */
+    public List<String> getSplitQueries(LightblueClient sourceCli,
+                                        String baseQuery,
+                                        String field,
+                                        int maxJobSize)
+        throws IOException {
+        JsonNode base=baseQuery==null?null:MAPPER.readTree(baseQuery);
+        ObjectNode rangeQuery=(ObjectNode)MAPPER.readTree(getRangeQuery(base,field,null,null));
+        if(base==null)
+            // Documents without the field cannot be split anyway
+            ((ArrayNode)rangeQuery.get("$and")).addObject().put("field",field).put("op","!=").putNull("rvalue");
+        List<JsonNode> boundaries=new ArrayList<>();
+        long inJob=0;
+        JsonNode last=null;
+        while(true) {
+            JsonNode[] docs=getValuePage(sourceCli,rangeQuery,field,last);
+            for(JsonNode doc:docs) {
+                JsonNode value=Identity.getFieldValue(doc,field);
+                if(value==null||value.isNull()||value.isContainerNode()) {
+                    LOGGER.warn("Cannot split, {} is not a value for all documents",field);
+                    return null;
+                }
+                if(inJob>=maxJobSize&&!sameValue(value,last)) {
+                    boundaries.add(value);
+                    inJob=0;
+                }
+                inJob++;
+                last=value;
+            }
+            if(docs.length<valuePageSize||last==null)
+                break;
+        }
+        if(boundaries.isEmpty())
+            return null;
+        List<String> queries=new ArrayList<>(boundaries.size()+1);
+        for(int k=0;k<=boundaries.size();k++)
+            queries.add(getRangeQuery(base,field,
+                                      k==0?null:boundaries.get(k-1),
+                                      k<boundaries.size()?boundaries.get(k):null));
+        return queries;
+    }
+
+    /**
+     * Returns the next valuePageSize documents of the range sorted by
+     * field, containing only the field, with values after the given
+     * value
+     */
+    private JsonNode[] getValuePage(LightblueClient sourceCli,ObjectNode rangeQuery,String field,JsonNode after)
+        throws IOException {
+        final ObjectNode query=rangeQuery.deepCopy();
+        if(after!=null)
+            ((ArrayNode)query.get("$and")).addObject().put("field",field).put("op",">").set("rvalue",after);
+        DataFindRequest req=new DataFindRequest(migrationConfiguration.getSourceEntityName(),
+                                                migrationConfiguration.getSourceEntityVersion());
+        req.where(new Query() {
+                public String toJson() {
+                    return query.toString();
+                }
+            });
+        req.select(includeField(field));
+        req.sort(new SortCondition(field,SortDirection.ASCENDING));
+        req.range(0,valuePageSize-1);
+        JsonNode[] docs=sourceCli.data(req,JsonNode[].class);
+        return docs==null?new JsonNode[0]:docs;
+    }
+
+    /**
+     * Returns the number of source documents matching the query, from
+     * the match count. At most one document is retrieved, containing
+     * only the field.
+     */
+    public long countSourceDocuments(LightblueClient sourceCli,final String query,String field) {
+        DataFindRequest countRequest=new DataFindRequest(migrationConfiguration.getSourceEntityName(),
+                                                         migrationConfiguration.getSourceEntityVersion());
+        countRequest.where(new Query() {
+                public String toJson() {
+                    return query;
+                }
+            });
+        countRequest.select(includeField(field));
+        countRequest.range(0,0);
+        LightblueResponse rsp=sourceCli.data(countRequest);
+        if(rsp.hasError())
+            throw new RuntimeException("Cannot count source documents:"+rsp.getJson());
+        return rsp.getJson().path("matchCount").asLong();
+    }
+
+    /**
+     * Compares values by text, so numbers parsed as different node
+     * types compare equal
+     */
+    private static boolean sameValue(JsonNode x,JsonNode y) {
+        return x.asText().equals(y.asText());
+    }
+
+    /**
+     * Returns a new available job for the configuration with the given query
+     */
+    public MigrationJob newJob(String query,Date scheduledDate) {
+        MigrationJob job=new MigrationJob();
+        job.setConfigurationName(migrationConfiguration.getConfigurationName());
+        job.setScheduledDate(scheduledDate);
+        job.setQuery(query);
+        job.setStatus(MigrationJob.STATE_AVAILABLE);
+        return job;
+    }
+
+    /**
+     * Returns the queries of the jobs whose parent is the given job
+     */
+    public Set<String> getChildJobQueries(String parentJobId) {
+        DataFindRequest req=new DataFindRequest("migrationJob",null);
+        req.where(withValue("parentJobId",ExpressionOperation.EQ,parentJobId));
+        req.select(includeField("query"));
+        LightblueResponse rsp=lbClient.data(req);
+        if(rsp.hasError())
+            throw new RuntimeException("Cannot retrieve child jobs:"+rsp.getJson());
+        Set<String> queries=new HashSet<>();
+        for(JsonNode job:rsp.getJson().path("processed"))
+            if(job.hasNonNull("query"))
+                queries.add(job.get("query").asText());
+        return queries;
+    }
+
+    /**
+     * Inserts the jobs in batches
+     */
+    public void createJobs(List<MigrationJob> jobs) {
+        for(int i=0;i<jobs.size();i+=JOB_INSERT_BATCH_SIZE) {
+            List<MigrationJob> batch=jobs.subList(i,Math.min(jobs.size(),i+JOB_INSERT_BATCH_SIZE));
+            DataInsertRequest req=new DataInsertRequest("migrationJob",null);
+            req.create(batch.toArray());
+            req.returns(includeField("_id"));
+            LightblueResponse rsp=lbClient.data(req);
+            if(rsp.hasError())
+                throw new RuntimeException("Cannot create jobs:"+rsp.getJson());
+            LOGGER.debug("Created {} jobs",batch.size());
+        }
+    }
+
+    private static LightblueClient getClient(String configPath) {
+        LightblueHttpClient httpClient=configPath==null?new LightblueHttpClient():new LightblueHttpClient(configPath);
+        return new LightblueHystrixClient(httpClient,"migrator","jobGenerator");
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLine cmd;
+        try {
+            cmd=new PosixParser().parse(options,args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            new HelpFormatter().printHelp(JobGenerator.class.getSimpleName(),options,true);
+            System.exit(1);
+            return;
+        }
+        LightblueClient lbClient=getClient(cmd.getOptionValue("config"));
+        DataFindRequest findRequest=new DataFindRequest("migrationConfiguration",null);
+        findRequest.where(withValue("configurationName",ExpressionOperation.EQ,cmd.getOptionValue("configurationName")));
+        findRequest.select(includeFieldRecursively("*"));
+        MigrationConfiguration[] cfgs=lbClient.data(findRequest,MigrationConfiguration[].class);
+        if(cfgs==null||cfgs.length==0) {
+            System.err.println("No migration configuration "+cmd.getOptionValue("configurationName"));
+            System.exit(1);
+        }
+        JobGenerator generator=new JobGenerator(lbClient,cfgs[0]);
+
+        String field=cmd.getOptionValue("field");
+        String query=cmd.getOptionValue("query");
+        boolean dates=cmd.hasOption("date");
+        JsonNode from;
+        JsonNode to;
+        long step=Long.parseLong(cmd.getOptionValue("step"));
+        List<String> queries;
+        try {
+            if(dates) {
+                Date fromDate=ClientConstants.getDateFormat().parse(cmd.getOptionValue("from"));
+                Date toDate=ClientConstants.getDateFormat().parse(cmd.getOptionValue("to"));
+                queries=getDateRangeQueries(query,field,fromDate,toDate,step*3600l*1000l);
+                from=dateNode(fromDate);
+                to=dateNode(toDate);
+            } else {
+                long fromKey=Long.parseLong(cmd.getOptionValue("from"));
+                long toKey=Long.parseLong(cmd.getOptionValue("to"));
+                queries=getKeyRangeQueries(query,field,fromKey,toKey,step);
+                from=JsonNodeFactory.instance.numberNode(fromKey);
+                to=JsonNodeFactory.instance.numberNode(toKey);
+            }
+        } catch (ParseException e) {
+            System.err.println("Invalid date:"+e);
+            System.exit(1);
+            return;
+        }
+        if(cmd.hasOption("balance"))
+            queries=generator.getBalancedQueries(getClient(cfgs[0].getSourceConfigPath()),
+                                                 query,field,from,to,queries.size());
+
+        Date now=new Date();
+        List<MigrationJob> jobs=new ArrayList<>(queries.size());
+        for(String q:queries)
+            jobs.add(generator.newJob(q,now));
+        if(cmd.hasOption("estimate")) {
+            LightblueClient sourceCli=getClient(cfgs[0].getSourceConfigPath());
+            for(MigrationJob job:jobs)
+                job.setEstimatedDocumentCount(generator.countSourceDocuments(sourceCli,job.getQuery(),field));
+        }
+        generator.createJobs(jobs);
+        System.out.println("Created "+jobs.size()+" jobs for "+cfgs[0].getConfigurationName());
+    }
+}
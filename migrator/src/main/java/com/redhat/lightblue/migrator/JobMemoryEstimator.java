@@ -0,0 +1,108 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.List;
+
+/**
+ * Estimates the heap a job of a configuration needs, from the jobs of
+ * the configuration completed by this controller.
+ *
+ * A job keeps the source and destination documents it fetched in
+ * memory until it ends, so the estimate is the expected number of
+ * documents of the job times the bytes fetched per source document in
+ * past jobs, times IN_MEMORY_FACTOR for the overhead of parsed JSON
+ * over its text. The expected number of documents is the one known
+ * for the job if any, otherwise the average of past jobs. If
+ * maxJobSize is set, larger jobs are split before their documents are
+ * fetched, so it is an upper bound.
+ *
+ * Before any job completes, jobs without a known size are assumed to
+ * have maxJobSize documents, or DEFAULT_DOCUMENTS_PER_JOB if it is not
+ * set, and documents are assumed to be of the configured size, so
+ * the first jobs started on a cold controller are admitted by a
+ * nonzero estimate.
+ */
+public class JobMemoryEstimator {
+
+    /**
+     * Heap used by parsed documents relative to their JSON text
+     */
+    public static final double IN_MEMORY_FACTOR=3.0;
+
+    /**
+     * Weight of the last job in the moving averages
+     */
+    public static final double SMOOTHING=0.2;
+
+    /**
+     * Documents of a job assumed when nothing tells the size of the job
+     */
+    public static final int DEFAULT_DOCUMENTS_PER_JOB=1000;
+
+    /**
+     * Bytes fetched per source document, for the source and the
+     * destination, assumed before any job completes
+     */
+    public static final int DEFAULT_DOCUMENT_SIZE=8192;
+
+    private double documentsPerJob;
+    private double bytesPerDocument;
+
+    /**
+     * Records the documents and bytes fetched by a completed job
+     */
+    public synchronized void jobCompleted(long documents,long bytesFetched) {
+        if(documents>0) {
+            documentsPerJob=average(documentsPerJob,documents);
+            if(bytesFetched>0)
+                bytesPerDocument=average(bytesPerDocument,(double)bytesFetched/documents);
+        }
+    }
+
+    /**
+     * Records a completed job from its execution phases
+     */
+    public void jobCompleted(List<ExecutionPhase> phases) {
+        long documents=0;
+        long bytes=0;
+        for(ExecutionPhase phase:phases) {
+            if(ExecutionStats.PHASE_SOURCE_FETCH.equals(phase.getName())) {
+                documents+=phase.getDocumentCount();
+                bytes+=phase.getRawBytesReceived();
+            } else if(ExecutionStats.PHASE_DESTINATION_FETCH.equals(phase.getName())) {
+                bytes+=phase.getRawBytesReceived();
+            }
+        }
+        jobCompleted(documents,bytes);
+    }
+
+    private static double average(double avg,double value) {
+        return avg==0?value:avg+SMOOTHING*(value-avg);
+    }
+
+    /**
+     * Returns the estimated heap needed by a job in bytes
+     *
+     * @param expectedDocuments Number of documents of the job if known, 0 otherwise
+     * @param maxJobSize maxJobSize of the configuration
+     * @param documentSize Bytes fetched per document assumed before
+     * any job completes, DEFAULT_DOCUMENT_SIZE if not positive
+     */
+    public synchronized long estimate(long expectedDocuments,int maxJobSize,int documentSize) {
+        double documents=expectedDocuments>0?expectedDocuments:documentsPerJob;
+        if(maxJobSize>0&&(documents==0||documents>maxJobSize))
+            documents=maxJobSize;
+        if(documents==0)
+            documents=DEFAULT_DOCUMENTS_PER_JOB;
+        double bytes=bytesPerDocument>0?bytesPerDocument:
+            documentSize>0?documentSize:DEFAULT_DOCUMENT_SIZE;
+        return (long)(documents*bytes*IN_MEMORY_FACTOR);
+    }
+
+    public synchronized double getDocumentsPerJob() {
+        return documentsPerJob;
+    }
+
+    public synchronized double getBytesPerDocument() {
+        return bytesPerDocument;
+    }
+}
@@ -0,0 +1,114 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The order a migrator controller tries to lock the available jobs of
+ * a configuration in.
+ *
+ * With RANDOM, jobs are tried in random order. With LARGEST_FIRST, jobs
+ * with the most documents are started first, so the largest jobs of a
+ * migration don't start last and stretch its total time. Jobs without
+ * an estimated document count all count as the same given number of
+ * documents, normally the average of past jobs, so they are not
+ * ordered among themselves by size. To avoid starving smaller jobs, a
+ * job the controller was offered more than the starvation time ago,
+ * and that was passed over since, goes before all others, longest
+ * waiting first. This is measured from when the controller first saw
+ * the job, not from its scheduled time, so the jobs of a long wave
+ * scheduled together do not all become starved at once.
+ */
+public final class JobOrder {
+
+    public static final String RANDOM="random";
+    public static final String LARGEST_FIRST="largestFirst";
+
+    public static final int DEFAULT_STARVATION_MINUTES=60;
+
+    /**
+     * Number of jobs at the head of the order picked from at random,
+     * so controllers on different hosts don't all try to lock the same
+     * job
+     */
+    public static final int LOCK_CANDIDATES=4;
+
+    private JobOrder() {}
+
+    /**
+     * Sorts the jobs largest first. Each job is recorded in seen with
+     * when it was first and last seen. Jobs not seen for the
+     * starvation time, because they were started or are no longer
+     * among the jobs retrieved, are forgotten, and start over if they
+     * are seen again.
+     *
+     * @param jobs The jobs to sort
+     * @param now The current time
+     * @param starvationMillis Jobs first seen this long before now go first
+     * @param defaultEstimate Number of documents assumed for jobs without an estimate
+     * @param seen Job id -&gt; when the job was first and last seen
+     */
+    public static void sortLargestFirst(List<MigrationJob> jobs,Date now,long starvationMillis,final long defaultEstimate,
+                                        final Map<String,long[]> seen) {
+        long t=now.getTime();
+        for(MigrationJob job:jobs) {
+            long[] s=seen.get(job.get_id());
+            if(s==null)
+                seen.put(job.get_id(),s=new long[] {t,t});
+            s[1]=t;
+        }
+        for(Iterator<long[]> itr=seen.values().iterator();itr.hasNext();)
+            if(itr.next()[1]<t-starvationMillis)
+                itr.remove();
+        final long starvedBefore=t-starvationMillis;
+        Collections.sort(jobs,new Comparator<MigrationJob>() {
+                @Override
+                public int compare(MigrationJob j1,MigrationJob j2) {
+                    long s1=seen.get(j1.get_id())[0];
+                    long s2=seen.get(j2.get_id())[0];
+                    boolean starved1=s1<starvedBefore;
+                    boolean starved2=s2<starvedBefore;
+                    if(starved1!=starved2)
+                        return starved1?-1:1;
+                    if(starved1) {
+                        int c=Long.compare(s1,s2);
+                        if(c!=0)
+                            return c;
+                    } else {
+                        int c=Long.compare(estimate(j2,defaultEstimate),estimate(j1,defaultEstimate));
+                        if(c!=0)
+                            return c;
+                    }
+                    return Long.compare(time(j1),time(j2));
+                }
+            });
+    }
+
+    /**
+     * Adds the jobs that are not already in the list
+     */
+    public static void addJobs(List<MigrationJob> jobs,MigrationJob[] more) {
+        if(more==null)
+            return;
+        Set<String> ids=new HashSet<>();
+        for(MigrationJob job:jobs)
+            ids.add(job.get_id());
+        for(MigrationJob job:more)
+            if(ids.add(job.get_id()))
+                jobs.add(job);
+    }
+
+    private static long time(MigrationJob job) {
+        return job.getScheduledDate()==null?0:job.getScheduledDate().getTime();
+    }
+
+    private static long estimate(MigrationJob job,long defaultEstimate) {
+        return job.getEstimatedDocumentCount()>0?job.getEstimatedDocumentCount():defaultEstimate;
+    }
+}
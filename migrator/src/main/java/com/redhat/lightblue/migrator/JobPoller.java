@@ -0,0 +1,241 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.enums.SortDirection;
+import com.redhat.lightblue.client.expression.query.Query;
+import com.redhat.lightblue.client.request.SortCondition;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.util.ClientConstants;
+
+import static com.redhat.lightblue.client.projection.FieldProjection.includeField;
+
+/**
+ * Retrieves available jobs for all migrator controllers of the
+ * controller with one request, and hands each controller the jobs of
+ * its configuration.
+ *
+ * Only controllers that can start a job are polled for. If a poll
+ * finds no jobs, the next poll is 10-30 seconds later. A controller
+ * that could not lock any of the jobs it was given can request an
+ * earlier poll, but polls are at least MIN_POLL_INTERVAL_MS apart.
+ * A configuration with many available jobs can fill a poll, in which
+ * case the configurations that got no jobs are polled again. Jobs are
+ * polled oldest first. For configurations with the largest first job
+ * order, the largest jobs are polled too, so large jobs that are not
+ * among the oldest can be started first.
+ */
+public class JobPoller extends Thread {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(JobPoller.class);
+
+    public static final long MIN_POLL_INTERVAL_MS=2000l;
+    public static final int MAX_POLL_SIZE=1024;
+
+    private final Controller controller;
+    private final LightblueClient lbClient;
+    private final Random rnd=new Random();
+
+    private boolean pollRequested=false;
+    private long lastPoll=0;
+
+    public JobPoller(Controller controller,LightblueClient lbClient) {
+        super("JobPoller");
+        setDaemon(true);
+        this.controller=controller;
+        this.lbClient=lbClient;
+    }
+
+    /**
+     * Requests a poll as soon as MIN_POLL_INTERVAL_MS passed since the last one
+     */
+    public synchronized void requestPoll() {
+        pollRequested=true;
+        notify();
+    }
+
+    @Override
+    public void run() {
+        LOGGER.debug("Starting job poller");
+        boolean interrupted=false;
+        while(!interrupted) {
+            long delay;
+            try {
+                Breakpoint.checkpoint("JobPoller:poll");
+                delay=poll()?MIN_POLL_INTERVAL_MS:rnd.nextInt(20000)+10000;
+            } catch (Exception e) {
+                LOGGER.error("Cannot retrieve migration jobs:"+e);
+                delay=rnd.nextInt(20000)+10000;
+            }
+            try {
+                synchronized(this) {
+                    long until=lastPoll+delay;
+                    long now;
+                    while(!pollRequested&&(now=System.currentTimeMillis())<until)
+                        wait(until-now);
+                    pollRequested=false;
+                    // Keep polls apart
+                    now=System.currentTimeMillis();
+                    if(now<lastPoll+MIN_POLL_INTERVAL_MS)
+                        wait(lastPoll+MIN_POLL_INTERVAL_MS-now);
+                }
+            } catch (InterruptedException e) {
+                interrupted=true;
+            }
+        }
+        LOGGER.debug("Ending job poller");
+    }
+
+    /**
+     * Retrieves jobs for all controllers that can start a job. Returns
+     * true if any jobs are found.
+     */
+    public boolean poll() throws Exception {
+        lastPoll=System.currentTimeMillis();
+        Map<String,MigratorController> hungry=new HashMap<>();
+        for(Controller.MigrationProcess p:controller.getMigrationProcesses().values()) {
+            if(p.mig.isAlive()&&p.mig.canStartJob())
+                hungry.put(p.mig.getMigrationConfiguration().getConfigurationName(),p.mig);
+        }
+        if(hungry.isEmpty())
+            return false;
+        return poll(hungry);
+    }
+
+    /**
+     * Retrieves jobs for the given controllers, and hands each
+     * controller the jobs of its configuration. If a poll retrieves
+     * as many jobs as it asked for, the configurations that got no
+     * jobs are polled again, so a configuration with many old jobs
+     * does not starve the others. Configurations with the largest
+     * first job order also get the largest jobs of a poll sorted by
+     * size. Returns true if any jobs are found.
+     */
+    boolean poll(Map<String,MigratorController> hungry) throws Exception {
+        Map<String,List<MigrationJob>> dispatch=new HashMap<>();
+        for(String name:hungry.keySet())
+            dispatch.put(name,new ArrayList<MigrationJob>());
+        Set<String> starved=new HashSet<>(hungry.keySet());
+        int numJobs=0;
+        int numPolls=0;
+        while(!starved.isEmpty()) {
+            int max=Math.min(MAX_POLL_SIZE,MigratorController.JOB_FETCH_BATCH_SIZE*starved.size());
+            MigrationJob[] jobs=retrieveJobs(starved,max);
+            numPolls++;
+            if(jobs==null||jobs.length==0)
+                break;
+            numJobs+=jobs.length;
+            for(MigrationJob job:jobs) {
+                List<MigrationJob> list=dispatch.get(job.getConfigurationName());
+                if(list!=null)
+                    list.add(job);
+            }
+            if(jobs.length<max)
+                break;
+            // Every configuration that got jobs is fed, and there is at
+            // least one, so this ends
+            for(Map.Entry<String,List<MigrationJob>> entry:dispatch.entrySet())
+                if(!entry.getValue().isEmpty())
+                    starved.remove(entry.getKey());
+        }
+        // The largest jobs may not be among the oldest
+        List<String> largestFirst=new ArrayList<>();
+        for(Map.Entry<String,MigratorController> entry:hungry.entrySet())
+            if(JobOrder.LARGEST_FIRST.equals(entry.getValue().getMigrationConfiguration().getJobOrder()))
+                largestFirst.add(entry.getKey());
+        if(numJobs>0&&!largestFirst.isEmpty()) {
+            MigrationJob[] jobs=retrieveJobs(largestFirst,
+                                             Math.min(MAX_POLL_SIZE,MigratorController.JOB_FETCH_BATCH_SIZE*largestFirst.size()),
+                                             true);
+            numPolls++;
+            if(jobs!=null) {
+                Set<String> ids=new HashSet<>();
+                for(List<MigrationJob> list:dispatch.values())
+                    for(MigrationJob job:list)
+                        ids.add(job.get_id());
+                for(MigrationJob job:jobs)
+                    if(ids.add(job.get_id())) {
+                        dispatch.get(job.getConfigurationName()).add(job);
+                        numJobs++;
+                    }
+            }
+        }
+        LOGGER.debug("Polled {} jobs for {} configurations in {} requests",numJobs,hungry.size(),numPolls);
+        for(Map.Entry<String,List<MigrationJob>> entry:dispatch.entrySet())
+            hungry.get(entry.getKey()).offerJobs(entry.getValue());
+        return numJobs>0;
+    }
+
+    /**
+     * Retrieves the available jobs of the given configurations whose
+     * scheduled time has passed, oldest first, and largest first
+     * among jobs of the same schedule
+     */
+    public MigrationJob[] retrieveJobs(Collection<String> configurationNames,int max)
+        throws Exception {
+        return retrieveJobs(configurationNames,max,false);
+    }
+
+    /**
+     * Retrieves the available jobs of the given configurations whose
+     * scheduled time has passed, oldest first, or largest first if
+     * largest is set
+     */
+    MigrationJob[] retrieveJobs(Collection<String> configurationNames,int max,boolean largest)
+        throws Exception {
+        DataFindRequest findRequest = new DataFindRequest("migrationJob",null);
+        final String query=getQuery(configurationNames,new Date()).toString();
+        findRequest.where(new Query() {
+                public String toJson() {
+                    return query;
+                }
+            });
+        findRequest.select(includeField("*"));
+        if(largest)
+            findRequest.sort(new SortCondition("estimatedDocumentCount", SortDirection.DESCENDING),
+                             new SortCondition("scheduledDate", SortDirection.ASCENDING));
+        else
+            findRequest.sort(new SortCondition("scheduledDate", SortDirection.ASCENDING),
+                             new SortCondition("estimatedDocumentCount", SortDirection.DESCENDING));
+        findRequest.range(0,max-1);
+        LOGGER.debug("Polling jobs: {}", findRequest.getBody());
+        return lbClient.data(findRequest, MigrationJob[].class);
+    }
+
+    static ObjectNode getQuery(Collection<String> configurationNames,Date now) {
+        JsonNodeFactory f=JsonNodeFactory.instance;
+        ObjectNode query=f.objectNode();
+        ArrayNode conditions=query.putArray("$and");
+        ObjectNode cfg=conditions.addObject();
+        cfg.put("field","configurationName");
+        cfg.put("op","$in");
+        ArrayNode values=cfg.putArray("values");
+        for(String name:configurationNames)
+            values.add(name);
+        conditions.addObject().
+            put("field","status").
+            put("op","=").
+            put("rvalue",MigrationJob.STATE_AVAILABLE);
+        conditions.addObject().
+            put("field","scheduledDate").
+            put("op","<=").
+            put("rvalue",ClientConstants.getDateFormat().format(now));
+        return query;
+    }
+}
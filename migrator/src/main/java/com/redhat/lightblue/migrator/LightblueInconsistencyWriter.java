@@ -0,0 +1,38 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import com.redhat.lightblue.client.response.LightblueResponse;
+
+import static com.redhat.lightblue.client.projection.FieldProjection.includeField;
+
+/**
+ * Inserts inconsistencies into the inconsistency entity, one insert
+ * request per batch
+ */
+public class LightblueInconsistencyWriter implements InconsistencyWriter {
+
+    public static final String ENTITY_NAME="inconsistency";
+
+    private final LightblueClient client;
+
+    public LightblueInconsistencyWriter(LightblueClient client) {
+        this.client=client;
+    }
+
+    @Override
+    public void write(List<Inconsistency> batch) throws IOException {
+        DataInsertRequest req=new DataInsertRequest(ENTITY_NAME,null);
+        req.create(batch.toArray());
+        req.returns(includeField("_id"));
+        LightblueResponse rsp=client.data(req);
+        if(rsp.hasError())
+            throw new IOException("Cannot insert inconsistencies:"+rsp.getText());
+    }
+
+    @Override
+    public void close() {}
+}
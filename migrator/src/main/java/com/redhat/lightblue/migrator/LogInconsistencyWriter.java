@@ -0,0 +1,34 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes inconsistencies to the log at ERROR level, as key=value pairs
+ */
+public class LogInconsistencyWriter implements InconsistencyWriter {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(LogInconsistencyWriter.class);
+
+    @Override
+    public void write(List<Inconsistency> batch) {
+        for(Inconsistency x:batch) {
+            // log as key=value to make parsing easy
+            LOGGER.error("configurationName={} destinationEntityName={} destinationEntityVersion={} migrationJobId={} identityFields=\"{}\" identityFieldValues=\"{}\" inconsistentPaths=\"{}\"",
+                         x.getConfigurationName(),
+                         x.getDestinationEntityName(),
+                         x.getDestinationEntityVersion(),
+                         x.getMigrationJobId(),
+                         x.getIdentityFields(),
+                         x.getIdentityFieldValues(),
+                         StringUtils.join(x.getInconsistentPaths(),","));
+        }
+    }
+
+    @Override
+    public void close() {}
+}
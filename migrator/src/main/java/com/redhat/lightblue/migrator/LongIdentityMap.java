@@ -0,0 +1,354 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A map for identities made of a single integer value. The identity
+ * values are kept as primitive longs in an open-addressing table, so
+ * no Identity, String, or entry objects are retained for the
+ * keys.
+ *
+ * Through the Map interface, keys are Identity objects, which are
+ * created when keys are iterated. To avoid allocating per key, use
+ * the methods taking and returning primitive keys: put(long,V),
+ * get(long), containsKey(long) and keys(). Keys can be taken from
+ * documents without building an Identity using isLong and longValue.
+ *
+ * Identity values must be the canonical string representation of a
+ * long. Putting any other identity fails with
+ * IllegalArgumentException.
+ */
+public class LongIdentityMap<V> extends AbstractMap<Identity,V> {
+
+    private static final int MIN_CAPACITY=16;
+
+    private long[] keys;
+    private Object[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+    private int modCount;
+
+    public LongIdentityMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongIdentityMap(int expectedSize) {
+        allocate(tableSize(expectedSize));
+    }
+
+    /**
+     * Returns the long value of a single-valued identity, or null if
+     * the identity is not a single long value
+     */
+    public static Long toLong(Object key) {
+        if(key instanceof Identity) {
+            Identity id=(Identity)key;
+            if(id.size()==1) {
+                Object v=id.get(0);
+                if(v instanceof String&&isCanonicalLong((String)v))
+                    return Long.parseLong((String)v);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the identity field value is an integer that can
+     * be used as a key, either a number, or a string that is the
+     * canonical representation of a long
+     */
+    public static boolean isLong(JsonNode value) {
+        if(value==null)
+            return false;
+        if(value.isTextual())
+            return isCanonicalLong(value.textValue());
+        return value.isIntegralNumber()&&value.canConvertToLong();
+    }
+
+    /**
+     * Returns the key of an identity field value for which isLong is
+     * true
+     */
+    public static long longValue(JsonNode value) {
+        return value.isTextual()?Long.parseLong(value.textValue()):value.longValue();
+    }
+
+    /**
+     * Returns true if s is what Long.toString returns for some long:
+     * no sign other than a minus, no leading zeros, no -0, and in
+     * range
+     */
+    private static boolean isCanonicalLong(String s) {
+        int n=s.length();
+        int start=n>0&&s.charAt(0)=='-'?1:0;
+        if(n==start||n-start>19)
+            return false;
+        if(s.charAt(start)=='0'&&(n>start+1||start==1))
+            return false;
+        for(int i=start;i<n;i++) {
+            char c=s.charAt(i);
+            if(c<'0'||c>'9')
+                return false;
+        }
+        if(n-start==19) {
+            // Compare with the largest magnitude of the sign
+            String limit=start==1?"9223372036854775808":"9223372036854775807";
+            for(int i=0;i<19;i++) {
+                char c=s.charAt(start+i);
+                char l=limit.charAt(i);
+                if(c!=l)
+                    return c<l;
+            }
+        }
+        return true;
+    }
+
+    public static Identity toIdentity(long l) {
+        return new Identity(new Object[] {Long.toString(l)});
+    }
+
+    private static int tableSize(int expectedSize) {
+        int n=MIN_CAPACITY;
+        while(n<expectedSize*2)
+            n<<=1;
+        return n;
+    }
+
+    private void allocate(int capacity) {
+        keys=new long[capacity];
+        values=new Object[capacity];
+        used=new boolean[capacity];
+        mask=capacity-1;
+    }
+
+    private int slot(long key) {
+        long h=key*0x9E3779B97F4A7C15L;
+        return (int)(h^(h>>>32))&mask;
+    }
+
+    /**
+     * Returns the slot containing the key, or -1
+     */
+    private int find(long key) {
+        int i=slot(key);
+        while(used[i]) {
+            if(keys[i]==key)
+                return i;
+            i=(i+1)&mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Long l=toLong(key);
+        return l!=null&&find(l)>=0;
+    }
+
+    public boolean containsKey(long key) {
+        return find(key)>=0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i=find(key);
+        return i>=0?(V)values[i]:null;
+    }
+
+    /**
+     * Returns the keys in an array
+     */
+    public long[] keys() {
+        long[] ret=new long[size];
+        int k=0;
+        for(int i=0;i<used.length;i++)
+            if(used[i])
+                ret[k++]=keys[i];
+        return ret;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Long l=toLong(key);
+        if(l!=null) {
+            int i=find(l);
+            if(i>=0)
+                return (V)values[i];
+        }
+        return null;
+    }
+
+    @Override
+    public V put(Identity key,V value) {
+        Long l=toLong(key);
+        if(l==null)
+            throw new IllegalArgumentException("Not a single integer identity:"+key);
+        return put(l.longValue(),value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key,V value) {
+        int i=slot(key);
+        while(used[i]) {
+            if(keys[i]==key) {
+                V old=(V)values[i];
+                values[i]=value;
+                return old;
+            }
+            i=(i+1)&mask;
+        }
+        used[i]=true;
+        keys[i]=key;
+        values[i]=value;
+        size++;
+        modCount++;
+        if(size*2>keys.length)
+            rehash(keys.length<<1);
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void putAll(Map<? extends Identity,? extends V> m) {
+        if(m instanceof LongIdentityMap) {
+            // Copy primitive keys without creating identities
+            LongIdentityMap<? extends V> x=(LongIdentityMap<? extends V>)m;
+            for(int i=0;i<x.used.length;i++)
+                if(x.used[i])
+                    put(x.keys[i],(V)x.values[i]);
+        } else {
+            super.putAll(m);
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        Long l=toLong(key);
+        if(l!=null) {
+            int i=find(l);
+            if(i>=0)
+                return removeSlot(i);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the entry at slot i, and moves the following entries
+     * of the probe sequence back so lookups do not stop early
+     */
+    @SuppressWarnings("unchecked")
+    private V removeSlot(int i) {
+        V old=(V)values[i];
+        int j=i;
+        while(true) {
+            j=(j+1)&mask;
+            if(!used[j])
+                break;
+            int k=slot(keys[j]);
+            // Move j to i if its home slot k is not cyclically in (i,j]
+            if( (i<=j) ? (i<k&&k<=j) : (i<k||k<=j) )
+                continue;
+            keys[i]=keys[j];
+            values[i]=values[j];
+            i=j;
+        }
+        used[i]=false;
+        values[i]=null;
+        size--;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        allocate(keys.length);
+        size=0;
+        modCount++;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys=keys;
+        Object[] oldValues=values;
+        boolean[] oldUsed=used;
+        allocate(capacity);
+        for(int i=0;i<oldKeys.length;i++) {
+            if(oldUsed[i]) {
+                int j=slot(oldKeys[i]);
+                while(used[j])
+                    j=(j+1)&mask;
+                used[j]=true;
+                keys[j]=oldKeys[i];
+                values[j]=oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<Identity,V>> entrySet() {
+        return new AbstractSet<Map.Entry<Identity,V>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<Identity,V>> iterator() {
+                return new Iterator<Map.Entry<Identity,V>>() {
+                    private int next=advance(0);
+                    private int expectedModCount=modCount;
+
+                    private int advance(int i) {
+                        while(i<used.length&&!used[i])
+                            i++;
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next<used.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Map.Entry<Identity,V> next() {
+                        if(expectedModCount!=modCount)
+                            throw new ConcurrentModificationException();
+                        if(next>=used.length)
+                            throw new NoSuchElementException();
+                        final int i=next;
+                        next=advance(next+1);
+                        return new AbstractMap.SimpleEntry<Identity,V>(toIdentity(keys[i]),(V)values[i]) {
+                            @Override
+                            public V setValue(V value) {
+                                values[i]=value;
+                                return super.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        // Backward shift deletion moves entries, so
+                        // removing while iterating is not supported
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -17,6 +17,9 @@ public class MainConfiguration {
     private String name;
     private String hostName;
     private String clientConfig;
+    private int adminPort;
+    private int threadBudget;
+    private int maxHeapPercent;
 
     static {
         options = new Options();
@@ -42,6 +45,24 @@ public class MainConfiguration {
                           withDescription("Path to configuration file for migration").
                           isRequired().
                           create('c'));
+        options.addOption(OptionBuilder.
+                          withArgName("adminPort").
+                          withLongOpt("adminPort").
+                          hasArg(true).
+                          withDescription("Port of the admin HTTP endpoint on localhost. Disabled if not given").
+                          create('a'));
+        options.addOption(OptionBuilder.
+                          withArgName("threadBudget").
+                          withLongOpt("threadBudget").
+                          hasArg(true).
+                          withDescription("Maximum number of migrator threads of all configurations. Unlimited if not given").
+                          create('t'));
+        options.addOption(OptionBuilder.
+                          withArgName("maxHeapPercent").
+                          withLongOpt("maxHeapPercent").
+                          hasArg(true).
+                          withDescription("Percentage of the maximum heap migration jobs can use. New jobs are deferred above it. Unlimited if not given").
+                          create('m'));
     }
 
 
@@ -70,8 +91,32 @@ public class MainConfiguration {
     }
 
 
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    public void setAdminPort(int i) {
+        adminPort=i;
+    }
+
+    public int getThreadBudget() {
+        return threadBudget;
+    }
+
+    public void setThreadBudget(int i) {
+        threadBudget=i;
+    }
+
+    public int getMaxHeapPercent() {
+        return maxHeapPercent;
+    }
+
+    public void setMaxHeapPercent(int i) {
+        maxHeapPercent=i;
+    }
+
     public String toString() {
-        return "name="+name+" hostName="+hostName+" config="+clientConfig;
+        return "name="+name+" hostName="+hostName+" config="+clientConfig+" adminPort="+adminPort+" threadBudget="+threadBudget+" maxHeapPercent="+maxHeapPercent;
     }
     
     public static Properties processArguments(String[] args){
@@ -105,5 +150,14 @@ public class MainConfiguration {
         s=p.getProperty("config");
         if(s!=null)
             setClientConfig(s);
+        s=p.getProperty("adminPort");
+        if(s!=null)
+            setAdminPort(Integer.parseInt(s));
+        s=p.getProperty("threadBudget");
+        if(s!=null)
+            setThreadBudget(Integer.parseInt(s));
+        s=p.getProperty("maxHeapPercent");
+        if(s!=null)
+            setMaxHeapPercent(Integer.parseInt(s));
     }
 }
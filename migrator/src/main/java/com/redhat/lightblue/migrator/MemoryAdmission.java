@@ -0,0 +1,94 @@
+package com.redhat.lightblue.migrator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides whether a job can start given the heap available to the
+ * migrator.
+ *
+ * A job is admitted if the heap in use, plus the estimated needs of the
+ * running jobs and of the new job stays below maxHeapPercent of the
+ * maximum heap. The heap in use is measured after the last garbage
+ * collection of each pool where possible, so garbage is not counted.
+ * Running jobs are counted by their estimates even if part of their
+ * documents are already in the heap, so the check errs on the side
+ * of deferring. A job is always admitted when no other job is
+ * running, since there is nothing to wait for.
+ */
+public class MemoryAdmission {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(MemoryAdmission.class);
+
+    private final int maxHeapPercent;
+
+    public MemoryAdmission(int maxHeapPercent) {
+        this.maxHeapPercent=maxHeapPercent;
+    }
+
+    public int getMaxHeapPercent() {
+        return maxHeapPercent;
+    }
+
+    /**
+     * Returns the maximum heap jobs can use in bytes
+     */
+    public long getHeapLimit() {
+        return getMaxHeap()/100*maxHeapPercent;
+    }
+
+    /**
+     * Returns the maximum heap size
+     */
+    protected long getMaxHeap() {
+        long max=ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        return max>0?max:Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Returns the heap in use, after the last collection of each pool
+     * if known
+     */
+    protected long getHeapUsed() {
+        long used=0;
+        for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType()==MemoryType.HEAP&&pool.isValid()) {
+                MemoryUsage usage=pool.getCollectionUsage();
+                // All zero until the pool is first collected
+                if(usage==null||usage.getCommitted()==0)
+                    usage=pool.getUsage();
+                if(usage!=null)
+                    used+=usage.getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Returns true if a job can start
+     *
+     * @param estimate Estimated heap needed by the job
+     * @param runningEstimate Estimated heap needed by the running jobs
+     * @param runningJobs Number of running jobs
+     */
+    public boolean admit(long estimate,long runningEstimate,int runningJobs) {
+        if(runningJobs==0)
+            return true;
+        long used=getHeapUsed();
+        long limit=getHeapLimit();
+        if(used+runningEstimate+estimate<=limit)
+            return true;
+        LOGGER.debug("Not enough heap for job: used={} running={} job={} limit={}",used,runningEstimate,estimate,limit);
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "heapUsed="+getHeapUsed()+" heapLimit="+getHeapLimit();
+    }
+}
@@ -0,0 +1,73 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.IOException;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.request.LightblueRequest;
+import com.redhat.lightblue.client.request.AbstractLightblueDataRequest;
+import com.redhat.lightblue.client.response.LightblueResponse;
+
+/**
+ * A lightblue client that records the sizes of request and response
+ * bodies of another client in a TrafficStats instance. The bodies are
+ * not compressed, so raw and wire sizes are the same. Typed requests
+ * are passed to the other client, which parses the response, so only
+ * their request sizes are recorded.
+ *
+ * Sizes are computed by scanning the bodies, so migrators use this
+ * client only if meterTraffic is set in the migration configuration.
+ */
+public class MeteringLightblueClient implements LightblueClient {
+
+    private final LightblueClient client;
+    private final TrafficStats stats;
+
+    public MeteringLightblueClient(LightblueClient client,TrafficStats stats) {
+        this.client=client;
+        this.stats=stats;
+    }
+
+    @Override
+    public LightblueResponse metadata(LightblueRequest lightblueRequest) {
+        return client.metadata(lightblueRequest);
+    }
+
+    @Override
+    public LightblueResponse data(LightblueRequest lightblueRequest) {
+        LightblueResponse response=client.data(lightblueRequest);
+        long sent=utf8Length(lightblueRequest.getBody());
+        long received=response==null?0:utf8Length(response.getText());
+        stats.addRequest(sent,sent,received,received);
+        return response;
+    }
+
+    @Override
+    public <T> T data(AbstractLightblueDataRequest lightblueRequest, Class<T> type) throws IOException {
+        T ret=client.data(lightblueRequest,type);
+        long sent=utf8Length(lightblueRequest.getBody());
+        stats.addRequest(sent,sent,0,0);
+        return ret;
+    }
+
+    /**
+     * Returns the UTF-8 encoded length of s without encoding it
+     */
+    static long utf8Length(String s) {
+        if(s==null)
+            return 0;
+        long n=0;
+        for(int i=0;i<s.length();i++) {
+            char c=s.charAt(i);
+            if(c<0x80)
+                n++;
+            else if(c<0x800)
+                n+=2;
+            else if(Character.isHighSurrogate(c)&&i+1<s.length()&&Character.isLowSurrogate(s.charAt(i+1))) {
+                n+=4;
+                i++;
+            } else
+                n+=3;
+        }
+        return n;
+    }
+}
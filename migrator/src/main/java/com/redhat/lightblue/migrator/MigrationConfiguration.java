@@ -1,9 +1,32 @@
 package com.redhat.lightblue.migrator;
 
+import java.util.Date;
 import java.util.List;
 
 public class MigrationConfiguration {
 
+    /**
+     * Save responses contain the saved documents
+     */
+    public static final String SAVE_RESPONSE_FULL="full";
+    /**
+     * Save responses contain only the identity fields of the saved documents
+     */
+    public static final String SAVE_RESPONSE_IDENTITY="identity";
+    /**
+     * Save responses contain only the modified count
+     */
+    public static final String SAVE_RESPONSE_COUNT="count";
+
+    /**
+     * Documents are compared as trees
+     */
+    public static final String COMPARISON_ENGINE_TREE="tree";
+    /**
+     * Documents are compared by streaming their tokens
+     */
+    public static final String COMPARISON_ENGINE_STREAM="stream";
+
     private String _id;
     private String configurationName;
     private String consistencyCheckerName;
@@ -22,6 +45,35 @@ public class MigrationConfiguration {
     private String sourceServiceURI;
     private String sourceEntityName;
     private String sourceEntityVersion;
+    private boolean destinationIdentityProbe = false;
+    private boolean deltaRewrites = false;
+    private int insertBatchSize;
+    private int insertConcurrency;
+    private int rewriteBatchSize;
+    private int rewriteConcurrency;
+    private String saveResponseMode;
+    private int comparisonParallelism;
+    private String comparisonEngine;
+    private boolean rawPassThrough = false;
+    private boolean compactDocuments = false;
+    private boolean numericIdentity = false;
+    private boolean meterTraffic = false;
+    private int maxJobSize;
+    private String splitField;
+    private String incrementalSyncField;
+    private int incrementalSyncPeriod;
+    private Date incrementalSyncHighWaterMark;
+    private int incrementalSyncLag;
+    private int incrementalSyncOverlap;
+    private double samplingRate;
+    private int samplingStrata;
+    private String inconsistencyWriter;
+    private String inconsistencyFile;
+    private int inconsistencyMaxPerSecond;
+    private int threadWeight;
+    private String jobOrder;
+    private int jobStarvationMinutes;
+    private int estimatedDocumentSize;
 
 
     /**
@@ -309,6 +361,588 @@ public class MigrationConfiguration {
     public final void setSourceConfigPath(final String argSourceConfigPath) {
         this.sourceConfigPath = argSourceConfigPath;
     }
+
+    /**
+     * If true, the migrator first retrieves only the identity fields
+     * of the destination documents to find out which documents
+     * already exist in the destination, and then retrieves the full
+     * documents only for those. Useful for initial loads where most
+     * documents are not yet in the destination.
+     *
+     * @return the value of destinationIdentityProbe
+     */
+    public final boolean isDestinationIdentityProbe() {
+        return this.destinationIdentityProbe;
+    }
+
+    /**
+     * Sets the value of destinationIdentityProbe
+     *
+     * @param argDestinationIdentityProbe Value to assign to this.destinationIdentityProbe
+     */
+    public final void setDestinationIdentityProbe(final boolean argDestinationIdentityProbe) {
+        this.destinationIdentityProbe = argDestinationIdentityProbe;
+    }
+
+    /**
+     * If true, inconsistent destination documents are patched by
+     * setting only the inconsistent paths, instead of being
+     * overwritten by the source document.
+     *
+     * @return the value of deltaRewrites
+     */
+    public final boolean isDeltaRewrites() {
+        return this.deltaRewrites;
+    }
+
+    /**
+     * Sets the value of deltaRewrites
+     *
+     * @param argDeltaRewrites Value to assign to this.deltaRewrites
+     */
+    public final void setDeltaRewrites(final boolean argDeltaRewrites) {
+        this.deltaRewrites = argDeltaRewrites;
+    }
+
+    /**
+     * Number of new documents inserted in a single request. If not
+     * positive, the migrator default is used.
+     *
+     * @return the value of insertBatchSize
+     */
+    public final int getInsertBatchSize() {
+        return this.insertBatchSize;
+    }
+
+    /**
+     * Sets the value of insertBatchSize
+     *
+     * @param argInsertBatchSize Value to assign to this.insertBatchSize
+     */
+    public final void setInsertBatchSize(final int argInsertBatchSize) {
+        this.insertBatchSize = argInsertBatchSize;
+    }
+
+    /**
+     * Number of concurrent insert requests per migration job. If not
+     * positive, inserts are sequential.
+     *
+     * @return the value of insertConcurrency
+     */
+    public final int getInsertConcurrency() {
+        return this.insertConcurrency;
+    }
+
+    /**
+     * Sets the value of insertConcurrency
+     *
+     * @param argInsertConcurrency Value to assign to this.insertConcurrency
+     */
+    public final void setInsertConcurrency(final int argInsertConcurrency) {
+        this.insertConcurrency = argInsertConcurrency;
+    }
+
+    /**
+     * Number of existing documents saved or patched in a single
+     * request. If not positive, the migrator default is used.
+     *
+     * @return the value of rewriteBatchSize
+     */
+    public final int getRewriteBatchSize() {
+        return this.rewriteBatchSize;
+    }
+
+    /**
+     * Sets the value of rewriteBatchSize
+     *
+     * @param argRewriteBatchSize Value to assign to this.rewriteBatchSize
+     */
+    public final void setRewriteBatchSize(final int argRewriteBatchSize) {
+        this.rewriteBatchSize = argRewriteBatchSize;
+    }
+
+    /**
+     * Number of concurrent save or patch requests per migration
+     * job. If not positive, saves are sequential.
+     *
+     * @return the value of rewriteConcurrency
+     */
+    public final int getRewriteConcurrency() {
+        return this.rewriteConcurrency;
+    }
+
+    /**
+     * Sets the value of rewriteConcurrency
+     *
+     * @param argRewriteConcurrency Value to assign to this.rewriteConcurrency
+     */
+    public final void setRewriteConcurrency(final int argRewriteConcurrency) {
+        this.rewriteConcurrency = argRewriteConcurrency;
+    }
+
+    /**
+     * Determines what is returned from insert and save
+     * requests. One of full, identity, or count. If null, full
+     * responses are returned. For identity and count, the modified
+     * count is used to validate the writes.
+     *
+     * @return the value of saveResponseMode
+     */
+    public final String getSaveResponseMode() {
+        return this.saveResponseMode;
+    }
+
+    /**
+     * Sets the value of saveResponseMode
+     *
+     * @param argSaveResponseMode Value to assign to this.saveResponseMode
+     */
+    public final void setSaveResponseMode(final String argSaveResponseMode) {
+        this.saveResponseMode = argSaveResponseMode;
+    }
+
+    /**
+     * Number of threads used to compare the documents of a single
+     * migration job. If not greater than one, documents are compared
+     * by the migrator thread.
+     *
+     * @return the value of comparisonParallelism
+     */
+    public final int getComparisonParallelism() {
+        return this.comparisonParallelism;
+    }
+
+    /**
+     * Sets the value of comparisonParallelism
+     *
+     * @param argComparisonParallelism Value to assign to this.comparisonParallelism
+     */
+    public final void setComparisonParallelism(final int argComparisonParallelism) {
+        this.comparisonParallelism = argComparisonParallelism;
+    }
+
+    /**
+     * The comparison engine, tree or stream. If null, documents are
+     * compared as trees.
+     *
+     * @return the value of comparisonEngine
+     */
+    public final String getComparisonEngine() {
+        return this.comparisonEngine;
+    }
+
+    /**
+     * Sets the value of comparisonEngine
+     *
+     * @param argComparisonEngine Value to assign to this.comparisonEngine
+     */
+    public final void setComparisonEngine(final String argComparisonEngine) {
+        this.comparisonEngine = argComparisonEngine;
+    }
+
+    /**
+     * If true, the source documents are kept as they are received
+     * from the source, and written to the destination without being
+     * serialized again. Ignored if the migrator class overrides a
+     * method that can change the documents, and for documents that
+     * are decoded again because compactDocuments is set.
+     *
+     * @return the value of rawPassThrough
+     */
+    public final boolean isRawPassThrough() {
+        return this.rawPassThrough;
+    }
+
+    /**
+     * Sets the value of rawPassThrough
+     *
+     * @param argRawPassThrough Value to assign to this.rawPassThrough
+     */
+    public final void setRawPassThrough(final boolean argRawPassThrough) {
+        this.rawPassThrough = argRawPassThrough;
+    }
+
+    /**
+     * If true, the migrator keeps the documents in memory in a compact
+     * binary encoding, and decodes them only when they are needed.
+     * DefaultMigrator encodes documents as they are parsed from the
+     * responses, so the trees of all documents are not in memory at
+     * once. With the stream comparison engine, documents are compared
+     * without decoding them.
+     *
+     * @return the value of compactDocuments
+     */
+    public final boolean isCompactDocuments() {
+        return this.compactDocuments;
+    }
+
+    /**
+     * Sets the value of compactDocuments
+     *
+     * @param argCompactDocuments Value to assign to this.compactDocuments
+     */
+    public final void setCompactDocuments(final boolean argCompactDocuments) {
+        this.compactDocuments = argCompactDocuments;
+    }
+
+    /**
+     * If true, the single destination identity field is an integer,
+     * and the migrator keeps identities as primitive longs. Only
+     * effective if there is exactly one destination identity field.
+     *
+     * @return the value of numericIdentity
+     */
+    public final boolean isNumericIdentity() {
+        return this.numericIdentity;
+    }
+
+    /**
+     * Sets the value of numericIdentity
+     *
+     * @param argNumericIdentity Value to assign to this.numericIdentity
+     */
+    public final void setNumericIdentity(final boolean argNumericIdentity) {
+        this.numericIdentity = argNumericIdentity;
+    }
+
+    /**
+     * If true, the sizes of the requests and responses of uncompressed
+     * lightblue clients are counted in the job executions. The bodies
+     * are scanned to count their UTF-8 encoded sizes. Traffic of
+     * compressing clients is always counted.
+     *
+     * @return the value of meterTraffic
+     */
+    public final boolean isMeterTraffic() {
+        return this.meterTraffic;
+    }
+
+    /**
+     * Sets the value of meterTraffic
+     *
+     * @param argMeterTraffic Value to assign to this.meterTraffic
+     */
+    public final void setMeterTraffic(final boolean argMeterTraffic) {
+        this.meterTraffic = argMeterTraffic;
+    }
+
+    /**
+     * If positive, jobs with more documents than this are split into
+     * smaller jobs over ranges of splitField before they are
+     * migrated. Zero disables splitting.
+     *
+     * @return the value of maxJobSize
+     */
+    public final int getMaxJobSize() {
+        return this.maxJobSize;
+    }
+
+    /**
+     * Sets the value of maxJobSize
+     *
+     * @param argMaxJobSize Value to assign to this.maxJobSize
+     */
+    public final void setMaxJobSize(final int argMaxJobSize) {
+        this.maxJobSize = argMaxJobSize;
+    }
+
+    /**
+     * The field used to split oversized jobs into ranges. If null, the
+     * first destination identity field is used.
+     *
+     * @return the value of splitField
+     */
+    public final String getSplitField() {
+        return this.splitField;
+    }
+
+    /**
+     * Sets the value of splitField
+     *
+     * @param argSplitField Value to assign to this.splitField
+     */
+    public final void setSplitField(final String argSplitField) {
+        this.splitField = argSplitField;
+    }
+
+    /**
+     * If set, the last-modified date field of the source documents
+     * used for incremental sync. Every incrementalSyncPeriod minutes,
+     * a job is created for the documents modified since
+     * incrementalSyncHighWaterMark.
+     *
+     * @return the value of incrementalSyncField
+     */
+    public final String getIncrementalSyncField() {
+        return this.incrementalSyncField;
+    }
+
+    /**
+     * Sets the value of incrementalSyncField
+     *
+     * @param argIncrementalSyncField Value to assign to this.incrementalSyncField
+     */
+    public final void setIncrementalSyncField(final String argIncrementalSyncField) {
+        this.incrementalSyncField = argIncrementalSyncField;
+    }
+
+    /**
+     * Minutes between incremental sync jobs
+     *
+     * @return the value of incrementalSyncPeriod
+     */
+    public final int getIncrementalSyncPeriod() {
+        return this.incrementalSyncPeriod;
+    }
+
+    /**
+     * Sets the value of incrementalSyncPeriod
+     *
+     * @param argIncrementalSyncPeriod Value to assign to this.incrementalSyncPeriod
+     */
+    public final void setIncrementalSyncPeriod(final int argIncrementalSyncPeriod) {
+        this.incrementalSyncPeriod = argIncrementalSyncPeriod;
+    }
+
+    /**
+     * The end of the range of the last incremental sync job.
+     * Documents modified before this date are already covered by
+     * incremental sync jobs.
+     *
+     * @return the value of incrementalSyncHighWaterMark
+     */
+    public final Date getIncrementalSyncHighWaterMark() {
+        return this.incrementalSyncHighWaterMark;
+    }
+
+    /**
+     * Sets the value of incrementalSyncHighWaterMark
+     *
+     * @param argIncrementalSyncHighWaterMark Value to assign to this.incrementalSyncHighWaterMark
+     */
+    public final void setIncrementalSyncHighWaterMark(final Date argIncrementalSyncHighWaterMark) {
+        this.incrementalSyncHighWaterMark = argIncrementalSyncHighWaterMark;
+    }
+
+    /**
+     * Seconds to stay behind the current time with incremental sync
+     * jobs, so documents whose last-modified date is written late are
+     * not missed. MigratorController.DEFAULT_INCREMENTAL_SYNC_LAG_SECONDS
+     * if not positive.
+     *
+     * @return the value of incrementalSyncLag
+     */
+    public final int getIncrementalSyncLag() {
+        return this.incrementalSyncLag;
+    }
+
+    /**
+     * Sets the value of incrementalSyncLag
+     *
+     * @param argIncrementalSyncLag Value to assign to this.incrementalSyncLag
+     */
+    public final void setIncrementalSyncLag(final int argIncrementalSyncLag) {
+        this.incrementalSyncLag = argIncrementalSyncLag;
+    }
+
+    /**
+     * Seconds before the high-water mark an incremental sync job
+     * starts, so consecutive jobs overlap.
+     * MigratorController.DEFAULT_INCREMENTAL_SYNC_OVERLAP_SECONDS if
+     * not positive.
+     *
+     * @return the value of incrementalSyncOverlap
+     */
+    public final int getIncrementalSyncOverlap() {
+        return this.incrementalSyncOverlap;
+    }
+
+    /**
+     * Sets the value of incrementalSyncOverlap
+     *
+     * @param argIncrementalSyncOverlap Value to assign to this.incrementalSyncOverlap
+     */
+    public final void setIncrementalSyncOverlap(final int argIncrementalSyncOverlap) {
+        this.incrementalSyncOverlap = argIncrementalSyncOverlap;
+    }
+
+    /**
+     * If between 0 and 1, jobs only check this fraction of their
+     * documents, chosen randomly, and estimate the inconsistency rate
+     * of all documents from the sample. Otherwise all documents are
+     * checked.
+     *
+     * @return the value of samplingRate
+     */
+    public final double getSamplingRate() {
+        return this.samplingRate;
+    }
+
+    /**
+     * Sets the value of samplingRate
+     *
+     * @param argSamplingRate Value to assign to this.samplingRate
+     */
+    public final void setSamplingRate(final double argSamplingRate) {
+        this.samplingRate = argSamplingRate;
+    }
+
+    /**
+     * If more than one, the documents of a sampled job are divided
+     * into this many identity ranges, and each range is sampled
+     * separately
+     *
+     * @return the value of samplingStrata
+     */
+    public final int getSamplingStrata() {
+        return this.samplingStrata;
+    }
+
+    /**
+     * Sets the value of samplingStrata
+     *
+     * @param argSamplingStrata Value to assign to this.samplingStrata
+     */
+    public final void setSamplingStrata(final int argSamplingStrata) {
+        this.samplingStrata = argSamplingStrata;
+    }
+
+    /**
+     * Where inconsistent documents are recorded: "log" (default),
+     * "file" for newline delimited JSON in inconsistencyFile, or
+     * "lightblue" for the inconsistency entity
+     *
+     * @return the value of inconsistencyWriter
+     */
+    public final String getInconsistencyWriter() {
+        return this.inconsistencyWriter;
+    }
+
+    /**
+     * Sets the value of inconsistencyWriter
+     *
+     * @param argInconsistencyWriter Value to assign to this.inconsistencyWriter
+     */
+    public final void setInconsistencyWriter(final String argInconsistencyWriter) {
+        this.inconsistencyWriter = argInconsistencyWriter;
+    }
+
+    /**
+     * The file inconsistencies are written to if inconsistencyWriter
+     * is "file"
+     *
+     * @return the value of inconsistencyFile
+     */
+    public final String getInconsistencyFile() {
+        return this.inconsistencyFile;
+    }
+
+    /**
+     * Sets the value of inconsistencyFile
+     *
+     * @param argInconsistencyFile Value to assign to this.inconsistencyFile
+     */
+    public final void setInconsistencyFile(final String argInconsistencyFile) {
+        this.inconsistencyFile = argInconsistencyFile;
+    }
+
+    /**
+     * If positive, inconsistencies above this many per second are
+     * sampled instead of recorded individually
+     *
+     * @return the value of inconsistencyMaxPerSecond
+     */
+    public final int getInconsistencyMaxPerSecond() {
+        return this.inconsistencyMaxPerSecond;
+    }
+
+    /**
+     * Sets the value of inconsistencyMaxPerSecond
+     *
+     * @param argInconsistencyMaxPerSecond Value to assign to this.inconsistencyMaxPerSecond
+     */
+    public final void setInconsistencyMaxPerSecond(final int argInconsistencyMaxPerSecond) {
+        this.inconsistencyMaxPerSecond = argInconsistencyMaxPerSecond;
+    }
+
+    /**
+     * Share of the host thread budget relative to the other
+     * configurations. Values less than 1 are taken as 1.
+     *
+     * @return the value of threadWeight
+     */
+    public final int getThreadWeight() {
+        return this.threadWeight;
+    }
+
+    /**
+     * Sets the value of threadWeight
+     *
+     * @param argThreadWeight Value to assign to this.threadWeight
+     */
+    public final void setThreadWeight(final int argThreadWeight) {
+        this.threadWeight = argThreadWeight;
+    }
+
+    /**
+     * The order available jobs are started in, JobOrder.RANDOM (the
+     * default) or JobOrder.LARGEST_FIRST
+     *
+     * @return the value of jobOrder
+     */
+    public final String getJobOrder() {
+        return this.jobOrder;
+    }
+
+    /**
+     * Sets the value of jobOrder
+     *
+     * @param argJobOrder Value to assign to this.jobOrder
+     */
+    public final void setJobOrder(final String argJobOrder) {
+        this.jobOrder = argJobOrder;
+    }
+
+    /**
+     * With largest first order, jobs passed over for this many minutes,
+     * counted from when a controller first saw them, go before larger
+     * jobs. JobOrder.DEFAULT_STARVATION_MINUTES if not positive.
+     *
+     * @return the value of jobStarvationMinutes
+     */
+    public final int getJobStarvationMinutes() {
+        return this.jobStarvationMinutes;
+    }
+
+    /**
+     * Sets the value of jobStarvationMinutes
+     *
+     * @param argJobStarvationMinutes Value to assign to this.jobStarvationMinutes
+     */
+    public final void setJobStarvationMinutes(final int argJobStarvationMinutes) {
+        this.jobStarvationMinutes = argJobStarvationMinutes;
+    }
+
+    /**
+     * Bytes fetched per source document, for the source and the
+     * destination, assumed in memory estimates before any job of this
+     * configuration completes. JobMemoryEstimator.DEFAULT_DOCUMENT_SIZE
+     * if not positive.
+     *
+     * @return the value of estimatedDocumentSize
+     */
+    public final int getEstimatedDocumentSize() {
+        return this.estimatedDocumentSize;
+    }
+
+    /**
+     * Sets the value of estimatedDocumentSize
+     *
+     * @param argEstimatedDocumentSize Value to assign to this.estimatedDocumentSize
+     */
+    public final void setEstimatedDocumentSize(final int argEstimatedDocumentSize) {
+        this.estimatedDocumentSize = argEstimatedDocumentSize;
+    }
     
     @Override
     public String toString() {
@@ -341,6 +975,64 @@ public class MigrationConfiguration {
         sb.append("sourceEntityName=").append(sourceEntityName);
         sb.append(variableSeparator);
         sb.append("sourceEntityVersion=").append(sourceEntityVersion);
+        sb.append(variableSeparator);
+        sb.append("destinationIdentityProbe=").append(destinationIdentityProbe);
+        sb.append(variableSeparator);
+        sb.append("deltaRewrites=").append(deltaRewrites);
+        sb.append(variableSeparator);
+        sb.append("insertBatchSize=").append(insertBatchSize);
+        sb.append(variableSeparator);
+        sb.append("insertConcurrency=").append(insertConcurrency);
+        sb.append(variableSeparator);
+        sb.append("rewriteBatchSize=").append(rewriteBatchSize);
+        sb.append(variableSeparator);
+        sb.append("rewriteConcurrency=").append(rewriteConcurrency);
+        sb.append(variableSeparator);
+        sb.append("saveResponseMode=").append(saveResponseMode);
+        sb.append(variableSeparator);
+        sb.append("comparisonParallelism=").append(comparisonParallelism);
+        sb.append(variableSeparator);
+        sb.append("comparisonEngine=").append(comparisonEngine);
+        sb.append(variableSeparator);
+        sb.append("rawPassThrough=").append(rawPassThrough);
+        sb.append(variableSeparator);
+        sb.append("compactDocuments=").append(compactDocuments);
+        sb.append(variableSeparator);
+        sb.append("numericIdentity=").append(numericIdentity);
+        sb.append(variableSeparator);
+        sb.append("meterTraffic=").append(meterTraffic);
+        sb.append(variableSeparator);
+        sb.append("maxJobSize=").append(maxJobSize);
+        sb.append(variableSeparator);
+        sb.append("splitField=").append(splitField);
+        sb.append(variableSeparator);
+        sb.append("incrementalSyncField=").append(incrementalSyncField);
+        sb.append(variableSeparator);
+        sb.append("incrementalSyncPeriod=").append(incrementalSyncPeriod);
+        sb.append(variableSeparator);
+        sb.append("incrementalSyncHighWaterMark=").append(incrementalSyncHighWaterMark);
+        sb.append(variableSeparator);
+        sb.append("incrementalSyncLag=").append(incrementalSyncLag);
+        sb.append(variableSeparator);
+        sb.append("incrementalSyncOverlap=").append(incrementalSyncOverlap);
+        sb.append(variableSeparator);
+        sb.append("samplingRate=").append(samplingRate);
+        sb.append(variableSeparator);
+        sb.append("samplingStrata=").append(samplingStrata);
+        sb.append(variableSeparator);
+        sb.append("inconsistencyWriter=").append(inconsistencyWriter);
+        sb.append(variableSeparator);
+        sb.append("inconsistencyFile=").append(inconsistencyFile);
+        sb.append(variableSeparator);
+        sb.append("inconsistencyMaxPerSecond=").append(inconsistencyMaxPerSecond);
+        sb.append(variableSeparator);
+        sb.append("threadWeight=").append(threadWeight);
+        sb.append(variableSeparator);
+        sb.append("jobOrder=").append(jobOrder);
+        sb.append(variableSeparator);
+        sb.append("jobStarvationMinutes=").append(jobStarvationMinutes);
+        sb.append(variableSeparator);
+        sb.append("estimatedDocumentSize=").append(estimatedDocumentSize);
 
         return sb.toString();
     }
@@ -8,6 +8,11 @@ public class MigrationJob {
     public static final String STATE_ACTIVE="active";
     public static final String STATE_COMPLETED="completed";
     public static final String STATE_FAILED="failed";
+    /**
+     * The job was split into smaller jobs, and the documents of the job
+     * are migrated by those
+     */
+    public static final String STATE_SPLIT="split";
     
     /**
      * The migration job id
@@ -28,6 +33,18 @@ public class MigrationJob {
 
     private String status; // available, processing, complete
 
+    /**
+     * If this job was created by splitting another job, the id of that job
+     */
+    private String parentJobId;
+
+    /**
+     * Expected number of documents of the job, 0 if unknown. Set from a
+     * count of the source documents when the job is created, or from
+     * the documents fetched by an earlier execution.
+     */
+    private long estimatedDocumentCount;
+
     public String get_id() {
         return _id;
     }
@@ -60,4 +77,28 @@ public class MigrationJob {
         query=s;
     }
 
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String s) {
+        status=s;
+    }
+
+    public String getParentJobId() {
+        return parentJobId;
+    }
+
+    public void setParentJobId(String s) {
+        parentJobId=s;
+    }
+
+    public long getEstimatedDocumentCount() {
+        return estimatedDocumentCount;
+    }
+
+    public void setEstimatedDocumentCount(long l) {
+        estimatedDocumentCount=l;
+    }
 }
@@ -1,6 +1,7 @@
 package com.redhat.lightblue.migrator;
 
 import java.util.Date;
+import java.util.List;
 
 public class MigrationJobExecution {
 
@@ -22,6 +23,20 @@ public class MigrationJobExecution {
     private int inconsistentDocumentCount = 0;
     private int overwrittenDocumentCount = 0;
 
+    // If the job is sampled, the number of sampled documents, and the
+    // estimated inconsistency rate of all documents with 95%
+    // confidence bounds
+    private int sampledDocumentCount = 0;
+    private double estimatedInconsistencyRate = 0;
+    private double inconsistencyRateLowerBound = 0;
+    private double inconsistencyRateUpperBound = 0;
+
+    // time and traffic of each phase of the job
+    private List<ExecutionPhase> phases;
+
+    // the paths with the most inconsistent documents, and their counts
+    private List<PathCount> inconsistentPaths;
+
     public String getActiveExecutionId() {
         return activeExecutionId;
     }
@@ -109,4 +124,52 @@ public class MigrationJobExecution {
     public void setStatus(String jobStatus) {
         this.status = jobStatus;
     }
+
+    public int getSampledDocumentCount() {
+        return sampledDocumentCount;
+    }
+
+    public void setSampledDocumentCount(int sampledDocumentCount) {
+        this.sampledDocumentCount = sampledDocumentCount;
+    }
+
+    public double getEstimatedInconsistencyRate() {
+        return estimatedInconsistencyRate;
+    }
+
+    public void setEstimatedInconsistencyRate(double estimatedInconsistencyRate) {
+        this.estimatedInconsistencyRate = estimatedInconsistencyRate;
+    }
+
+    public double getInconsistencyRateLowerBound() {
+        return inconsistencyRateLowerBound;
+    }
+
+    public void setInconsistencyRateLowerBound(double inconsistencyRateLowerBound) {
+        this.inconsistencyRateLowerBound = inconsistencyRateLowerBound;
+    }
+
+    public double getInconsistencyRateUpperBound() {
+        return inconsistencyRateUpperBound;
+    }
+
+    public void setInconsistencyRateUpperBound(double inconsistencyRateUpperBound) {
+        this.inconsistencyRateUpperBound = inconsistencyRateUpperBound;
+    }
+
+    public List<ExecutionPhase> getPhases() {
+        return phases;
+    }
+
+    public void setPhases(List<ExecutionPhase> phases) {
+        this.phases = phases;
+    }
+
+    public List<PathCount> getInconsistentPaths() {
+        return inconsistentPaths;
+    }
+
+    public void setInconsistentPaths(List<PathCount> inconsistentPaths) {
+        this.inconsistentPaths = inconsistentPaths;
+    }
 }
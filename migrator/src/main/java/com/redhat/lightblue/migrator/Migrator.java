@@ -14,11 +14,17 @@ import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.Properties;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 
 import org.apache.commons.lang.StringUtils;
@@ -57,15 +63,45 @@ public abstract class Migrator extends Thread {
     private MigratorController controller;
     private MigrationJob migrationJob;
     private ActiveExecution activeExecution;
+    private long estimatedMemory;
 
     private LightblueClient lbClient;
 
+    private final ExecutionStats trafficStats=new ExecutionStats();
+
+    /**
+     * Client configuration property to enable compression. The only
+     * supported value is gzip.
+     */
+    public static final String PROP_COMPRESSION="compression";
+    /**
+     * Client configuration property giving the minimum request size
+     * in bytes to compress
+     */
+    public static final String PROP_COMPRESSION_THRESHOLD="compressionThreshold";
+    /**
+     * Client configuration property giving the connect timeout of the
+     * compressing client in msecs
+     */
+    public static final String PROP_CONNECT_TIMEOUT="connectTimeout";
+    /**
+     * Client configuration property giving the read timeout of the
+     * compressing client in msecs
+     */
+    public static final String PROP_READ_TIMEOUT="readTimeout";
+    /**
+     * Number of most frequently inconsistent paths stored with a job
+     * execution
+     */
+    public static final int TOP_INCONSISTENT_PATHS=20;
+
 
     // Migration context, observable by tests
     private Map<Identity,JsonNode> sourceDocs;
     private Map<Identity,JsonNode> destDocs;
     private Set<Identity> insertDocs;
     private Set<Identity> rewriteDocs;
+    private Map<Identity,List<String>> inconsistentPaths;
 
     public Migrator(ThreadGroup grp) {
         super(grp,"Migrator");
@@ -86,6 +122,10 @@ public abstract class Migrator extends Thread {
     public Set<Identity> getRewriteDocs() {
         return rewriteDocs;
     }
+
+    public Map<Identity,List<String>> getInconsistentPaths() {
+        return inconsistentPaths;
+    }
     
     public void setController(MigratorController c) {
         this.controller=c;
@@ -115,20 +155,75 @@ public abstract class Migrator extends Thread {
         return activeExecution;
     }
 
+    /**
+     * Sets the heap the job is estimated to need, see JobMemoryEstimator
+     */
+    public void setEstimatedMemory(long l) {
+        estimatedMemory=l;
+    }
+
+    public long getEstimatedMemory() {
+        return estimatedMemory;
+    }
+
+    public ExecutionStats getTrafficStats() {
+        return trafficStats;
+    }
+
+    /**
+     * Returns a lightblue client using the given client
+     * configuration. If the configuration contains
+     * compression=gzip, a compressing client is used, unless
+     * certificate authentication is enabled. Request bodies of at
+     * least compressionThreshold bytes are compressed, and
+     * connectTimeout and readTimeout give the timeouts in msecs.
+     * Traffic of the compressing client is counted in the execution
+     * stats of this migrator. Traffic of other clients is counted only
+     * if meterTraffic is set.
+     */
     public LightblueClient getLightblueClient(String configPath)
         throws IOException {
         LOGGER.debug("Getting client with config {}",configPath);
         LightblueClient cli;
         if (configPath == null) {
-            cli = new LightblueHttpClient();
+            cli = meter(new LightblueHttpClient());
         } else {
+            Properties properties=new Properties();
+            try (InputStream is = new FileInputStream(configPath)) {
+                properties.load(is);
+            }
+            LightblueClientConfiguration config;
             try (InputStream is = new FileInputStream(configPath)) {
-                LightblueClientConfiguration config = PropertiesLightblueClientConfiguration.fromInputStream(is);
-                cli = new LightblueHttpClient(config);
+                config = PropertiesLightblueClientConfiguration.fromInputStream(is);
+            }
+            boolean gzip="gzip".equalsIgnoreCase(properties.getProperty(PROP_COMPRESSION));
+            boolean certAuth=Boolean.parseBoolean(properties.getProperty("useCertAuth"));
+            if(gzip&&!certAuth) {
+                cli = new CompressingLightblueHttpClient(config,
+                                                         getIntProperty(properties,PROP_COMPRESSION_THRESHOLD,
+                                                                        CompressingLightblueHttpClient.DEFAULT_COMPRESSION_THRESHOLD),
+                                                         getIntProperty(properties,PROP_CONNECT_TIMEOUT,
+                                                                        CompressingLightblueHttpClient.DEFAULT_CONNECT_TIMEOUT_MS),
+                                                         getIntProperty(properties,PROP_READ_TIMEOUT,
+                                                                        CompressingLightblueHttpClient.DEFAULT_READ_TIMEOUT_MS),
+                                                         trafficStats);
+            } else {
+                if(gzip)
+                    LOGGER.warn("Compression is not supported with certificate authentication:{}",configPath);
+                cli = meter(new LightblueHttpClient(config));
             }
         }       
         return new LightblueHystrixClient(cli, "migrator", "cli");
     }
+
+    private LightblueClient meter(LightblueClient cli) {
+        return getMigrationConfiguration().isMeterTraffic()?new MeteringLightblueClient(cli,trafficStats):cli;
+    }
+
+    private static int getIntProperty(Properties properties,String name,int defaultValue) {
+        String value=properties.getProperty(name);
+        return value==null?defaultValue:Integer.parseInt(value.trim());
+    }
     
     /**
      * Updates active execution numDocsProcessed and numDocsToPRocess values, and ping time
@@ -153,62 +248,140 @@ public abstract class Migrator extends Thread {
     public void migrate(MigrationJobExecution execution) {
         try {
             initMigrator();
+            trafficStats.setJob(migrationJob.getConfigurationName(),migrationJob.get_id());
+            if(getMigrationConfiguration().getMaxJobSize()>0) {
+                List<String> queries=splitJob(getMigrationConfiguration().getMaxJobSize());
+                if(queries!=null&&queries.size()>1) {
+                    LOGGER.info("Splitting job {} into {} jobs: {}",migrationJob.get_id(),queries.size(),migrationJob.getConfigurationName());
+                    createChildJobs(queries);
+                    execution.setStatus(MigrationJob.STATE_SPLIT);
+                    Breakpoint.checkpoint("Migrator:split",migrationJob.get_id(),queries.size());
+                    return;
+                }
+            }
             LOGGER.debug("Retrieving source docs");
-            sourceDocs=getDocumentIdMap(getSourceDocuments());
-            Breakpoint.checkpoint("Migrator:sourceDocs");
+            trafficStats.startPhase(ExecutionStats.PHASE_SOURCE_FETCH);
+            sourceDocs=getSourceDocumentMap();
+            trafficStats.endPhase(sourceDocs.size());
+            getController().getMetrics().documentsFetched(sourceDocs.size());
+            Breakpoint.checkpoint("Migrator:sourceDocs",migrationJob.get_id(),sourceDocs.size());
             LOGGER.info("There are {} source docs:{}",sourceDocs.size(),migrationJob.getConfigurationName());
+            Collection<Identity> checkIds=sourceDocs.keySet();
+            ConsistencySampler sampler=null;
+            double samplingRate=getMigrationConfiguration().getSamplingRate();
+            if(samplingRate>0&&samplingRate<1) {
+                sampler=new ConsistencySampler(samplingRate,getMigrationConfiguration().getSamplingStrata());
+                checkIds=sampler.sample(sourceDocs.keySet());
+                LOGGER.info("Checking {} sampled docs:{}",checkIds.size(),migrationJob.getConfigurationName());
+            }
             LOGGER.debug("Retrieving destination docs");
-            destDocs=getDocumentIdMap(getDestinationDocuments(sourceDocs.keySet()));
-            Breakpoint.checkpoint("Migrator:destDocs");
+            trafficStats.startPhase(ExecutionStats.PHASE_DESTINATION_FETCH);
+            destDocs=getDestinationDocumentMap(checkIds);
+            trafficStats.endPhase(destDocs.size());
+            getController().getMetrics().documentsFetched(destDocs.size());
+            Breakpoint.checkpoint("Migrator:destDocs",migrationJob.get_id(),destDocs.size());
             LOGGER.info("There are {} destination docs:{}",destDocs.size(),migrationJob.getConfigurationName());
 
-            insertDocs=new HashSet<>();
-            for(Identity id:sourceDocs.keySet())
-                if(!destDocs.containsKey(id))
-                    insertDocs.add(id);
-            Breakpoint.checkpoint("Migrator:insertDocs");
+            trafficStats.startPhase(ExecutionStats.PHASE_COMPARE);
+            // If the source is long keyed, the ids to insert and
+            // rewrite are kept as primitive keys, and the documents
+            // are looked up with them
+            LongIdentityMap<Boolean> insertKeys=newKeySet();
+            insertDocs=newIdentitySet(insertKeys);
+            if(sampler==null&&isLongKeyed(sourceDocs)&&isLongKeyed(destDocs)) {
+                for(long key:keys(sourceDocs))
+                    if(!containsKey(destDocs,key))
+                        insertKeys.put(key,Boolean.TRUE);
+            } else {
+                for(Identity id:checkIds)
+                    if(!destDocs.containsKey(id))
+                        insertDocs.add(id);
+            }
+            Breakpoint.checkpoint("Migrator:insertDocs",migrationJob.get_id(),insertDocs.size());
             LOGGER.debug("There are {} docs to insert",insertDocs.size());
             
             LOGGER.debug("Comparing source and destination docs");
-            rewriteDocs=new HashSet<>();
-            for(Map.Entry<Identity,JsonNode> sourceEntry:sourceDocs.entrySet()) {
-                JsonNode destDoc=destDocs.get(sourceEntry.getKey());
-                if(destDoc!=null) {
-                    List<String> inconsistentFields=compareDocs(sourceEntry.getValue(),destDoc);
-                    if(inconsistentFields!=null&&!inconsistentFields.isEmpty()) {
-                        rewriteDocs.add(sourceEntry.getKey());
-                        // log as key=value to make parsing easy
-                        // fields to log: config name, job id, dest entity name & version, id field names & values,
-                        //list of inconsistent paths
-                        LOGGER.error("configurationName={} destinationEntityName={} destinationEntityVersion={} migrationJobId={} identityFields=\"{}\" identityFieldValues=\"{}\" inconsistentPaths=\"{}\"",
-                                     getMigrationConfiguration().getConfigurationName(),
-                                     getMigrationConfiguration().getDestinationEntityName(),
-                                     getMigrationConfiguration().getDestinationEntityVersion(),
-                                     migrationJob.get_id(),
-                                     StringUtils.join(getMigrationConfiguration().getDestinationIdentityFields(), ","),
-                                     sourceEntry.getKey().toString(),
-                                     StringUtils.join(inconsistentFields, ","));
-                    }
+            LongIdentityMap<Boolean> rewriteKeys=newKeySet();
+            rewriteDocs=newIdentitySet(rewriteKeys);
+            inconsistentPaths=compareDocs(sourceDocs,destDocs);
+            String identityFields=StringUtils.join(getMigrationConfiguration().getDestinationIdentityFields(), ",");
+            InconsistencySink sink=getController().getInconsistencySink();
+            PathHistogram pathHistogram=new PathHistogram();
+            if(rewriteKeys!=null&&inconsistentPaths instanceof LongIdentityMap) {
+                LongIdentityMap<List<String>> paths=(LongIdentityMap<List<String>>)inconsistentPaths;
+                for(long key:paths.keys()) {
+                    rewriteKeys.put(key,Boolean.TRUE);
+                    List<String> docPaths=paths.get(key);
+                    pathHistogram.addDocument(docPaths);
+                    sink.add(new Inconsistency(getMigrationConfiguration(),
+                                               migrationJob.get_id(),
+                                               identityFields,
+                                               Long.toString(key),
+                                               docPaths));
+                }
+            } else {
+                for(Map.Entry<Identity,List<String>> entry:inconsistentPaths.entrySet()) {
+                    rewriteDocs.add(entry.getKey());
+                    pathHistogram.addDocument(entry.getValue());
+                    sink.add(new Inconsistency(getMigrationConfiguration(),
+                                               migrationJob.get_id(),
+                                               identityFields,
+                                               entry.getKey().toString(),
+                                               entry.getValue()));
                 }
             }
-            Breakpoint.checkpoint("Migrator:rewriteDocs");
+            execution.setInconsistentPaths(pathHistogram.getTop(TOP_INCONSISTENT_PATHS));
+            if(pathHistogram.size()>0)
+                LOGGER.info("Inconsistent paths of {}: {}",migrationJob.get_id(),execution.getInconsistentPaths());
+            trafficStats.endPhase(checkIds.size());
+            getController().getMetrics().documentsCompared(checkIds.size());
+            Breakpoint.checkpoint("Migrator:rewriteDocs",migrationJob.get_id(),rewriteDocs.size());
             LOGGER.debug("There are {} docs to rewrite: {}",rewriteDocs.size(),migrationJob.getConfigurationName());
             execution.setInconsistentDocumentCount(rewriteDocs.size());
             execution.setOverwrittenDocumentCount(rewriteDocs.size());
-            execution.setConsistentDocumentCount(sourceDocs.size()-rewriteDocs.size());
+            execution.setConsistentDocumentCount(checkIds.size()-rewriteDocs.size());
+            if(sampler!=null) {
+                // Missing and mismatched docs are both inconsistent
+                Set<Identity> inconsistentDocs=newIdentitySet();
+                inconsistentDocs.addAll(insertDocs);
+                inconsistentDocs.addAll(rewriteDocs);
+                double[] estimate=sampler.estimate(inconsistentDocs);
+                execution.setSampledDocumentCount(sampler.getSampleSize());
+                execution.setEstimatedInconsistencyRate(estimate[0]);
+                execution.setInconsistencyRateLowerBound(estimate[1]);
+                execution.setInconsistencyRateUpperBound(estimate[2]);
+                LOGGER.info("Estimated inconsistency rate of {}: {} ({} - {})",migrationJob.get_id(),
+                            estimate[0],estimate[1],estimate[2]);
+            }
 
-            List<JsonNode> saveDocsList=new ArrayList<>();
-            for(Identity id:insertDocs)
-                saveDocsList.add(sourceDocs.get(id));
-            for(Identity id:rewriteDocs)
-                saveDocsList.add(sourceDocs.get(id));
+            List<JsonNode> insertDocsList=selectSourceDocs(insertDocs,insertKeys);
 
-            execution.setProcessedDocumentCount(sourceDocs.size());
+            execution.setProcessedDocumentCount(checkIds.size());
             
-            LOGGER.debug("There are {} docs to save: {}",saveDocsList.size(),migrationJob.getConfigurationName());
-            save(saveDocsList);
-            LOGGER.info("Docs saved: {} {}",saveDocsList.size(),migrationJob.getConfigurationName());
-            Breakpoint.checkpoint("Migrator:complete");
+            LOGGER.debug("There are {} docs to insert: {}",insertDocsList.size(),migrationJob.getConfigurationName());
+            trafficStats.startPhase(ExecutionStats.PHASE_INSERT);
+            insert(insertDocsList);
+            trafficStats.endPhase(insertDocsList.size());
+            getController().getMetrics().documentsSaved(insertDocsList.size());
+            LOGGER.info("Docs inserted: {} {}",insertDocsList.size(),migrationJob.getConfigurationName());
+            trafficStats.startPhase(ExecutionStats.PHASE_REWRITE);
+            if(getMigrationConfiguration().isDeltaRewrites()) {
+                LOGGER.debug("There are {} docs to patch: {}",inconsistentPaths.size(),migrationJob.getConfigurationName());
+                rewrite(inconsistentPaths);
+                LOGGER.info("Docs patched: {} {}",inconsistentPaths.size(),migrationJob.getConfigurationName());
+            } else {
+                List<JsonNode> saveDocsList=selectSourceDocs(rewriteDocs,rewriteKeys);
+                LOGGER.debug("There are {} docs to save: {}",saveDocsList.size(),migrationJob.getConfigurationName());
+                save(saveDocsList);
+                LOGGER.info("Docs saved: {} {}",saveDocsList.size(),migrationJob.getConfigurationName());
+            }
+            trafficStats.endPhase(rewriteDocs.size());
+            getController().getMetrics().documentsSaved(rewriteDocs.size());
+            if(trafficStats.getRequestCount()>0)
+                LOGGER.info("Traffic for {}: {}",migrationJob.get_id(),trafficStats);
+            for(ExecutionPhase phase:trafficStats.getPhases())
+                LOGGER.debug("Phase {}",phase);
+            Breakpoint.checkpoint("Migrator:complete",migrationJob.get_id(),execution.getProcessedDocumentCount());
 
         } catch (Exception e) {
             LOGGER.error("Error during migration of {}:{}",migrationJob.getConfigurationName(),e);
@@ -216,6 +389,8 @@ public abstract class Migrator extends Thread {
             e.printStackTrace(new PrintWriter(strw));
             execution.setErrorMsg(strw.toString());
         } finally {
+            trafficStats.endPhase(0);
+            execution.setPhases(trafficStats.getPhases());
             cleanupMigrator();
         }
     }
@@ -230,6 +405,51 @@ public abstract class Migrator extends Thread {
      */
     public void cleanupMigrator() {}
 
+    /**
+     * Called before migration if maxJobSize is set. Should return the
+     * back-end queries of the jobs this job will be split into if the
+     * job has more than maxJobSize documents, or null if the job is not
+     * to be split. The default implementation does not split jobs.
+     */
+    public List<String> splitJob(int maxJobSize) {
+        return null;
+    }
+
+    /**
+     * Creates available jobs with the given queries, and this job as
+     * their parent. Children created by an earlier attempt of this
+     * job, interrupted before the job was marked as split, are not
+     * created again.
+     */
+    private void createChildJobs(List<String> queries) {
+        JobGenerator generator=getJobGenerator();
+        Set<String> existing=generator.getChildJobQueries(migrationJob.get_id());
+        Date now=new Date();
+        List<MigrationJob> jobs=new ArrayList<>(queries.size());
+        for(String query:queries) {
+            if(existing.contains(query)) {
+                LOGGER.debug("Child job exists:{}",query);
+                continue;
+            }
+            MigrationJob job=generator.newJob(query,now);
+            job.setParentJobId(migrationJob.get_id());
+            // Each child has at most about maxJobSize documents
+            job.setEstimatedDocumentCount(getMigrationConfiguration().getMaxJobSize());
+            jobs.add(job);
+        }
+        generator.createJobs(jobs);
+    }
+
+    /**
+     * Returns a job generator for this configuration that writes to
+     * the migration database
+     */
+    protected JobGenerator getJobGenerator() {
+        if(lbClient==null)
+            lbClient=controller.getController().getLightblueClient();
+        return new JobGenerator(lbClient,getMigrationConfiguration());
+    }
+
     /**
      * Should return a list of source documents
      */
@@ -240,27 +460,327 @@ public abstract class Migrator extends Thread {
      */
     public abstract List<JsonNode> getDestinationDocuments(Collection<Identity> docs);
 
+    /**
+     * Returns the source documents by identity. The default
+     * implementation builds the map from getSourceDocuments().
+     */
+    public Map<Identity,JsonNode> getSourceDocumentMap() {
+        return getDocumentIdMap(getSourceDocuments());
+    }
+
+    /**
+     * Returns the destination documents with the given ids by
+     * identity. The default implementation builds the map from
+     * getDestinationDocuments().
+     */
+    public Map<Identity,JsonNode> getDestinationDocumentMap(Collection<Identity> ids) {
+        return getDocumentIdMap(getDestinationDocuments(ids));
+    }
+
     /**
      * Should compare two docs, and return mismatched fields
      */
     public abstract List<String> compareDocs(JsonNode source,JsonNode dest);
 
+    /**
+     * Compares two docs given as token streams, and returns mismatched
+     * fields. This is used when documents are kept encoded. The default
+     * implementation reads the documents into trees and compares them.
+     */
+    public List<String> compareDocs(JsonParser source,JsonParser dest) {
+        try {
+            JsonNode sourceDoc=source.readValueAsTree();
+            JsonNode destDoc=dest.readValueAsTree();
+            return compareDocs(sourceDoc,destDoc);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read documents:"+e);
+        }
+    }
+
     public abstract List<LightblueResponse> save(List<JsonNode> docs);
 
     /**
-     * Build an id-doc map from a list of docs
+     * Called to write documents that do not exist in the
+     * destination. The default implementation saves them.
+     */
+    public List<LightblueResponse> insert(List<JsonNode> docs) {
+        return save(docs);
+    }
+
+    /**
+     * Called when delta rewrites are enabled to fix the given
+     * inconsistent paths of the destination documents. The default
+     * implementation saves the source documents in full.
+     */
+    public List<LightblueResponse> rewrite(Map<Identity,List<String>> inconsistentPaths) {
+        List<JsonNode> docs=new ArrayList<>(inconsistentPaths.size());
+        for(Identity id:inconsistentPaths.keySet())
+            docs.add(sourceDocs.get(id));
+        return save(docs);
+    }
+
+    /**
+     * Compares the source documents with the destination documents
+     * with the same ids, and returns the inconsistent paths for the
+     * documents that don't match. If comparisonParallelism is greater
+     * than one, the comparison is split among the threads of the
+     * controller's comparison pool. If both maps keep identities as
+     * longs, documents are looked up using primitive keys.
+     */
+    public Map<Identity,List<String>> compareDocs(Map<Identity,JsonNode> source,Map<Identity,JsonNode> dest) {
+        CompareTask task;
+        if(isLongKeyed(source)&&isLongKeyed(dest)) {
+            long[] keys=keys(source);
+            task=new CompareTask(source,dest,null,keys,0,keys.length);
+        } else {
+            Identity[] ids=source.keySet().toArray(new Identity[source.size()]);
+            task=new CompareTask(source,dest,ids,null,0,ids.length);
+        }
+        if(getMigrationConfiguration().getComparisonParallelism()>1&&task.to>COMPARE_TASK_SIZE) {
+            LOGGER.debug("Comparing {} docs in parallel",task.to);
+            try {
+                return controller.getComparisonPool().invoke(task);
+            } catch (RejectedExecutionException e) {
+                // Pool is replaced by a configuration change
+                LOGGER.debug("Comparison pool is shut down, comparing in migrator thread");
+                return new CompareTask(source,dest,task.ids,task.keys,0,task.to).compute();
+            }
+        } else {
+            return task.compute();
+        }
+    }
+
+    private static final int COMPARE_TASK_SIZE=256;
+
+    /**
+     * Compares the documents with ids[from]...ids[to-1], or with the
+     * primitive keys keys[from]...keys[to-1], splitting the range in
+     * half until it is small enough.
+     */
+    private final class CompareTask extends RecursiveTask<Map<Identity,List<String>>> {
+        private final Map<Identity,JsonNode> source;
+        private final Map<Identity,JsonNode> dest;
+        private final Identity[] ids;
+        private final long[] keys;
+        private final int from;
+        private final int to;
+
+        public CompareTask(Map<Identity,JsonNode> source,Map<Identity,JsonNode> dest,Identity[] ids,long[] keys,int from,int to) {
+            this.source=source;
+            this.dest=dest;
+            this.ids=ids;
+            this.keys=keys;
+            this.from=from;
+            this.to=to;
+        }
+
+        @Override
+        protected Map<Identity,List<String>> compute() {
+            if(to-from>COMPARE_TASK_SIZE&&inForkJoinPool()) {
+                int mid=(from+to)>>>1;
+                CompareTask right=new CompareTask(source,dest,ids,keys,mid,to);
+                right.fork();
+                Map<Identity,List<String>> ret=new CompareTask(source,dest,ids,keys,from,mid).compute();
+                ret.putAll(right.join());
+                return ret;
+            } else if(keys!=null) {
+                LongIdentityMap<List<String>> ret=new LongIdentityMap<>();
+                for(int i=from;i<to;i++) {
+                    List<String> inconsistentFields=compare(keys[i]);
+                    if(inconsistentFields!=null&&!inconsistentFields.isEmpty())
+                        ret.put(keys[i],inconsistentFields);
+                }
+                return ret;
+            } else {
+                Map<Identity,List<String>> ret=new HashMap<>();
+                for(int i=from;i<to;i++) {
+                    List<String> inconsistentFields=compare(ids[i]);
+                    if(inconsistentFields!=null&&!inconsistentFields.isEmpty())
+                        ret.put(ids[i],inconsistentFields);
+                }
+                return ret;
+            }
+        }
+
+        /**
+         * Compares the documents with the given id, returns null if
+         * there is no destination document
+         */
+        private List<String> compare(Identity id) {
+            if(!dest.containsKey(id))
+                return null;
+            if(source instanceof CompactDocumentMap&&dest instanceof CompactDocumentMap) {
+                try (JsonParser sourceParser=((CompactDocumentMap)source).getParser(id);
+                     JsonParser destParser=((CompactDocumentMap)dest).getParser(id)) {
+                    return compareDocs(sourceParser,destParser);
+                } catch (IOException e) {
+                    throw new RuntimeException("Cannot compare "+id+":"+e);
+                }
+            }
+            return compareDocs(source.get(id),dest.get(id));
+        }
+
+        /**
+         * Compares the documents with the given primitive key, both
+         * maps are long keyed
+         */
+        private List<String> compare(long key) {
+            if(dest instanceof CompactDocumentMap) {
+                if(!((CompactDocumentMap)dest).containsKey(key))
+                    return null;
+                if(source instanceof CompactDocumentMap) {
+                    try (JsonParser sourceParser=((CompactDocumentMap)source).getParser(key);
+                         JsonParser destParser=((CompactDocumentMap)dest).getParser(key)) {
+                        return compareDocs(sourceParser,destParser);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Cannot compare "+key+":"+e);
+                    }
+                }
+            } else if(!((LongIdentityMap<JsonNode>)dest).containsKey(key)) {
+                return null;
+            }
+            return compareDocs(get(source,key),get(dest,key));
+        }
+    }
+
+    private static JsonNode get(Map<Identity,JsonNode> map,long key) {
+        return map instanceof LongIdentityMap?
+            ((LongIdentityMap<JsonNode>)map).get(key):
+            ((CompactDocumentMap)map).get(key);
+    }
+
+    private static boolean containsKey(Map<Identity,JsonNode> map,long key) {
+        return map instanceof LongIdentityMap?
+            ((LongIdentityMap<JsonNode>)map).containsKey(key):
+            ((CompactDocumentMap)map).containsKey(key);
+    }
+
+    /**
+     * Returns the primitive keys of a long keyed map
+     */
+    private static long[] keys(Map<Identity,JsonNode> map) {
+        return map instanceof LongIdentityMap?
+            ((LongIdentityMap<JsonNode>)map).keys():
+            ((CompactDocumentMap)map).keys();
+    }
+
+    /**
+     * Returns the source documents with the given ids. If the ids are
+     * kept as primitive keys in keys, they are looked up using those.
+     */
+    private List<JsonNode> selectSourceDocs(Set<Identity> ids,LongIdentityMap<Boolean> keys) {
+        List<JsonNode> docs=new ArrayList<>(ids.size());
+        if(keys!=null) {
+            for(long key:keys.keys())
+                docs.add(get(sourceDocs,key));
+        } else {
+            for(Identity id:ids)
+                docs.add(sourceDocs.get(id));
+        }
+        return docs;
+    }
+
+    /**
+     * Returns true if identities can be kept as primitive longs
+     */
+    private boolean useLongIdentities() {
+        return getMigrationConfiguration().isNumericIdentity()&&
+            getMigrationConfiguration().getDestinationIdentityFields()!=null&&
+            getMigrationConfiguration().getDestinationIdentityFields().size()==1;
+    }
+
+    private Map<Identity,JsonNode> newDocumentMap(boolean longIdentities) {
+        if(getMigrationConfiguration().isCompactDocuments())
+            return new CompactDocumentMap(longIdentities?
+                                          new LongIdentityMap<byte[]>():
+                                          new HashMap<Identity,byte[]>());
+        else
+            return longIdentities?new LongIdentityMap<JsonNode>():new HashMap<Identity,JsonNode>();
+    }
+
+    /**
+     * Returns a set for identities of the source documents
+     */
+    private Set<Identity> newIdentitySet() {
+        return newIdentitySet(newKeySet());
+    }
+
+    /**
+     * Returns a map to keep identities of the source documents as
+     * primitive keys, or null if the source is not long keyed
+     */
+    private LongIdentityMap<Boolean> newKeySet() {
+        return isLongKeyed(sourceDocs)?new LongIdentityMap<Boolean>():null;
+    }
+
+    /**
+     * Returns a set of identities backed by the given primitive keys,
+     * or a hash set if keys is null
+     */
+    private static Set<Identity> newIdentitySet(LongIdentityMap<Boolean> keys) {
+        if(keys!=null)
+            return Collections.newSetFromMap(keys);
+        else
+            return new HashSet<>();
+    }
+
+    private static boolean isLongKeyed(Map<Identity,?> map) {
+        return map instanceof LongIdentityMap||
+            (map instanceof CompactDocumentMap&&((CompactDocumentMap)map).isLongKeyed());
+    }
+
+    /**
+     * Build an id-doc map from a list of docs. If compactDocuments is
+     * set, documents are kept encoded in the map. If numericIdentity
+     * is set, identities are kept as longs, unless a document has an
+     * identity that is not an integer.
      */
     public Map<Identity,JsonNode> getDocumentIdMap(List<JsonNode> list) {
-        Map<Identity,JsonNode> map=new HashMap<>();
+        Map<Identity,JsonNode> map=newDocumentIdMap();
         if(list!=null) {
             LOGGER.debug("Getting doc IDs for {} docs, fields={}",list.size(),
                          getMigrationConfiguration().getDestinationIdentityFields());
-            for(JsonNode node:list) {
-                Identity id=new Identity(node, getMigrationConfiguration().getDestinationIdentityFields());
-                LOGGER.debug("ID={}",id);
-                map.put(id,node);
+            for(JsonNode node:list)
+                map=addDocument(map,node);
+        }
+        return map;
+    }
+
+    /**
+     * Returns an empty id-doc map, to be filled using addDocument
+     */
+    protected Map<Identity,JsonNode> newDocumentIdMap() {
+        return newDocumentMap(useLongIdentities());
+    }
+
+    /**
+     * Adds a document to an id-doc map built by newDocumentIdMap, and
+     * returns the map. If the map keeps identities as longs, and the
+     * identity of the document is not an integer, a new map with all
+     * the documents is returned.
+     */
+    protected Map<Identity,JsonNode> addDocument(Map<Identity,JsonNode> map,JsonNode node) {
+        if(isLongKeyed(map)) {
+            // Take the key from the document without building an identity
+            JsonNode value=Identity.getFieldValue(node,getMigrationConfiguration().getDestinationIdentityFields().get(0));
+            if(LongIdentityMap.isLong(value)) {
+                if(map instanceof LongIdentityMap)
+                    ((LongIdentityMap<JsonNode>)map).put(LongIdentityMap.longValue(value),node);
+                else
+                    ((CompactDocumentMap)map).put(LongIdentityMap.longValue(value),node);
+                return map;
             }
         }
+        Identity id=new Identity(node, getMigrationConfiguration().getDestinationIdentityFields());
+        LOGGER.debug("ID={}",id);
+        if(isLongKeyed(map)&&LongIdentityMap.toLong(id)==null) {
+            LOGGER.warn("Identity {} is not an integer, numericIdentity ignored:{}",id,
+                        getMigrationConfiguration().getConfigurationName());
+            Map<Identity,JsonNode> copy=newDocumentMap(false);
+            copy.putAll(map);
+            map=copy;
+        }
+        map.put(id,node);
         return map;
     }
     
@@ -302,8 +822,14 @@ public abstract class Migrator extends Thread {
                          
             response = lbClient.data(updateRequest);
             if(!response.hasError()) {
+                controller.getMetrics().jobStarted();
+                long allocated=MigratorMetrics.currentThreadAllocatedBytes();
                 // Do the migration
                 migrate(execution);
+                if(allocated>=0)
+                    controller.getMetrics().migratorThreadAllocated(MigratorMetrics.currentThreadAllocatedBytes()-allocated);
+                if(execution.getErrorMsg()==null&&execution.getPhases()!=null)
+                    controller.getMemoryEstimator().jobCompleted(execution.getPhases());
 
                 // If there is error, 'error' will contain a messages, otherwise it'll be null
                 // Update the state
@@ -312,18 +838,36 @@ public abstract class Migrator extends Thread {
                 updateRequest.returns(includeField("_id"));
                 if(execution.getErrorMsg()!=null)
                     execution.setStatus(MigrationJob.STATE_FAILED);
-                else
+                else if(!MigrationJob.STATE_SPLIT.equals(execution.getStatus()))
                     execution.setStatus(MigrationJob.STATE_COMPLETED);
-                updateRequest.updates(new SetUpdate(new PathValuePair("status",new LiteralRValue(quote(execution.getStatus())))),
+                controller.getMetrics().jobFinished(execution.getStatus());
+                List<PathValuePair> executionValues=new ArrayList<>();
+                executionValues.add(new PathValuePair("status",new LiteralRValue(quote(execution.getStatus()))));
+                executionValues.add(new PathValuePair("errorMsg",new LiteralRValue(escape(execution.getErrorMsg()==null?"":execution.getErrorMsg()))));
+                executionValues.add(new PathValuePair("processedDocumentCount",new LiteralRValue(Integer.toString(execution.getProcessedDocumentCount()))));
+                executionValues.add(new PathValuePair("consistentDocumentCount",new LiteralRValue(Integer.toString(execution.getConsistentDocumentCount()))));
+                executionValues.add(new PathValuePair("inconsistentDocumentCount",new LiteralRValue(Integer.toString(execution.getInconsistentDocumentCount()))));
+                executionValues.add(new PathValuePair("overwrittenDocumentCount",new LiteralRValue(Integer.toString(execution.getOverwrittenDocumentCount()))));
+                executionValues.add(new PathValuePair("actualEndDate", new LiteralRValue(quote(ClientConstants.getDateFormat().format(new Date())))));
+                if(execution.getPhases()!=null&&!execution.getPhases().isEmpty())
+                    executionValues.add(new PathValuePair("phases",new LiteralRValue(toJson(execution.getPhases()).toString())));
+                if(execution.getInconsistentPaths()!=null&&!execution.getInconsistentPaths().isEmpty())
+                    executionValues.add(new PathValuePair("inconsistentPaths",new LiteralRValue(pathsToJson(execution.getInconsistentPaths()).toString())));
+                if(execution.getSampledDocumentCount()>0) {
+                    executionValues.add(new PathValuePair("sampledDocumentCount",new LiteralRValue(Integer.toString(execution.getSampledDocumentCount()))));
+                    executionValues.add(new PathValuePair("estimatedInconsistencyRate",new LiteralRValue(Double.toString(execution.getEstimatedInconsistencyRate()))));
+                    executionValues.add(new PathValuePair("inconsistencyRateLowerBound",new LiteralRValue(Double.toString(execution.getInconsistencyRateLowerBound()))));
+                    executionValues.add(new PathValuePair("inconsistencyRateUpperBound",new LiteralRValue(Double.toString(execution.getInconsistencyRateUpperBound()))));
+                }
+                List<PathValuePair> jobValues=new ArrayList<>();
+                jobValues.add(new PathValuePair("status",new LiteralRValue(quote(execution.getStatus()))));
+                // Remember the size of the job, in case it runs again
+                if(sourceDocs!=null)
+                    jobValues.add(new PathValuePair("estimatedDocumentCount",new LiteralRValue(Integer.toString(sourceDocs.size()))));
+                updateRequest.updates(new SetUpdate(jobValues.toArray(new PathValuePair[jobValues.size()])),
                                       new ForeachUpdate("jobExecutions",
                                                         withValue("activeExecutionId",ExpressionOperation.EQ,activeExecution.get_id()),
-                                                        new SetUpdate(new PathValuePair("status",new LiteralRValue(quote(execution.getStatus()))),
-                                                                      new PathValuePair("errorMsg",new LiteralRValue(escape(execution.getErrorMsg()==null?"":execution.getErrorMsg()))),
-                                                                      new PathValuePair("processedDocumentCount",new LiteralRValue(Integer.toString(execution.getProcessedDocumentCount()))),
-                                                                      new PathValuePair("consistentDocumentCount",new LiteralRValue(Integer.toString(execution.getConsistentDocumentCount()))),
-                                                                      new PathValuePair("inconsistentDocumentCount",new LiteralRValue(Integer.toString(execution.getInconsistentDocumentCount()))),
-                                                                      new PathValuePair("overwrittenDocumentCount",new LiteralRValue(Integer.toString(execution.getOverwrittenDocumentCount()))),
-                                                                      new PathValuePair("actualEndDate", new LiteralRValue(quote(ClientConstants.getDateFormat().format(new Date())))))));
+                                                        new SetUpdate(executionValues.toArray(new PathValuePair[executionValues.size()]))));
 
                 response=lbClient.data(updateRequest);
                 if(response.hasError())
@@ -337,6 +881,31 @@ public abstract class Migrator extends Thread {
         controller.unlock(activeExecution.get_id());
     }
 
+    private static JsonNode toJson(List<ExecutionPhase> phases) {
+        ArrayNode arr=JsonNodeFactory.instance.arrayNode();
+        for(ExecutionPhase phase:phases)
+            arr.addObject().
+                put("name",phase.getName()).
+                put("timeMillis",phase.getTimeMillis()).
+                put("documentCount",phase.getDocumentCount()).
+                put("requestCount",phase.getRequestCount()).
+                put("bytesSent",phase.getBytesSent()).
+                put("bytesReceived",phase.getBytesReceived()).
+                put("rawBytesSent",phase.getRawBytesSent()).
+                put("rawBytesReceived",phase.getRawBytesReceived()).
+                put("documentsPerSecond",phase.getDocumentsPerSecond());
+        return arr;
+    }
+
+    private static JsonNode pathsToJson(List<PathCount> paths) {
+        ArrayNode arr=JsonNodeFactory.instance.arrayNode();
+        for(PathCount p:paths)
+            arr.addObject().
+                put("path",p.getPath()).
+                put("count",p.getCount());
+        return arr;
+    }
+
     private String quote(String s) {
         return s==null?null:"\""+s+"\"";
     }
@@ -3,8 +3,11 @@ package com.redhat.lightblue.migrator;
 import java.util.Random;
 import java.util.Date;
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import java.io.IOException;
 
@@ -20,6 +23,7 @@ import com.redhat.lightblue.client.request.data.DataFindRequest;
 import com.redhat.lightblue.client.request.data.DataInsertRequest;
 import com.redhat.lightblue.client.request.data.DataDeleteRequest;
 import com.redhat.lightblue.client.request.data.DataUpdateRequest;
+import com.redhat.lightblue.client.expression.query.Query;
 import com.redhat.lightblue.client.expression.update.SetUpdate;
 import com.redhat.lightblue.client.expression.update.PathValuePair;
 import com.redhat.lightblue.client.expression.update.AppendUpdate;
@@ -33,20 +37,51 @@ import static com.redhat.lightblue.client.projection.FieldProjection.includeFiel
 import static com.redhat.lightblue.client.projection.FieldProjection.includeField;
 import static com.redhat.lightblue.client.expression.query.NaryLogicalQuery.and;
 
-public class MigratorController extends Thread {
+public class MigratorController extends Thread implements ThreadBudget.Member {
 
     private static final Logger LOGGER=LoggerFactory.getLogger(MigratorController.class);
     
-    private MigrationConfiguration migrationConfiguration;
+    private volatile MigrationConfiguration migrationConfiguration;
     private final Class migratorClass;
     private final Controller controller;
     private final LightblueClient lbClient;
     private final Random rnd=new Random();
     private final ThreadGroup migratorThreads;
+    private ForkJoinPool comparisonPool;
+    private final MigratorMetrics metrics;
+    private volatile InconsistencySink inconsistencySink;
+    private final JobMemoryEstimator memoryEstimator=new JobMemoryEstimator();
+
+    // Runtime controls, set through the admin endpoint
+    private volatile boolean paused;
+    private volatile boolean draining;
+    private volatile int threadCountOverride;
+
+    // Jobs handed over by the job poller, guarded by migratorThreads
+    private List<MigrationJob> polledJobs;
+    private boolean morePolledJobs=true;
+
+    // Set if a thread is reserved from the thread budget of the controller
+    private boolean threadReserved=false;
+
+    // Set if a job was not started for lack of heap
+    private boolean deferred=false;
+
+    // When available jobs were first and last seen, for the largest
+    // first order, see JobOrder
+    private final Map<String,long[]> jobsSeen=new HashMap<>();
+
+    /**
+     * How long to wait for the job poller before looking again
+     */
+    public static final long POLLED_JOB_WAIT_MS=30000l;
 
     public static final int JOB_FETCH_BATCH_SIZE=64;
 
-    private static final class LockRecord {
+    public static final int DEFAULT_INCREMENTAL_SYNC_LAG_SECONDS=60;
+    public static final int DEFAULT_INCREMENTAL_SYNC_OVERLAP_SECONDS=60;
+
+    static final class LockRecord {
         final MigrationJob mj;
         final ActiveExecution ae;
 
@@ -72,12 +107,198 @@ public class MigratorController extends Thread {
             }
         
         migratorThreads=new ThreadGroup("Migrators:"+migrationConfiguration.getConfigurationName());
+        metrics=new MigratorMetrics(migrationConfiguration.getConfigurationName(),migratorThreads);
+    }
+
+    public MigratorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the sink of the inconsistencies found by the migrators
+     * of this controller, or null if the controller thread is not
+     * started. The sink is created when the thread starts, so the
+     * inconsistency file is not opened by controllers that do not run.
+     */
+    public InconsistencySink getInconsistencySink() {
+        return inconsistencySink;
+    }
+
+    public JobMemoryEstimator getMemoryEstimator() {
+        return memoryEstimator;
+    }
+
+    /**
+     * Returns the heap a job is estimated to need
+     */
+    public long estimateJobMemory(MigrationJob job) {
+        return memoryEstimator.estimate(job.getEstimatedDocumentCount(),
+                                        migrationConfiguration.getMaxJobSize(),
+                                        migrationConfiguration.getEstimatedDocumentSize());
+    }
+
+    /**
+     * Returns the running migrator threads
+     */
+    public List<Migrator> getRunningMigrators() {
+        Thread[] threads=new Thread[migratorThreads.activeCount()+1];
+        int n=migratorThreads.enumerate(threads);
+        List<Migrator> list=new ArrayList<>(n);
+        for(int i=0;i<n;i++)
+            if(threads[i] instanceof Migrator)
+                list.add((Migrator)threads[i]);
+        return list;
+    }
+
+    private InconsistencyWriter createInconsistencyWriter() {
+        String w=migrationConfiguration.getInconsistencyWriter();
+        if(InconsistencySink.WRITER_FILE.equals(w)) {
+            try {
+                return new FileInconsistencyWriter(migrationConfiguration.getInconsistencyFile());
+            } catch (Exception e) {
+                LOGGER.error("Cannot open inconsistency file {}, logging inconsistencies:{}",migrationConfiguration.getInconsistencyFile(),e);
+            }
+        } else if(InconsistencySink.WRITER_LIGHTBLUE.equals(w)) {
+            return new LightblueInconsistencyWriter(lbClient);
+        } else if(w!=null&&!InconsistencySink.WRITER_LOG.equals(w)) {
+            LOGGER.error("Unknown inconsistency writer {}, logging inconsistencies",w);
+        }
+        return new LogInconsistencyWriter();
+    }
+
+    /**
+     * Stops starting new jobs until resumed. Running jobs continue.
+     */
+    public void pause() {
+        LOGGER.info("Pausing {}",migrationConfiguration.getConfigurationName());
+        paused=true;
+    }
+
+    /**
+     * Stops starting new jobs, so running jobs can finish before a
+     * restart. Resume cancels draining.
+     */
+    public void drain() {
+        LOGGER.info("Draining {}",migrationConfiguration.getConfigurationName());
+        draining=true;
+    }
+
+    public void resume() {
+        LOGGER.info("Resuming {}",migrationConfiguration.getConfigurationName());
+        paused=false;
+        draining=false;
+        wakeUp();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Returns true if draining, and no jobs are running
+     */
+    public boolean isDrained() {
+        return draining&&migratorThreads.activeCount()==0;
+    }
+
+    /**
+     * Overrides the threadCount of the configuration. Zero or less
+     * removes the override.
+     */
+    public void setThreadCountOverride(int n) {
+        LOGGER.info("Setting thread count of {} to {}",migrationConfiguration.getConfigurationName(),n);
+        threadCountOverride=n;
+        wakeUp();
+    }
+
+    public int getThreadCountOverride() {
+        return threadCountOverride;
+    }
+
+    /**
+     * Returns the maximum number of migrator threads
+     */
+    public int getThreadCount() {
+        int n=threadCountOverride;
+        return n>0?n:migrationConfiguration.getThreadCount();
+    }
+
+    /**
+     * Returns true if the controller can start a new job now
+     */
+    public boolean canStartJob() {
+        return !paused&&!draining&&migratorThreads.activeCount()<getThreadCount();
+    }
+
+    @Override
+    public int getRunningThreads() {
+        return migratorThreads.activeCount();
+    }
+
+    @Override
+    public int getThreadWeight() {
+        return migrationConfiguration.getThreadWeight();
+    }
+
+    /**
+     * Reserves a thread from the thread budget of the controller, if
+     * there is one. Returns false if no thread is available.
+     */
+    private boolean reserveThread() throws InterruptedException {
+        ThreadBudget budget=controller.getThreadBudget();
+        if(budget!=null&&!threadReserved)
+            threadReserved=budget.acquire(this,POLLED_JOB_WAIT_MS);
+        return budget==null||threadReserved;
+    }
+
+    /**
+     * Gives back the reserved thread. Once the migrator thread is
+     * started, the budget counts it through getRunningThreads.
+     */
+    private void releaseThread() {
+        ThreadBudget budget=controller.getThreadBudget();
+        if(budget!=null&&threadReserved)
+            budget.release(this);
+        threadReserved=false;
+    }
+
+    private void wakeUp() {
+        synchronized(migratorThreads) {
+            migratorThreads.notifyAll();
+        }
     }
 
     public ThreadGroup getMigratorThreads() {
         return migratorThreads;
     }
 
+    /**
+     * Returns the fork/join pool shared by the migrators of this
+     * controller to compare documents. The pool is recreated if
+     * comparisonParallelism changes.
+     */
+    public synchronized ForkJoinPool getComparisonPool() {
+        int parallelism=Math.max(1,migrationConfiguration.getComparisonParallelism());
+        if(comparisonPool==null||comparisonPool.getParallelism()!=parallelism) {
+            if(comparisonPool!=null)
+                comparisonPool.shutdown();
+            LOGGER.debug("Creating comparison pool with parallelism {}",parallelism);
+            comparisonPool=new ForkJoinPool(parallelism);
+        }
+        return comparisonPool;
+    }
+
+    private synchronized void shutdownComparisonPool() {
+        if(comparisonPool!=null) {
+            comparisonPool.shutdown();
+            comparisonPool=null;
+        }
+    }
+
     public Controller getController() {
         return controller;
     }
@@ -86,6 +307,45 @@ public class MigratorController extends Thread {
         return migrationConfiguration;
     }
 
+    /**
+     * Sets the configuration, reloaded by the controller
+     */
+    public void setMigrationConfiguration(MigrationConfiguration cfg) {
+        migrationConfiguration=cfg;
+    }
+
+    /**
+     * Called by the job poller with the available jobs of this
+     * configuration. Replaces the jobs of the previous poll.
+     */
+    public void offerJobs(List<MigrationJob> jobs) {
+        synchronized(migratorThreads) {
+            polledJobs=jobs;
+            migratorThreads.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the jobs given by the job poller, waiting for the next
+     * poll if there are none. If the previous poll found jobs, asks the
+     * poller to poll again. Returns null if there are no jobs.
+     */
+    private List<MigrationJob> takePolledJobs(JobPoller poller)
+        throws InterruptedException {
+        synchronized(migratorThreads) {
+            if(polledJobs==null) {
+                if(morePolledJobs)
+                    poller.requestPoll();
+                migratorThreads.wait(POLLED_JOB_WAIT_MS);
+            }
+            List<MigrationJob> jobs=polledJobs;
+            polledJobs=null;
+            if(jobs!=null)
+                morePolledJobs=!jobs.isEmpty();
+            return jobs==null||jobs.isEmpty()?null:jobs;
+        }
+    }
+
     public MigrationConfiguration reloadMigrationConfiguration() {
         try {
             LOGGER.debug("Reloading migration configuration {}",migrationConfiguration.get_id());
@@ -104,6 +364,16 @@ public class MigratorController extends Thread {
      * Retrieves jobs that are available, and their scheduled time has passed. Returns at most batchSize jobs starting at startIndex
      */
     public MigrationJob[] retrieveJobs(int batchSize,int startIndex)
+        throws IOException {
+        return retrieveJobs(batchSize,startIndex,false);
+    }
+
+    /**
+     * Retrieves jobs that are available, and their scheduled time has
+     * passed, oldest first, or largest first if largest is set.
+     * Returns at most batchSize jobs starting at startIndex
+     */
+    private MigrationJob[] retrieveJobs(int batchSize,int startIndex,boolean largest)
         throws IOException {
         LOGGER.debug("Retrieving jobs: batchSize={}, startIndex={}",batchSize,startIndex);
         
@@ -121,8 +391,15 @@ public class MigratorController extends Thread {
                           );
         findRequest.select(includeField("*"));
         
-        // sort by scheduledDate ascending to process oldest jobs first
-        findRequest.sort(new SortCondition("scheduledDate", SortDirection.ASCENDING));
+        if(largest) {
+            findRequest.sort(new SortCondition("estimatedDocumentCount", SortDirection.DESCENDING),
+                             new SortCondition("scheduledDate", SortDirection.ASCENDING));
+        } else {
+            // sort by scheduledDate ascending to process oldest jobs
+            // first, and the largest jobs of the same schedule first
+            findRequest.sort(new SortCondition("scheduledDate", SortDirection.ASCENDING),
+                             new SortCondition("estimatedDocumentCount", SortDirection.DESCENDING));
+        }
         
         findRequest.range(startIndex, startIndex+batchSize-1);
         
@@ -135,6 +412,21 @@ public class MigratorController extends Thread {
      * Attempts to lock a migration job. If successful, return the migration job and the active execution
      */
     private LockRecord lock(MigrationJob mj)
+        throws Exception {
+        FlightRecorder.Event event=FlightRecorderEvents.LOCK.begin();
+        LockRecord lck=null;
+        try {
+            lck=doLock(mj);
+        } finally {
+            event.set("configurationName",migrationConfiguration.getConfigurationName()).
+                set("jobId",mj.get_id()).
+                set("locked",lck!=null).
+                commit();
+        }
+        return lck;
+    }
+
+    private LockRecord doLock(MigrationJob mj)
         throws Exception {
         DataInsertRequest insRequest=new DataInsertRequest("activeExecution",null);
         ActiveExecution ae=new ActiveExecution();
@@ -150,19 +442,24 @@ public class MigratorController extends Thread {
             LOGGER.debug("response:{}",rsp);
             if(rsp.hasError()) {
                 LOGGER.debug("Response has error");
+                metrics.lockFailed();
                 return null;
             }
         } catch (Exception e) {
             LOGGER.debug("Error during insert:{}",e);
+            metrics.lockFailed();
             return null;
         }
         if(rsp.parseModifiedCount()==1) {
             return new LockRecord(mj,rsp.parseProcessed(ActiveExecution.class));
-        } else
+        } else {
+            metrics.lockFailed();
             return null;
+        }
     }
 
     public void unlock(String id) {
+        FlightRecorder.Event event=FlightRecorderEvents.UNLOCK.begin();
         DataDeleteRequest req=new DataDeleteRequest("activeExecution",null);
         req.where(withValue("_id",ExpressionOperation.EQ,id));
         try {
@@ -170,10 +467,13 @@ public class MigratorController extends Thread {
         } catch(Exception e) {
             LOGGER.error("Cannot delete lock {}",id);
         }
+        event.set("configurationName",migrationConfiguration.getConfigurationName()).
+            set("activeExecutionId",id).
+            commit();
         Breakpoint.checkpoint("MigratorController:unlock");
     }
     
-    private LockRecord findAndLockMigrationJob()
+    LockRecord findAndLockMigrationJob()
         throws Exception {
         // We retrieve a batch of migration jobs, and try to lock
         // one of them randomly. This works, because all the jobs
@@ -184,7 +484,15 @@ public class MigratorController extends Thread {
         // to prevent flooding: multiple threads starting at the
         // same time should not try to lock resources in the same
         // order, because one will succeed, and all others will
-        // fail, and they all will try the next entity in line.
+        // fail, and they all will try the next entity in line. With
+        // largest first order, the pick is among the first few
+        // jobs in that order.
+        JobPoller poller=controller.getJobPoller();
+        if(poller!=null) {
+            // The poller retrieves the jobs for all configurations
+            List<MigrationJob> jobs=takePolledJobs(poller);
+            return jobs==null||!reserveThread()?null:lockJob(new ArrayList<>(jobs));
+        }
         int startIndex=0;
         boolean more;
         do {
@@ -193,24 +501,18 @@ public class MigratorController extends Thread {
             if(jobs!=null&&jobs.length>0) {
                 if(jobs.length<JOB_FETCH_BATCH_SIZE)
                     more=false;
+                // Wait for a thread only when there is a job for it
+                if(!reserveThread())
+                    return null;
 
-                List<MigrationJob> jobList=(List<MigrationJob>)Arrays.asList(jobs);
-
-                do {
-                    // Pick a job at random
-                    int jobIndex=rnd.nextInt(jobList.size());
-                    MigrationJob job=jobList.get(jobIndex);
-                    // Try to lock it
-                    LockRecord lck;
-                    if((lck=lock(job))!=null) {
-                        // Locked. Return it
-                        return lck;
-                    } else {
-                        // Can't lock it. Remove from job list
-                        jobList.remove(jobIndex);
-                    }
-                } while(!jobList.isEmpty());
-                
+                List<MigrationJob> jobList=new ArrayList<>(Arrays.asList(jobs));
+                if(startIndex==0&&JobOrder.LARGEST_FIRST.equals(migrationConfiguration.getJobOrder()))
+                    // The largest jobs may not be among the oldest
+                    JobOrder.addJobs(jobList,retrieveJobs(JOB_FETCH_BATCH_SIZE,0,true));
+                LockRecord lck=lockJob(jobList);
+                if(lck!=null)
+                    return lck;
+                startIndex+=jobs.length;
             } else
                 more=false;
         } while(more);
@@ -218,12 +520,134 @@ public class MigratorController extends Thread {
         return null;
     }
 
+    /**
+     * Tries to lock the jobs in the jobOrder of the configuration,
+     * returns the first one locked, or null. Jobs there is not enough
+     * heap for are left for other hosts.
+     */
+    private LockRecord lockJob(List<MigrationJob> jobList)
+        throws Exception {
+        int candidates=jobList.size();
+        if(JobOrder.LARGEST_FIRST.equals(migrationConfiguration.getJobOrder())) {
+            int starvation=migrationConfiguration.getJobStarvationMinutes();
+            JobOrder.sortLargestFirst(jobList,new Date(),
+                                      (starvation>0?starvation:JobOrder.DEFAULT_STARVATION_MINUTES)*60000l,
+                                      (long)memoryEstimator.getDocumentsPerJob(),
+                                      jobsSeen);
+            candidates=JobOrder.LOCK_CANDIDATES;
+        }
+        while(!jobList.isEmpty()) {
+            // Pick a job at random from the candidates
+            int jobIndex=rnd.nextInt(Math.min(candidates,jobList.size()));
+            MigrationJob job=jobList.get(jobIndex);
+            if(!controller.admitJob(estimateJobMemory(job))) {
+                LOGGER.debug("Deferring job {}, not enough heap",job.get_id());
+                metrics.jobDeferred();
+                deferred=true;
+                jobList.remove(jobIndex);
+                continue;
+            }
+            // Try to lock it
+            LockRecord lck;
+            if((lck=lock(job))!=null) {
+                // Locked. Return it
+                return lck;
+            } else {
+                // Can't lock it. Remove from job list
+                jobList.remove(jobIndex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * If incremental sync is configured, and incrementalSyncPeriod
+     * minutes passed between the high-water mark and
+     * incrementalSyncLag seconds before now, creates a job for the
+     * documents whose incrementalSyncField is between
+     * incrementalSyncOverlap seconds before the mark and the lagged
+     * time, and moves the mark to the lagged time. The mark is moved
+     * with a conditional update, so only one controller creates the
+     * job for a period. If there is no mark yet, it is set to the
+     * lagged time only if no other controller set it, earlier changes
+     * are expected to be covered by the bulk jobs.
+     */
+    void syncIncrementalChanges(Date now) {
+        String field=migrationConfiguration.getIncrementalSyncField();
+        int period=migrationConfiguration.getIncrementalSyncPeriod();
+        if(field==null||period<=0)
+            return;
+        Date mark=migrationConfiguration.getIncrementalSyncHighWaterMark();
+        int lag=migrationConfiguration.getIncrementalSyncLag();
+        int overlap=migrationConfiguration.getIncrementalSyncOverlap();
+        Date end=new Date(now.getTime()-(lag>0?lag:DEFAULT_INCREMENTAL_SYNC_LAG_SECONDS)*1000l);
+        if(mark!=null&&end.getTime()-mark.getTime()<period*60000l)
+            return;
+        try {
+            if(!moveHighWaterMark(mark,end)) {
+                LOGGER.debug("High-water mark moved by another controller");
+                MigrationConfiguration x=reloadMigrationConfiguration();
+                if(x!=null)
+                    migrationConfiguration=x;
+                return;
+            }
+            migrationConfiguration.setIncrementalSyncHighWaterMark(end);
+            if(mark==null) {
+                LOGGER.info("Incremental sync starts at {}:{}",end,migrationConfiguration.getConfigurationName());
+                return;
+            }
+            Date start=new Date(mark.getTime()-(overlap>0?overlap:DEFAULT_INCREMENTAL_SYNC_OVERLAP_SECONDS)*1000l);
+            JobGenerator generator=new JobGenerator(lbClient,migrationConfiguration);
+            List<MigrationJob> jobs=new ArrayList<>();
+            for(String query:JobGenerator.getDateRangeQueries(null,field,start,end,end.getTime()-start.getTime()))
+                jobs.add(generator.newJob(query,now));
+            try {
+                generator.createJobs(jobs);
+            } catch (RuntimeException e) {
+                // Give the period back, so it is retried
+                if(moveHighWaterMark(end,mark))
+                    migrationConfiguration.setIncrementalSyncHighWaterMark(mark);
+                throw e;
+            }
+            LOGGER.info("Created incremental sync job for {} - {}:{}",start,end,migrationConfiguration.getConfigurationName());
+            Breakpoint.checkpoint("MigratorController:incrementalSync",null,jobs.size());
+        } catch (Exception e) {
+            LOGGER.error("Cannot create incremental sync job:"+e);
+        }
+    }
+
+    /**
+     * Sets the high-water mark to newMark if it is still oldMark, or
+     * if oldMark is null, if there is no mark. Returns true if the mark
+     * is updated.
+     */
+    private boolean moveHighWaterMark(Date oldMark,Date newMark) {
+        DataUpdateRequest req=new DataUpdateRequest("migrationConfiguration",null);
+        Query markQuery;
+        if(oldMark==null)
+            markQuery=new Query() {
+                    public String toJson() {
+                        return "{\"field\":\"incrementalSyncHighWaterMark\",\"op\":\"=\",\"rvalue\":null}";
+                    }
+                };
+        else
+            markQuery=withValue("incrementalSyncHighWaterMark",ExpressionOperation.EQ,
+                                ClientConstants.getDateFormat().format(oldMark));
+        req.where(and(withValue("_id",ExpressionOperation.EQ,migrationConfiguration.get_id()),markQuery));
+        req.returns(includeField("_id"));
+        req.updates(new SetUpdate(new PathValuePair("incrementalSyncHighWaterMark",
+                                                    new LiteralRValue("\""+ClientConstants.getDateFormat().format(newMark)+"\""))));
+        LightblueResponse rsp=lbClient.data(req);
+        return !rsp.hasError()&&rsp.parseModifiedCount()==1;
+    }
+
     private void processMigrationJob(LockRecord lck)
         throws Exception {
         Migrator migrator=(Migrator)migratorClass.getConstructor(ThreadGroup.class).newInstance(migratorThreads);
         migrator.setController(this);
         migrator.setMigrationJob(lck.mj);
         migrator.setActiveExecution(lck.ae);
+        migrator.setEstimatedMemory(estimateJobMemory(lck.mj));
         migrator.start();
     }
             
@@ -232,6 +656,16 @@ public class MigratorController extends Thread {
         LOGGER.debug("Starting controller thread");
         boolean interrupted=false;
         // This thread never stops
+        metrics.register();
+        ThreadBudget budget=controller.getThreadBudget();
+        if(budget!=null)
+            budget.register(this);
+        inconsistencySink=new InconsistencySink(migrationConfiguration.getConfigurationName(),
+                                                createInconsistencyWriter(),
+                                                InconsistencySink.DEFAULT_CAPACITY,
+                                                InconsistencySink.DEFAULT_BATCH_SIZE,
+                                                migrationConfiguration.getInconsistencyMaxPerSecond());
+        inconsistencySink.start();
         Breakpoint.checkpoint("MigratorController:start");
         while(!interrupted) {
             interrupted=isInterrupted();
@@ -239,16 +673,19 @@ public class MigratorController extends Thread {
                 // All active threads will notify on migratorThreads when they finish
                 synchronized(migratorThreads) {
                     int k=0;
-                    // Are we already running all the threads we can?
-                    while(!interrupted&&migratorThreads.activeCount()>=migrationConfiguration.getThreadCount()) {
+                    // Are we already running all the threads we can,
+                    // or are we paused?
+                    while(!interrupted&&!canStartJob()) {
                         // Wait until someone terminates (1 sec)
                         try {
                             migratorThreads.wait(1000);
                         } catch(InterruptedException e) {
                             interrupted=true;
                         }
-                        if(k++%10==0) {
-                            // refresh configuration every 10 iteration
+                        if(k++%10==0&&controller.getJobPoller()==null) {
+                            // refresh configuration every 10
+                            // iteration, unless the controller
+                            // reloads all configurations
                             MigrationConfiguration x=reloadMigrationConfiguration();
                             if(x==null) {
                                 // Terminate
@@ -262,16 +699,19 @@ public class MigratorController extends Thread {
                 }
             }
             if(!interrupted) {
+                syncIncrementalChanges(new Date());
                 LOGGER.debug("Find a migration job to process");
                 try {
                     Breakpoint.checkpoint("MigratorController:findandlock");
+                    deferred=false;
                     LockRecord lockedJob=findAndLockMigrationJob();
                     if(lockedJob!=null) {
                         LOGGER.debug("Found migration job {}",lockedJob.mj.get_id());
-                        Breakpoint.checkpoint("MigratorController:process");
+                        Breakpoint.checkpoint("MigratorController:process",lockedJob.mj.get_id(),-1);
                         processMigrationJob(lockedJob);
-                    } else {
-                        // No jobs are available, wait a bit (10sec-30sec), and retry
+                    } else if(controller.getJobPoller()==null||deferred) {
+                        // No jobs are available, or not enough heap
+                        // for them, wait a bit (10sec-30sec), and retry
                         LOGGER.debug("Waiting");
                         Thread.sleep(rnd.nextInt(20000)+10000);
                     }
@@ -279,10 +719,17 @@ public class MigratorController extends Thread {
                     interrupted=true;
                 } catch (Exception e) {
                     LOGGER.error("Cannot lock migration job:"+e);
+                } finally {
+                    releaseThread();
                 }
             }
         }
         migratorThreads.interrupt();
+        shutdownComparisonPool();
+        metrics.unregister();
+        if(budget!=null)
+            budget.unregister(this);
+        inconsistencySink.close();
         Breakpoint.checkpoint("MigratorController:end");
         LOGGER.debug("Ending controller thread");
     }
@@ -0,0 +1,399 @@
+package com.redhat.lightblue.migrator;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runtime metrics of a migrator controller and its migrator
+ * threads. An instance is registered as an MBean while the controller
+ * runs, with the name
+ * com.redhat.lightblue.migrator:type=MigratorController,name=&lt;configurationName&gt;
+ */
+public class MigratorMetrics implements MigratorMetricsMBean {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(MigratorMetrics.class);
+
+    public static final String DOMAIN="com.redhat.lightblue.migrator";
+
+    private final String configurationName;
+    private final ThreadGroup migratorThreads;
+
+    private final AtomicLong jobsStarted=new AtomicLong();
+    private final AtomicLong jobsCompleted=new AtomicLong();
+    private final AtomicLong jobsFailed=new AtomicLong();
+    private final AtomicLong jobsSplit=new AtomicLong();
+    private final AtomicLong lockFailures=new AtomicLong();
+    private final AtomicLong jobsDeferred=new AtomicLong();
+    private final Meter documentsFetched=new Meter();
+    private final Meter documentsCompared=new Meter();
+    private final Meter documentsSaved=new Meter();
+    private final LatencyHistogram batchLatency=new LatencyHistogram();
+    private final AtomicLong lastMigratorThreadAllocatedBytes=new AtomicLong();
+    private final AtomicLong maxMigratorThreadAllocatedBytes=new AtomicLong();
+
+    private ObjectName objectName;
+
+    public MigratorMetrics(String configurationName,ThreadGroup migratorThreads) {
+        this.configurationName=configurationName;
+        this.migratorThreads=migratorThreads;
+    }
+
+    /**
+     * Registers this instance with the platform MBean server. Failures
+     * are logged, metrics are still collected.
+     */
+    public synchronized void register() {
+        try {
+            MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+            ObjectName name=new ObjectName(DOMAIN+":type=MigratorController,name="+ObjectName.quote(configurationName));
+            if(server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this,name);
+            objectName=name;
+        } catch (Exception e) {
+            LOGGER.error("Cannot register metrics for {}:{}",configurationName,e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if(objectName!=null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOGGER.debug("Cannot unregister metrics for {}:{}",configurationName,e);
+            }
+            objectName=null;
+        }
+    }
+
+    public void jobStarted() {
+        jobsStarted.incrementAndGet();
+    }
+
+    /**
+     * Counts a finished job by its final status
+     */
+    public void jobFinished(String status) {
+        if(MigrationJob.STATE_COMPLETED.equals(status))
+            jobsCompleted.incrementAndGet();
+        else if(MigrationJob.STATE_SPLIT.equals(status))
+            jobsSplit.incrementAndGet();
+        else
+            jobsFailed.incrementAndGet();
+    }
+
+    /**
+     * Records the bytes allocated by a migrator thread while running a
+     * job. Only the allocations of the migrator thread itself are
+     * counted, not those made for the job by comparison pool or write
+     * executor threads, so this is a lower bound of the job's
+     * allocations when comparisons or writes are parallel.
+     */
+    public void migratorThreadAllocated(long bytes) {
+        if(bytes>=0) {
+            lastMigratorThreadAllocatedBytes.set(bytes);
+            long max;
+            while((max=maxMigratorThreadAllocatedBytes.get())<bytes&&!maxMigratorThreadAllocatedBytes.compareAndSet(max,bytes));
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread so far, or -1
+     * if the JVM does not support measuring it
+     */
+    public static long currentThreadAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean=(com.sun.management.ThreadMXBean)bean;
+            if(sunBean.isThreadAllocatedMemorySupported()&&sunBean.isThreadAllocatedMemoryEnabled())
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public void lockFailed() {
+        lockFailures.incrementAndGet();
+    }
+
+    /**
+     * A job was not started because there was not enough heap for it
+     */
+    public void jobDeferred() {
+        jobsDeferred.incrementAndGet();
+    }
+
+    public void documentsFetched(long n) {
+        documentsFetched.mark(n);
+    }
+
+    public void documentsCompared(long n) {
+        documentsCompared.mark(n);
+    }
+
+    public void documentsSaved(long n) {
+        documentsSaved.mark(n);
+    }
+
+    public void batchCompleted(long millis) {
+        batchLatency.record(millis);
+    }
+
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    @Override
+    public String getConfigurationName() {
+        return configurationName;
+    }
+
+    @Override
+    public long getJobsStarted() {
+        return jobsStarted.get();
+    }
+
+    @Override
+    public long getJobsCompleted() {
+        return jobsCompleted.get();
+    }
+
+    @Override
+    public long getJobsFailed() {
+        return jobsFailed.get();
+    }
+
+    @Override
+    public long getJobsSplit() {
+        return jobsSplit.get();
+    }
+
+    @Override
+    public int getActiveMigratorThreads() {
+        return migratorThreads==null?0:migratorThreads.activeCount();
+    }
+
+    @Override
+    public long getLockFailures() {
+        return lockFailures.get();
+    }
+
+    @Override
+    public long getJobsDeferred() {
+        return jobsDeferred.get();
+    }
+
+    @Override
+    public long getDocumentsFetched() {
+        return documentsFetched.getCount();
+    }
+
+    @Override
+    public long getDocumentsCompared() {
+        return documentsCompared.getCount();
+    }
+
+    @Override
+    public long getDocumentsSaved() {
+        return documentsSaved.getCount();
+    }
+
+    @Override
+    public double getDocumentsFetchedPerSecond() {
+        return documentsFetched.getRate();
+    }
+
+    @Override
+    public double getDocumentsComparedPerSecond() {
+        return documentsCompared.getRate();
+    }
+
+    @Override
+    public double getDocumentsSavedPerSecond() {
+        return documentsSaved.getRate();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchLatency.getCount();
+    }
+
+    @Override
+    public double getBatchLatencyMean() {
+        return batchLatency.getMean();
+    }
+
+    @Override
+    public long getBatchLatencyMax() {
+        return batchLatency.getMax();
+    }
+
+    @Override
+    public long getBatchLatency50thPercentile() {
+        return batchLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getBatchLatency95thPercentile() {
+        return batchLatency.getPercentile(0.95);
+    }
+
+    @Override
+    public long getBatchLatency99thPercentile() {
+        return batchLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long[] getBatchLatencyBuckets() {
+        return LatencyHistogram.BUCKETS.clone();
+    }
+
+    @Override
+    public long[] getBatchLatencyBucketCounts() {
+        return batchLatency.getBucketCounts();
+    }
+
+    @Override
+    public long getLastMigratorThreadAllocatedBytes() {
+        return lastMigratorThreadAllocatedBytes.get();
+    }
+
+    @Override
+    public long getMaxMigratorThreadAllocatedBytes() {
+        return maxMigratorThreadAllocatedBytes.get();
+    }
+
+    /**
+     * Counts events, and keeps a one minute exponentially weighted
+     * moving average of the event rate, updated every 5 seconds
+     */
+    public static final class Meter {
+        private static final long TICK_NANOS=TimeUnit.SECONDS.toNanos(5);
+        private static final double ALPHA=1-Math.exp(-5.0/60.0);
+
+        private final AtomicLong count=new AtomicLong();
+        private final AtomicLong uncounted=new AtomicLong();
+        private final AtomicLong lastTick=new AtomicLong(System.nanoTime());
+        private volatile double rate;
+        private volatile boolean initialized;
+
+        public void mark(long n) {
+            tickIfNecessary();
+            count.addAndGet(n);
+            uncounted.addAndGet(n);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Events per second
+         */
+        public double getRate() {
+            tickIfNecessary();
+            return rate;
+        }
+
+        private void tickIfNecessary() {
+            long old=lastTick.get();
+            long now=System.nanoTime();
+            long age=now-old;
+            if(age>TICK_NANOS&&lastTick.compareAndSet(old,now-age%TICK_NANOS)) {
+                for(long i=age/TICK_NANOS;i>0;i--)
+                    tick();
+            }
+        }
+
+        private synchronized void tick() {
+            double instantRate=uncounted.getAndSet(0)/5.0;
+            if(initialized) {
+                rate+=ALPHA*(instantRate-rate);
+            } else {
+                rate=instantRate;
+                initialized=true;
+            }
+        }
+    }
+
+    /**
+     * A latency histogram with fixed bucket upper bounds in
+     * milliseconds. The last bucket counts latencies above the largest
+     * bound.
+     */
+    public static final class LatencyHistogram {
+        public static final long[] BUCKETS={1,2,5,10,20,50,100,200,500,1000,2000,5000,10000,30000,60000};
+
+        private final AtomicLongArray counts=new AtomicLongArray(BUCKETS.length+1);
+        private final AtomicLong count=new AtomicLong();
+        private final AtomicLong sum=new AtomicLong();
+        private final AtomicLong max=new AtomicLong();
+
+        public void record(long millis) {
+            int i=0;
+            while(i<BUCKETS.length&&millis>BUCKETS[i])
+                i++;
+            counts.incrementAndGet(i);
+            count.incrementAndGet();
+            sum.addAndGet(millis);
+            long m;
+            while((m=max.get())<millis&&!max.compareAndSet(m,millis));
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n=count.get();
+            return n==0?0:(double)sum.get()/n;
+        }
+
+        /**
+         * Returns the counts of each bucket. The array has one more
+         * element than BUCKETS, for latencies above the largest bound.
+         */
+        public long[] getBucketCounts() {
+            long[] ret=new long[counts.length()];
+            for(int i=0;i<ret.length;i++)
+                ret[i]=counts.get(i);
+            return ret;
+        }
+
+        /**
+         * Returns the upper bound of the bucket containing the q'th
+         * quantile, or the maximum if it is in the last bucket
+         */
+        public long getPercentile(double q) {
+            long[] c=getBucketCounts();
+            long total=0;
+            for(long x:c)
+                total+=x;
+            if(total==0)
+                return 0;
+            long rank=(long)Math.ceil(q*total);
+            long cumulative=0;
+            for(int i=0;i<c.length;i++) {
+                cumulative+=c[i];
+                if(cumulative>=rank)
+                    return i<BUCKETS.length?Math.min(BUCKETS[i],max.get()):max.get();
+            }
+            return max.get();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.redhat.lightblue.migrator;
+
+/**
+ * JMX view of the metrics of a migrator controller. Rates are one
+ * minute exponentially weighted moving averages in documents per
+ * second. Latencies are in milliseconds.
+ */
+public interface MigratorMetricsMBean {
+
+    String getConfigurationName();
+
+    long getJobsStarted();
+
+    long getJobsCompleted();
+
+    long getJobsFailed();
+
+    long getJobsSplit();
+
+    int getActiveMigratorThreads();
+
+    long getLockFailures();
+
+    long getJobsDeferred();
+
+    long getDocumentsFetched();
+
+    long getDocumentsCompared();
+
+    long getDocumentsSaved();
+
+    double getDocumentsFetchedPerSecond();
+
+    double getDocumentsComparedPerSecond();
+
+    double getDocumentsSavedPerSecond();
+
+    long getBatchCount();
+
+    double getBatchLatencyMean();
+
+    long getBatchLatencyMax();
+
+    long getBatchLatency50thPercentile();
+
+    long getBatchLatency95thPercentile();
+
+    long getBatchLatency99thPercentile();
+
+    long[] getBatchLatencyBuckets();
+
+    long[] getBatchLatencyBucketCounts();
+
+    long getLastMigratorThreadAllocatedBytes();
+
+    long getMaxMigratorThreadAllocatedBytes();
+}
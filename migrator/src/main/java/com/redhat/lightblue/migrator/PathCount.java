@@ -0,0 +1,38 @@
+package com.redhat.lightblue.migrator;
+
+/**
+ * Number of inconsistent documents for a path
+ */
+public class PathCount {
+
+    private String path;
+    private long count;
+
+    public PathCount() {}
+
+    public PathCount(String path,long count) {
+        this.path=path;
+        this.count=count;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String s) {
+        path=s;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long n) {
+        count=n;
+    }
+
+    @Override
+    public String toString() {
+        return path+"="+count;
+    }
+}
@@ -0,0 +1,138 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Counts inconsistent documents per path. Counters are mutable
+ * longs in a hash map, so counting a known path does not allocate. At
+ * most maxPaths distinct paths are kept, documents with further paths
+ * are counted under OTHER_PATHS. Not thread safe.
+ */
+public class PathHistogram {
+
+    public static final int DEFAULT_MAX_PATHS=1000;
+    public static final String OTHER_PATHS="(other)";
+
+    private static final Comparator<PathCount> DESCENDING=new Comparator<PathCount>() {
+        @Override
+        public int compare(PathCount x,PathCount y) {
+            if(x.getCount()!=y.getCount())
+                return x.getCount()>y.getCount()?-1:1;
+            return x.getPath().compareTo(y.getPath());
+        }
+    };
+
+    private final Map<String,long[]> counts=new HashMap<>();
+    private final int maxPaths;
+    private long documentCount;
+
+    public PathHistogram(int maxPaths) {
+        this.maxPaths=maxPaths;
+    }
+
+    public PathHistogram() {
+        this(DEFAULT_MAX_PATHS);
+    }
+
+    public void add(String path,long n) {
+        if(!addPath(path,n))
+            addPath(OTHER_PATHS,n);
+    }
+
+    /**
+     * Adds n to the count of the path. Returns false if the path is
+     * not counted because there are maxPaths paths already.
+     */
+    private boolean addPath(String path,long n) {
+        long[] c=counts.get(path);
+        if(c==null) {
+            if(counts.size()>=maxPaths&&!OTHER_PATHS.equals(path))
+                return false;
+            counts.put(path,c=new long[1]);
+        }
+        c[0]+=n;
+        return true;
+    }
+
+    /**
+     * Counts one inconsistent document. A path listed more than once
+     * for the document, such as a path in an array, is counted once.
+     * If paths of the document are not counted because there are
+     * maxPaths paths already, the document is counted once under
+     * OTHER_PATHS.
+     */
+    public void addDocument(Collection<String> paths) {
+        documentCount++;
+        if(paths.size()==1) {
+            add(paths.iterator().next(),1);
+        } else {
+            boolean other=false;
+            for(String path:new HashSet<>(paths))
+                if(!addPath(path,1))
+                    other=true;
+            if(other)
+                addPath(OTHER_PATHS,1);
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram. Paths that do not fit
+     * are added to OTHER_PATHS, so a document may be counted there
+     * more than once.
+     */
+    public void merge(PathHistogram h) {
+        documentCount+=h.documentCount;
+        for(Map.Entry<String,long[]> entry:h.counts.entrySet())
+            add(entry.getKey(),entry.getValue()[0]);
+    }
+
+    public long getCount(String path) {
+        long[] c=counts.get(path);
+        return c==null?0:c[0];
+    }
+
+    /**
+     * Number of documents counted
+     */
+    public long getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Number of distinct paths
+     */
+    public int size() {
+        return counts.size();
+    }
+
+    /**
+     * Returns the n paths with the most inconsistent documents, in
+     * descending order of count
+     */
+    public List<PathCount> getTop(int n) {
+        if(n<=0)
+            return new ArrayList<>();
+        PriorityQueue<PathCount> top=new PriorityQueue<>(n+1,Collections.reverseOrder(DESCENDING));
+        for(Map.Entry<String,long[]> entry:counts.entrySet()) {
+            top.add(new PathCount(entry.getKey(),entry.getValue()[0]));
+            if(top.size()>n)
+                top.poll();
+        }
+        List<PathCount> list=new ArrayList<>(top);
+        Collections.sort(list,DESCENDING);
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return getTop(counts.size()).toString();
+    }
+}
@@ -0,0 +1,342 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+
+/**
+ * Compares two documents by reading their token streams side by
+ * side. The result is the same list of inconsistent paths as
+ * DefaultMigrator.compareDocs returns, with the same handling of
+ * excluded paths, but no trees are built for matching parts of the
+ * documents.
+ *
+ * Fields of the source document are looked up in the destination
+ * document by name. As long as the destination fields come in the
+ * same order, both documents are streamed. When they don't, the
+ * remaining fields of that destination object are read into a tree,
+ * and the comparison continues with those.
+ *
+ * Scalars of the same type are compared in place, and the path of a
+ * value is kept in a buffer that is turned into a string only when
+ * the value doesn't match, so matching parts of the documents are
+ * compared without allocating. Instances keep no state between
+ * calls, and can be shared by threads.
+ */
+public class StreamingDocComparator {
+
+    private static final ObjectMapper MAPPER=new ObjectMapper();
+
+    private final List<String> exclusionPaths;
+
+    public StreamingDocComparator(List<String> exclusionPaths) {
+        this.exclusionPaths=exclusionPaths==null||exclusionPaths.isEmpty()?null:exclusionPaths;
+    }
+
+    /**
+     * Compares the documents. Both parsers must be positioned before,
+     * or at, the first token of the document.
+     *
+     * @return list of inconsistent paths
+     */
+    public List<String> compare(JsonParser source,JsonParser dest) throws IOException {
+        List<String> inconsistentPaths=new ArrayList<>();
+        if(source.getCurrentToken()==null)
+            source.nextToken();
+        if(dest.getCurrentToken()==null)
+            dest.nextToken();
+        compare(inconsistentPaths,source,dest,new StringBuilder());
+        return inconsistentPaths;
+    }
+
+    private boolean isExcluded(StringBuilder path) {
+        if(exclusionPaths!=null&&path.length()>0)
+            for(String x:exclusionPaths)
+                if(x.contentEquals(path))
+                    return true;
+        return false;
+    }
+
+    private static String pathOrRoot(StringBuilder path) {
+        return path.length()==0?"*":path.toString();
+    }
+
+    /**
+     * Appends a field to the path, and returns the length of the path
+     * before it, to be restored using setLength
+     */
+    private static int pushField(StringBuilder path,String field) {
+        int length=path.length();
+        if(length>0)
+            path.append('.');
+        path.append(field);
+        return length;
+    }
+
+    /**
+     * Removes inconsistent paths added after mark
+     */
+    private static void truncate(List<String> inconsistentPaths,int mark) {
+        while(inconsistentPaths.size()>mark)
+            inconsistentPaths.remove(inconsistentPaths.size()-1);
+    }
+
+    /**
+     * Compares the values at the current tokens. On return, both
+     * parsers are at the last token of their values.
+     */
+    private void compare(List<String> inconsistentPaths,JsonParser source,JsonParser dest,StringBuilder path)
+        throws IOException {
+        if(isExcluded(path)) {
+            source.skipChildren();
+            dest.skipChildren();
+            return;
+        }
+        JsonToken s=source.getCurrentToken();
+        JsonToken d=dest.getCurrentToken();
+        if(s==JsonToken.START_ARRAY) {
+            if(d!=JsonToken.START_ARRAY) {
+                inconsistentPaths.add(pathOrRoot(path));
+                source.skipChildren();
+                dest.skipChildren();
+                return;
+            }
+            // Element results are only valid if arrays have the same size
+            int mark=inconsistentPaths.size();
+            JsonToken ds=dest.nextToken();
+            JsonToken ss=source.nextToken();
+            while(ss!=JsonToken.END_ARRAY&&ds!=JsonToken.END_ARRAY) {
+                compare(inconsistentPaths,source,dest,path);
+                ss=source.nextToken();
+                ds=dest.nextToken();
+            }
+            if(ss!=JsonToken.END_ARRAY||ds!=JsonToken.END_ARRAY) {
+                truncate(inconsistentPaths,mark);
+                inconsistentPaths.add(pathOrRoot(path));
+                if(ss!=JsonToken.END_ARRAY)
+                    skipToEnd(source);
+                if(ds!=JsonToken.END_ARRAY)
+                    skipToEnd(dest);
+            }
+        } else if(s==JsonToken.START_OBJECT) {
+            if(d!=JsonToken.START_OBJECT) {
+                inconsistentPaths.add(pathOrRoot(path));
+                source.skipChildren();
+                dest.skipChildren();
+                return;
+            }
+            compareObject(inconsistentPaths,source,dest,path);
+        } else if(d==JsonToken.START_OBJECT||d==JsonToken.START_ARRAY) {
+            // Containers have empty text
+            dest.skipChildren();
+            if(!scalarText(source).isEmpty())
+                inconsistentPaths.add(pathOrRoot(path));
+        } else if(!scalarEquals(source,dest)) {
+            inconsistentPaths.add(pathOrRoot(path));
+        }
+    }
+
+    /**
+     * Compares objects, both parsers are at START_OBJECT
+     */
+    private void compareObject(List<String> inconsistentPaths,JsonParser source,JsonParser dest,StringBuilder path)
+        throws IOException {
+        JsonToken d=dest.nextToken();
+        while(source.nextToken()==JsonToken.FIELD_NAME) {
+            String field=source.getCurrentName();
+            source.nextToken();
+            if(d==JsonToken.FIELD_NAME&&field.equals(dest.getCurrentName())) {
+                dest.nextToken();
+                int length=pushField(path,field);
+                compare(inconsistentPaths,source,dest,path);
+                path.setLength(length);
+                d=dest.nextToken();
+            } else {
+                // Field order differs, or the destination has extra
+                // fields. Read the rest of the destination object, and
+                // compare using trees
+                Map<String,JsonNode> rest=readRemainingFields(dest,d);
+                int length=pushField(path,field);
+                compareWithTree(inconsistentPaths,source,rest.get(field),path);
+                path.setLength(length);
+                while(source.nextToken()==JsonToken.FIELD_NAME) {
+                    field=source.getCurrentName();
+                    source.nextToken();
+                    length=pushField(path,field);
+                    compareWithTree(inconsistentPaths,source,rest.get(field),path);
+                    path.setLength(length);
+                }
+                return;
+            }
+        }
+        // Skip remaining destination fields
+        while(d==JsonToken.FIELD_NAME) {
+            dest.nextToken();
+            dest.skipChildren();
+            d=dest.nextToken();
+        }
+    }
+
+    /**
+     * Reads the remaining fields of the current destination object
+     * into a map. d is the current token of the destination parser,
+     * which must be a field name or the end of the object.
+     */
+    private Map<String,JsonNode> readRemainingFields(JsonParser dest,JsonToken d) throws IOException {
+        Map<String,JsonNode> fields=new HashMap<>();
+        while(d==JsonToken.FIELD_NAME) {
+            String name=dest.getCurrentName();
+            dest.nextToken();
+            fields.put(name,(JsonNode)MAPPER.readTree(dest));
+            d=dest.nextToken();
+        }
+        return fields;
+    }
+
+    /**
+     * Compares the value at the current source token with a
+     * destination tree, with the same rules as the tree comparison
+     */
+    private void compareWithTree(List<String> inconsistentPaths,JsonParser source,JsonNode dest,StringBuilder path)
+        throws IOException {
+        if(isExcluded(path)) {
+            source.skipChildren();
+            return;
+        }
+        if(dest==null) {
+            inconsistentPaths.add(pathOrRoot(path));
+            source.skipChildren();
+            return;
+        }
+        JsonToken s=source.getCurrentToken();
+        if(s==JsonToken.START_ARRAY) {
+            if(!JsonNodeType.ARRAY.equals(dest.getNodeType())) {
+                inconsistentPaths.add(pathOrRoot(path));
+                source.skipChildren();
+                return;
+            }
+            ArrayNode destArray=(ArrayNode)dest;
+            int mark=inconsistentPaths.size();
+            int i=0;
+            while(source.nextToken()!=JsonToken.END_ARRAY) {
+                if(i<destArray.size())
+                    compareWithTree(inconsistentPaths,source,destArray.get(i),path);
+                else
+                    source.skipChildren();
+                i++;
+            }
+            if(i!=destArray.size()) {
+                truncate(inconsistentPaths,mark);
+                inconsistentPaths.add(pathOrRoot(path));
+            }
+        } else if(s==JsonToken.START_OBJECT) {
+            if(!JsonNodeType.OBJECT.equals(dest.getNodeType())) {
+                inconsistentPaths.add(pathOrRoot(path));
+                source.skipChildren();
+                return;
+            }
+            while(source.nextToken()==JsonToken.FIELD_NAME) {
+                String field=source.getCurrentName();
+                source.nextToken();
+                int length=pushField(path,field);
+                compareWithTree(inconsistentPaths,source,dest.get(field),path);
+                path.setLength(length);
+            }
+        } else if(!scalarText(source).equals(dest.asText())) {
+            inconsistentPaths.add(pathOrRoot(path));
+        }
+    }
+
+    /**
+     * Skips to the END_ARRAY of the array the parser is in. The
+     * parser must be at the first token of an element.
+     */
+    private static void skipToEnd(JsonParser parser) throws IOException {
+        do {
+            parser.skipChildren();
+        } while(parser.nextToken()!=JsonToken.END_ARRAY);
+    }
+
+    /**
+     * Returns true if the scalars at the current tokens have the same
+     * text, as returned by scalarText. Values of the same type are
+     * compared without building their text.
+     */
+    private static boolean scalarEquals(JsonParser source,JsonParser dest) throws IOException {
+        JsonToken s=source.getCurrentToken();
+        if(s==dest.getCurrentToken()) {
+            switch(s) {
+            case VALUE_STRING:
+                return textEquals(source,dest);
+            case VALUE_NUMBER_INT:
+                // Integer text is canonical, so equal values have equal text
+                if(source.getNumberType()!=JsonParser.NumberType.BIG_INTEGER&&
+                   dest.getNumberType()!=JsonParser.NumberType.BIG_INTEGER)
+                    return source.getLongValue()==dest.getLongValue();
+                break;
+            case VALUE_NUMBER_FLOAT:
+                // Same as comparing Double.toString, 0.0 and -0.0 differ
+                return Double.doubleToLongBits(source.getDoubleValue())==
+                    Double.doubleToLongBits(dest.getDoubleValue());
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+            case VALUE_NULL:
+                return true;
+            default:
+                break;
+            }
+        }
+        return scalarText(source).equals(scalarText(dest));
+    }
+
+    private static boolean textEquals(JsonParser source,JsonParser dest) throws IOException {
+        int length=source.getTextLength();
+        if(length!=dest.getTextLength())
+            return false;
+        char[] s=source.getTextCharacters();
+        int sOffset=source.getTextOffset();
+        char[] d=dest.getTextCharacters();
+        int dOffset=dest.getTextOffset();
+        for(int i=0;i<length;i++)
+            if(s[sOffset+i]!=d[dOffset+i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the text of a scalar value, the same way JsonNode.asText()
+     * does for the node that would be built from it
+     */
+    private static String scalarText(JsonParser parser) throws IOException {
+        switch(parser.getCurrentToken()) {
+        case VALUE_NUMBER_INT:
+            switch(parser.getNumberType()) {
+            case INT: return Integer.toString(parser.getIntValue());
+            case LONG: return Long.toString(parser.getLongValue());
+            default: return parser.getBigIntegerValue().toString();
+            }
+        case VALUE_NUMBER_FLOAT:
+            return Double.toString(parser.getDoubleValue());
+        case VALUE_TRUE:
+            return "true";
+        case VALUE_FALSE:
+            return "false";
+        case VALUE_NULL:
+            return "null";
+        case VALUE_EMBEDDED_OBJECT:
+            Object o=parser.getEmbeddedObject();
+            return o==null?"null":o.toString();
+        default:
+            return parser.getText();
+        }
+    }
+}
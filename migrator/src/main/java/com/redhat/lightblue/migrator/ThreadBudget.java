@@ -0,0 +1,175 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of migrator threads of all configurations run by
+ * a controller, and shares them between configurations by weight.
+ *
+ * A member that has a job to start asks for a thread. It gets one if
+ * the budget is not used up, and no other member waiting for a thread
+ * has fewer running threads relative to its weight. Members that are
+ * not waiting do not hold back the others, so threads unused by an
+ * idle configuration go to the busy ones.
+ *
+ * A granted thread is reserved until the member starts it, and then
+ * counted through the running threads of the member. So threads that
+ * end are given back without explicit release.
+ */
+public class ThreadBudget {
+
+    private static final Logger LOGGER=LoggerFactory.getLogger(ThreadBudget.class);
+
+    /**
+     * Members don't notify when their threads end, so waiting members
+     * look again this often
+     */
+    public static final long CHECK_INTERVAL_MS=1000l;
+
+    /**
+     * A user of the budget
+     */
+    public interface Member {
+        /**
+         * Returns the number of running threads of this member
+         */
+        int getRunningThreads();
+
+        /**
+         * Returns the weight of this member. Values less than 1 are
+         * taken as 1.
+         */
+        int getThreadWeight();
+    }
+
+    private final int budget;
+    private final Set<Member> members=new HashSet<>();
+    private final Set<Member> waiting=new HashSet<>();
+    private final Map<Member,Integer> reserved=new HashMap<>();
+
+    public ThreadBudget(int budget) {
+        this.budget=budget;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    public synchronized void register(Member m) {
+        members.add(m);
+    }
+
+    public synchronized void unregister(Member m) {
+        members.remove(m);
+        waiting.remove(m);
+        reserved.remove(m);
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of threads running or reserved by all members
+     */
+    public synchronized int getUsed() {
+        int n=0;
+        for(Member m:members)
+            n+=getUsed(m);
+        return n;
+    }
+
+    /**
+     * Returns the number of threads running or reserved by a member
+     */
+    public synchronized int getUsed(Member m) {
+        Integer r=reserved.get(m);
+        return m.getRunningThreads()+(r==null?0:r);
+    }
+
+    /**
+     * The share of the member if it gets one more thread
+     */
+    private double nextShare(Member m) {
+        return (getUsed(m)+1.0)/Math.max(1,m.getThreadWeight());
+    }
+
+    /**
+     * Reserves a thread for the member if it is its turn. If not, the
+     * member is waiting until it reserves a thread, or cancels.
+     */
+    public synchronized boolean tryAcquire(Member m) {
+        if(members.contains(m)&&getUsed()<budget) {
+            double share=nextShare(m);
+            boolean turn=true;
+            for(Member x:waiting)
+                if(x!=m&&nextShare(x)<share) {
+                    turn=false;
+                    break;
+                }
+            if(turn) {
+                waiting.remove(m);
+                Integer r=reserved.get(m);
+                reserved.put(m,r==null?1:r+1);
+                return true;
+            }
+        }
+        waiting.add(m);
+        return false;
+    }
+
+    /**
+     * Waits at most timeout msecs to reserve a thread. Returns false
+     * if no thread is reserved.
+     */
+    public synchronized boolean acquire(Member m,long timeout) throws InterruptedException {
+        long until=System.currentTimeMillis()+timeout;
+        try {
+            while(!tryAcquire(m)) {
+                long now=System.currentTimeMillis();
+                if(now>=until) {
+                    LOGGER.debug("No thread in budget, used={}/{}",getUsed(),budget);
+                    cancel(m);
+                    return false;
+                }
+                wait(Math.min(until-now,CHECK_INTERVAL_MS));
+            }
+        } catch (InterruptedException e) {
+            cancel(m);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Stops waiting for a thread
+     */
+    public synchronized void cancel(Member m) {
+        if(waiting.remove(m))
+            notifyAll();
+    }
+
+    /**
+     * Removes a reservation, either because the member started the
+     * thread and counts it as running, or because the member did not
+     * need it after all
+     */
+    public synchronized void release(Member m) {
+        Integer r=reserved.get(m);
+        if(r!=null) {
+            if(r>1)
+                reserved.put(m,r-1);
+            else
+                reserved.remove(m);
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "used="+getUsed()+" budget="+budget+" waiting="+waiting.size();
+    }
+}
@@ -0,0 +1,54 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts requests and bytes exchanged with lightblue. Raw byte counts
+ * are the sizes of the request and response bodies, wire byte counts
+ * are the sizes actually transferred, which are smaller if the bodies
+ * are compressed.
+ */
+public class TrafficStats {
+
+    private final AtomicLong requestCount=new AtomicLong();
+    private final AtomicLong rawBytesSent=new AtomicLong();
+    private final AtomicLong wireBytesSent=new AtomicLong();
+    private final AtomicLong rawBytesReceived=new AtomicLong();
+    private final AtomicLong wireBytesReceived=new AtomicLong();
+
+    public void addRequest(long rawSent,long wireSent,long rawReceived,long wireReceived) {
+        requestCount.incrementAndGet();
+        rawBytesSent.addAndGet(rawSent);
+        wireBytesSent.addAndGet(wireSent);
+        rawBytesReceived.addAndGet(rawReceived);
+        wireBytesReceived.addAndGet(wireReceived);
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getRawBytesSent() {
+        return rawBytesSent.get();
+    }
+
+    public long getWireBytesSent() {
+        return wireBytesSent.get();
+    }
+
+    public long getRawBytesReceived() {
+        return rawBytesReceived.get();
+    }
+
+    public long getWireBytesReceived() {
+        return wireBytesReceived.get();
+    }
+
+    public String toString() {
+        return "requests="+requestCount+
+            " rawBytesSent="+rawBytesSent+
+            " wireBytesSent="+wireBytesSent+
+            " rawBytesReceived="+rawBytesReceived+
+            " wireBytesReceived="+wireBytesReceived;
+    }
+}
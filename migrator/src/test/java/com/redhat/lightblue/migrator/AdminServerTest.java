@@ -0,0 +1,34 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdminServerTest {
+
+    @Test
+    public void prometheusFormat() {
+        MigratorMetrics m=new MigratorMetrics("cfg\"1",null);
+        m.jobStarted();
+        m.batchCompleted(3);
+        m.batchCompleted(100000);
+        String s=AdminServer.formatMetrics(Arrays.asList(m));
+        Assert.assertTrue(s.contains("# TYPE lightblue_migrator_jobs_started_total counter\n"));
+        Assert.assertTrue(s.contains("lightblue_migrator_jobs_started_total{configuration=\"cfg\\\"1\"} 1\n"));
+        Assert.assertTrue(s.contains("lightblue_migrator_batch_latency_seconds_bucket{configuration=\"cfg\\\"1\",le=\"0.002\"} 0\n"));
+        Assert.assertTrue(s.contains("lightblue_migrator_batch_latency_seconds_bucket{configuration=\"cfg\\\"1\",le=\"0.005\"} 1\n"));
+        Assert.assertTrue(s.contains("lightblue_migrator_batch_latency_seconds_bucket{configuration=\"cfg\\\"1\",le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(s.contains("lightblue_migrator_batch_latency_seconds_count{configuration=\"cfg\\\"1\"} 2\n"));
+    }
+
+    @Test
+    public void parseQuery() throws Exception {
+        Map<String,String> map=AdminServer.parseQuery("name=a%20b&count=3&x");
+        Assert.assertEquals("a b",map.get("name"));
+        Assert.assertEquals("3",map.get("count"));
+        Assert.assertEquals("",map.get("x"));
+        Assert.assertTrue(AdminServer.parseQuery(null).isEmpty());
+    }
+}
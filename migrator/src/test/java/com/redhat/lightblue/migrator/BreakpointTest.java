@@ -0,0 +1,45 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BreakpointTest {
+
+    @Test
+    public void listenersReceiveCheckpoints() {
+        final List<CheckpointEvent> events=new ArrayList<>();
+        CheckpointListener listener=new CheckpointListener() {
+                @Override
+                public void checkpoint(CheckpointEvent event) {
+                    events.add(event);
+                }
+            };
+        CheckpointListener failing=new CheckpointListener() {
+                @Override
+                public void checkpoint(CheckpointEvent event) {
+                    throw new RuntimeException("ignored");
+                }
+            };
+        Breakpoint.addListener(failing);
+        Breakpoint.addListener(listener);
+        try {
+            Breakpoint.checkpoint("BreakpointTest:a","job1",10);
+            Breakpoint.checkpoint("BreakpointTest:b");
+        } finally {
+            Breakpoint.removeListener(listener);
+            Breakpoint.removeListener(failing);
+        }
+        Breakpoint.checkpoint("BreakpointTest:c");
+        Assert.assertEquals(2,events.size());
+        Assert.assertEquals("BreakpointTest:a",events.get(0).getName());
+        Assert.assertEquals("job1",events.get(0).getJobId());
+        Assert.assertEquals(10,events.get(0).getCount());
+        Assert.assertSame(Thread.currentThread(),events.get(0).getThread());
+        Assert.assertNull(events.get(1).getJobId());
+        Assert.assertEquals(-1,events.get(1).getCount());
+        Assert.assertTrue(events.get(1).getNanoTime()>=events.get(0).getNanoTime());
+    }
+}
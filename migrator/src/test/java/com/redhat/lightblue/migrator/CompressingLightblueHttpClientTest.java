@@ -0,0 +1,149 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.commons.io.IOUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import com.redhat.lightblue.client.LightblueClientConfiguration;
+import com.redhat.lightblue.client.expression.query.Query;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+
+public class CompressingLightblueHttpClientTest {
+
+    private static final String RESPONSE="{\"status\":\"COMPLETE\",\"modifiedCount\":0,\"matchCount\":1,\"processed\":[{\"_id\":\"1\",\"name\":\"x\"}]}";
+
+    private HttpServer server;
+    private String requestEncoding;
+    private String requestBody;
+    private final Set<Integer> clientPorts=Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void startServer() throws Exception {
+        server=HttpServer.create(new InetSocketAddress("127.0.0.1",0),0);
+        server.createContext("/",new HttpHandler() {
+                public void handle(HttpExchange x) throws java.io.IOException {
+                    clientPorts.add(x.getRemoteAddress().getPort());
+                    requestEncoding=x.getRequestHeaders().getFirst("Content-Encoding");
+                    InputStream in=x.getRequestBody();
+                    if("gzip".equals(requestEncoding))
+                        in=new GZIPInputStream(in);
+                    requestBody=IOUtils.toString(in,"UTF-8");
+
+                    ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+                    try (GZIPOutputStream out=new GZIPOutputStream(bytes)) {
+                        out.write(RESPONSE.getBytes("UTF-8"));
+                    }
+                    x.getResponseHeaders().add("Content-Type","application/json");
+                    x.getResponseHeaders().add("Content-Encoding","gzip");
+                    x.sendResponseHeaders(200,bytes.size());
+                    try (OutputStream out=x.getResponseBody()) {
+                        out.write(bytes.toByteArray());
+                    }
+                }
+            });
+        server.createContext("/slow",new HttpHandler() {
+                public void handle(HttpExchange x) throws java.io.IOException {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException e) {}
+                    x.sendResponseHeaders(200,0);
+                    x.close();
+                }
+            });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private CompressingLightblueHttpClient getClient(String path,int threshold,int readTimeout,TrafficStats stats) {
+        LightblueClientConfiguration config=new LightblueClientConfiguration();
+        config.setDataServiceURI("http://127.0.0.1:"+server.getAddress().getPort()+path);
+        return new CompressingLightblueHttpClient(config,threshold,1000,readTimeout,stats);
+    }
+
+    private CompressingLightblueHttpClient getClient(int threshold,TrafficStats stats) {
+        return getClient("/data",threshold,CompressingLightblueHttpClient.DEFAULT_READ_TIMEOUT_MS,stats);
+    }
+
+    private DataFindRequest getRequest(final String query) {
+        DataFindRequest req=new DataFindRequest("test","1.0.0");
+        req.where(new Query() {
+                public String toJson() {
+                    return query;
+                }
+            });
+        return req;
+    }
+
+    private String getLargeQuery() {
+        StringBuilder bld=new StringBuilder("{\"$or\":[");
+        for(int i=0;i<500;i++) {
+            if(i>0)
+                bld.append(',');
+            bld.append("{\"field\":\"_id\",\"op\":\"=\",\"rvalue\":\"").append(i).append("\"}");
+        }
+        return bld.append("]}").toString();
+    }
+
+    @Test
+    public void compressedRequestAndResponse() throws Exception {
+        TrafficStats stats=new TrafficStats();
+        String query=getLargeQuery();
+        JsonNode[] docs=getClient(1024,stats).data(getRequest(query),JsonNode[].class);
+
+        Assert.assertEquals("gzip",requestEncoding);
+        Assert.assertTrue(requestBody.contains(query));
+        Assert.assertEquals(1,docs.length);
+        Assert.assertEquals("x",docs[0].get("name").asText());
+
+        Assert.assertEquals(1,stats.getRequestCount());
+        Assert.assertTrue(stats.getWireBytesSent()<stats.getRawBytesSent());
+        Assert.assertEquals(RESPONSE.getBytes("UTF-8").length,stats.getRawBytesReceived());
+        Assert.assertTrue(stats.getWireBytesReceived()>0);
+    }
+
+    @Test
+    public void smallRequestNotCompressed() throws Exception {
+        TrafficStats stats=new TrafficStats();
+        getClient(1024,stats).data(getRequest("{\"field\":\"_id\",\"op\":\"=\",\"rvalue\":\"1\"}"));
+
+        Assert.assertNull(requestEncoding);
+        Assert.assertEquals(stats.getRawBytesSent(),stats.getWireBytesSent());
+    }
+
+    @Test
+    public void connectionsAreReused() throws Exception {
+        CompressingLightblueHttpClient cli=getClient(1024,null);
+        for(int i=0;i<3;i++)
+            Assert.assertEquals(1,cli.data(getRequest("{}"),JsonNode[].class).length);
+        // The connection is kept alive
+        Assert.assertEquals(1,clientPorts.size());
+    }
+
+    @Test(expected=RuntimeException.class)
+    public void readTimeout() throws Exception {
+        getClient("/slow",1024,200,null).data(getRequest("{}"));
+    }
+}
@@ -0,0 +1,63 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConsistencySamplerTest {
+
+    private static List<Identity> ids(int n) {
+        List<Identity> ids=new ArrayList<>();
+        for(int i=0;i<n;i++)
+            ids.add(new Identity(new Object[] {Integer.toString(i)}));
+        return ids;
+    }
+
+    @Test
+    public void simpleSample() {
+        ConsistencySampler sampler=new ConsistencySampler(0.1,1,new Random(1));
+        List<Identity> sample=sampler.sample(ids(1000));
+        Assert.assertEquals(100,sample.size());
+        Assert.assertEquals(100,new HashSet<>(sample).size());
+        Assert.assertEquals(1000,sampler.getPopulationSize());
+    }
+
+    @Test
+    public void stratifiedSampleCoversAllRanges() {
+        ConsistencySampler sampler=new ConsistencySampler(0.01,10,new Random(1));
+        List<Identity> sample=sampler.sample(ids(1000));
+        Assert.assertEquals(10,sample.size());
+        boolean[] ranges=new boolean[10];
+        for(Identity id:sample)
+            ranges[Integer.parseInt((String)id.get(0))/100]=true;
+        for(boolean b:ranges)
+            Assert.assertTrue(b);
+    }
+
+    @Test
+    public void estimate() {
+        ConsistencySampler sampler=new ConsistencySampler(0.2,4,new Random(1));
+        List<Identity> sample=sampler.sample(ids(1000));
+        // Every 10th sampled doc is inconsistent
+        Set<Identity> inconsistent=new HashSet<>();
+        for(int i=0;i<sample.size();i+=10)
+            inconsistent.add(sample.get(i));
+        double[] e=sampler.estimate(inconsistent);
+        Assert.assertEquals(0.1,e[0],0.01);
+        Assert.assertTrue(e[1]<e[0]&&e[0]<e[2]);
+        Assert.assertTrue(e[1]>0.05&&e[2]<0.15);
+    }
+
+    @Test
+    public void noInconsistencies() {
+        double[] e=ConsistencySampler.wilson(0,100,10000);
+        Assert.assertEquals(0,e[0],0);
+        Assert.assertEquals(0,e[1],1e-9);
+        Assert.assertTrue(e[2]>0&&e[2]<0.05);
+    }
+}
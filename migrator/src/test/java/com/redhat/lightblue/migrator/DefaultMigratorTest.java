@@ -0,0 +1,540 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.request.LightblueRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import com.redhat.lightblue.client.request.data.DataSaveRequest;
+import com.redhat.lightblue.client.request.data.DataUpdateRequest;
+import com.redhat.lightblue.client.response.LightblueResponse;
+
+public class DefaultMigratorTest {
+
+    private final TestLightblueClient source=new TestLightblueClient();
+    private final TestLightblueClient dest=new TestLightblueClient();
+
+    private static MigrationConfiguration getConfiguration() {
+        MigrationConfiguration cfg=new MigrationConfiguration();
+        cfg.setConfigurationName("test");
+        cfg.setSourceEntityName("source");
+        cfg.setSourceEntityVersion("1.0.0");
+        cfg.setSourceConfigPath("source");
+        cfg.setDestinationEntityName("dest");
+        cfg.setDestinationEntityVersion("1.0.0");
+        cfg.setDestinationConfigPath("dest");
+        cfg.setDestinationIdentityFields(Arrays.asList("_id"));
+        return cfg;
+    }
+
+    /**
+     * Returns a migrator that runs a job for all documents of the
+     * test clients, with a mock controller
+     */
+    private DefaultMigrator getMigrator(MigrationConfiguration cfg) {
+        return getMigrator(cfg,dest);
+    }
+
+    private DefaultMigrator getMigrator(MigrationConfiguration cfg,final LightblueClient destClient) {
+        DefaultMigrator migrator=new DefaultMigrator(new ThreadGroup("test")) {
+                @Override
+                public LightblueClient getLightblueClient(String configPath) {
+                    return "source".equals(configPath)?source:destClient;
+                }
+            };
+        return setup(migrator,cfg);
+    }
+
+    /**
+     * Sets a mock controller and a job for all documents
+     */
+    private static <T extends Migrator> T setup(T migrator,MigrationConfiguration cfg) {
+        MigratorController controller=Mockito.mock(MigratorController.class);
+        Mockito.when(controller.getMigrationConfiguration()).thenReturn(cfg);
+        Mockito.when(controller.getMetrics()).thenReturn(new MigratorMetrics("test",new ThreadGroup("test")));
+        Mockito.when(controller.getInconsistencySink()).thenReturn(new InconsistencySink("test",new LogInconsistencyWriter(),1000,100,0));
+        Mockito.when(controller.getComparisonPool()).thenReturn(new ForkJoinPool(4));
+        migrator.setController(controller);
+        MigrationJob job=new MigrationJob();
+        job.set_id("job");
+        job.setConfigurationName(cfg.getConfigurationName());
+        job.setQuery("{}");
+        migrator.setMigrationJob(job);
+        return migrator;
+    }
+
+    private static MigrationJobExecution migrate(Migrator migrator) {
+        MigrationJobExecution execution=new MigrationJobExecution();
+        migrator.migrate(execution);
+        Assert.assertNull(execution.getErrorMsg(),execution.getErrorMsg());
+        return execution;
+    }
+
+    @Test
+    public void identityProbeFetchesExistingDocsOnly() throws Exception {
+        source.addDocuments("{\"_id\":\"1\",\"a\":1}",
+                            "{\"_id\":\"2\",\"a\":2}",
+                            "{\"_id\":\"3\",\"a\":3}",
+                            "{\"_id\":\"4\",\"a\":4}",
+                            "{\"_id\":\"5\",\"a\":5}");
+        dest.addDocuments("{\"_id\":\"2\",\"a\":2}",
+                          "{\"_id\":\"4\",\"a\":4}");
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setDestinationIdentityProbe(true);
+        DefaultMigrator migrator=getMigrator(cfg);
+        migrate(migrator);
+
+        List<JsonNode> finds=dest.getRequestBodies(DataFindRequest.class);
+        Assert.assertEquals(2,finds.size());
+        // The probe asks for all source ids, and only the identity fields
+        Assert.assertEquals(5,finds.get(0).get("query").get("$or").size());
+        Assert.assertFalse(finds.get(0).get("projection").toString().contains("*"));
+        // Only the existing docs are fetched in full
+        Assert.assertEquals(2,finds.get(1).get("query").get("$or").size());
+        Assert.assertTrue(finds.get(1).get("projection").toString().contains("*"));
+
+        Assert.assertEquals(2,migrator.getDestDocs().size());
+        Assert.assertEquals(3,migrator.getInsertDocs().size());
+        Assert.assertEquals(0,migrator.getRewriteDocs().size());
+        Assert.assertEquals(5,dest.getDocuments().size());
+    }
+
+    @Test
+    public void noDestinationFetchWithoutExistingDocs() throws Exception {
+        source.addDocuments("{\"_id\":\"1\",\"a\":1}",
+                            "{\"_id\":\"2\",\"a\":2}");
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setDestinationIdentityProbe(true);
+        DefaultMigrator migrator=getMigrator(cfg);
+        migrate(migrator);
+
+        // Only the probe, nothing exists to fetch
+        Assert.assertEquals(1,dest.getRequestBodies(DataFindRequest.class).size());
+        Assert.assertEquals(2,migrator.getInsertDocs().size());
+    }
+
+    private void addPatchedDocs() throws Exception {
+        // 1, 2, 3 get the same patch, 4 has its own, 5 is consistent
+        source.addDocuments("{\"_id\":\"1\",\"a\":9,\"b\":1}",
+                            "{\"_id\":\"2\",\"a\":9,\"b\":2}",
+                            "{\"_id\":\"3\",\"a\":9,\"b\":3}",
+                            "{\"_id\":\"4\",\"a\":7,\"b\":4}",
+                            "{\"_id\":\"5\",\"a\":0,\"b\":5}");
+        dest.addDocuments("{\"_id\":\"1\",\"a\":0,\"b\":1}",
+                          "{\"_id\":\"2\",\"a\":0,\"b\":2}",
+                          "{\"_id\":\"3\",\"a\":0,\"b\":3}",
+                          "{\"_id\":\"4\",\"a\":0,\"b\":4}",
+                          "{\"_id\":\"5\",\"a\":0,\"b\":5}");
+    }
+
+    @Test
+    public void sharedPatchesAndSingletonsAreUpdated() throws Exception {
+        addPatchedDocs();
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setDeltaRewrites(true);
+        DefaultMigrator migrator=getMigrator(cfg);
+        migrate(migrator);
+
+        Assert.assertEquals(4,migrator.getRewriteDocs().size());
+        List<JsonNode> updates=dest.getRequestBodies(DataUpdateRequest.class);
+        Assert.assertEquals(2,updates.size());
+        Assert.assertEquals(3,updates.get(0).get("query").get("$or").size());
+        Assert.assertTrue(updates.get(0).get("update").toString().contains("\"a\""));
+        Assert.assertFalse(updates.get(0).get("update").toString().contains("\"b\""));
+        // The document with its own patch is updated alone
+        Assert.assertTrue(updates.get(1).toString().contains("\"4\""));
+        Assert.assertTrue(updates.get(1).get("update").toString().contains("7"));
+        Assert.assertEquals(0,dest.getRequestBodies(DataSaveRequest.class).size());
+    }
+
+    @Test
+    public void driftingFieldIsPatchedNotSaved() throws Exception {
+        // Large documents, each with a timestamp of its own
+        StringBuilder big=new StringBuilder();
+        for(int i=0;i<200;i++)
+            big.append(",\"f").append(i).append("\":\"value ").append(i).append('"');
+        for(int i=1;i<=3;i++) {
+            source.addDocuments("{\"_id\":\""+i+"\",\"ts\":"+(1000+i)+big+"}");
+            dest.addDocuments("{\"_id\":\""+i+"\",\"ts\":0"+big+"}");
+        }
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setDeltaRewrites(true);
+        DefaultMigrator migrator=getMigrator(cfg);
+        migrate(migrator);
+
+        Assert.assertEquals(3,migrator.getRewriteDocs().size());
+        Assert.assertEquals(0,dest.getRequestBodies(DataSaveRequest.class).size());
+        List<JsonNode> updates=dest.getRequestBodies(DataUpdateRequest.class);
+        Assert.assertEquals(3,updates.size());
+        for(JsonNode update:updates) {
+            Assert.assertTrue(update.get("update").toString().contains("\"ts\""));
+            Assert.assertFalse(update.get("update").toString().contains("\"f0\""));
+        }
+    }
+
+    @Test
+    public void failedPatchFailsJob() throws Exception {
+        TestLightblueClient failing=new TestLightblueClient() {
+                @Override
+                protected JsonNode respond(LightblueRequest req,JsonNode body) {
+                    JsonNode response=super.respond(req,body);
+                    // One of the patched documents is not modified
+                    if(req instanceof DataUpdateRequest)
+                        ((ObjectNode)response).put("modifiedCount",response.get("modifiedCount").asInt()-1);
+                    return response;
+                }
+            };
+        addPatchedDocs();
+        for(JsonNode doc:dest.getDocuments())
+            failing.addDocuments(doc.toString());
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setDeltaRewrites(true);
+        DefaultMigrator migrator=getMigrator(cfg,failing);
+        MigrationJobExecution execution=new MigrationJobExecution();
+        migrator.migrate(execution);
+        Assert.assertNotNull(execution.getErrorMsg());
+        Assert.assertTrue(execution.getErrorMsg().contains("expected 3 modified docs"));
+    }
+
+    private void addInsertedAndSavedDocs() throws Exception {
+        // 1-5 are new, 6-8 are inconsistent
+        for(int i=1;i<=8;i++)
+            source.addDocuments("{\"_id\":\""+i+"\",\"a\":"+i+"}");
+        for(int i=6;i<=8;i++)
+            dest.addDocuments("{\"_id\":\""+i+"\",\"a\":0}");
+    }
+
+    private static int countDocs(List<JsonNode> bodies) {
+        int n=0;
+        for(JsonNode body:bodies) {
+            Assert.assertTrue(body.get("data").size()<=2);
+            n+=body.get("data").size();
+        }
+        return n;
+    }
+
+    @Test
+    public void insertsAndSavesUseTheirBatchSizes() throws Exception {
+        addInsertedAndSavedDocs();
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setInsertBatchSize(2);
+        cfg.setRewriteBatchSize(2);
+        migrate(getMigrator(cfg));
+
+        List<JsonNode> inserts=dest.getRequestBodies(DataInsertRequest.class);
+        Assert.assertEquals(3,inserts.size());
+        Assert.assertEquals(5,countDocs(inserts));
+        List<JsonNode> saves=dest.getRequestBodies(DataSaveRequest.class);
+        Assert.assertEquals(2,saves.size());
+        Assert.assertEquals(3,countDocs(saves));
+        Assert.assertEquals(8,dest.getDocuments().size());
+    }
+
+    @Test
+    public void concurrentWritesWriteAllBatches() throws Exception {
+        addInsertedAndSavedDocs();
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setInsertBatchSize(2);
+        cfg.setInsertConcurrency(3);
+        cfg.setRewriteBatchSize(2);
+        cfg.setRewriteConcurrency(2);
+        DefaultMigrator migrator=getMigrator(cfg);
+        migrate(migrator);
+
+        Assert.assertEquals(5,countDocs(dest.getRequestBodies(DataInsertRequest.class)));
+        Assert.assertEquals(3,countDocs(dest.getRequestBodies(DataSaveRequest.class)));
+        Assert.assertEquals(8,dest.getDocuments().size());
+        // Responses come back in batch order
+        List<JsonNode> docs=new ArrayList<>();
+        for(int i=1;i<=5;i++)
+            docs.add(source.getDocuments().get(i-1));
+        List<LightblueResponse> responses=migrator.insert(docs);
+        migrator.cleanupMigrator();
+        Assert.assertEquals(3,responses.size());
+        Assert.assertEquals(2,responses.get(0).parseModifiedCount());
+        Assert.assertEquals(1,responses.get(2).parseModifiedCount());
+    }
+
+    /**
+     * Returns a destination client with the documents of dest that
+     * reports one document less modified for inserts and saves than
+     * it writes
+     */
+    private TestLightblueClient getShortWriteClient() throws Exception {
+        TestLightblueClient cli=new TestLightblueClient() {
+            @Override
+            protected JsonNode respond(LightblueRequest req,JsonNode body) {
+                JsonNode response=super.respond(req,body);
+                if(req instanceof DataInsertRequest||req instanceof DataSaveRequest)
+                    ((ObjectNode)response).put("modifiedCount",response.get("modifiedCount").asInt()-1);
+                return response;
+            }
+        };
+        for(JsonNode doc:dest.getDocuments())
+            cli.addDocuments(doc.toString());
+        return cli;
+    }
+
+    @Test
+    public void fullResponseModeReturnsDocuments() throws Exception {
+        addInsertedAndSavedDocs();
+        migrate(getMigrator(getConfiguration()));
+        for(JsonNode body:dest.getRequestBodies(DataInsertRequest.class))
+            Assert.assertTrue(body.get("projection").toString().contains("*"));
+        for(JsonNode body:dest.getRequestBodies(DataSaveRequest.class))
+            Assert.assertTrue(body.get("projection").toString().contains("*"));
+    }
+
+    @Test
+    public void fullResponseModeIsNotValidated() throws Exception {
+        addInsertedAndSavedDocs();
+        migrate(getMigrator(getConfiguration(),getShortWriteClient()));
+    }
+
+    @Test
+    public void identityResponseModeReturnsIdentities() throws Exception {
+        addInsertedAndSavedDocs();
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setSaveResponseMode(MigrationConfiguration.SAVE_RESPONSE_IDENTITY);
+        migrate(getMigrator(cfg));
+        List<JsonNode> bodies=dest.getRequestBodies(DataInsertRequest.class);
+        bodies.addAll(dest.getRequestBodies(DataSaveRequest.class));
+        Assert.assertEquals(2,bodies.size());
+        for(JsonNode body:bodies) {
+            String projection=body.get("projection").toString();
+            Assert.assertTrue(projection.contains("_id"));
+            Assert.assertFalse(projection.contains("*"));
+        }
+    }
+
+    @Test
+    public void countResponseModeReturnsNothing() throws Exception {
+        addInsertedAndSavedDocs();
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setSaveResponseMode(MigrationConfiguration.SAVE_RESPONSE_COUNT);
+        migrate(getMigrator(cfg));
+        List<JsonNode> bodies=dest.getRequestBodies(DataInsertRequest.class);
+        bodies.addAll(dest.getRequestBodies(DataSaveRequest.class));
+        Assert.assertEquals(2,bodies.size());
+        for(JsonNode body:bodies)
+            Assert.assertNull(body.get("projection"));
+    }
+
+    @Test
+    public void countResponseModeValidatesModifiedCount() throws Exception {
+        addInsertedAndSavedDocs();
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setSaveResponseMode(MigrationConfiguration.SAVE_RESPONSE_COUNT);
+        MigrationJobExecution execution=new MigrationJobExecution();
+        getMigrator(cfg,getShortWriteClient()).migrate(execution);
+        Assert.assertNotNull(execution.getErrorMsg());
+        Assert.assertTrue(execution.getErrorMsg().contains("expected 5 modified docs"));
+    }
+
+    private static Map<Identity,JsonNode> getDocs(int n,int mod) throws Exception {
+        ObjectMapper mapper=new ObjectMapper();
+        Map<Identity,JsonNode> docs=new HashMap<>();
+        for(int i=0;i<n;i++)
+            docs.put(new Identity(new Object[] {Integer.toString(i)}),
+                     mapper.readTree("{\"_id\":\""+i+"\",\"a\":"+(i%mod)+",\"b\":{\"c\":"+(i%(mod+1))+"}}"));
+        return docs;
+    }
+
+    @Test
+    public void parallelCompareMatchesSerialCompare() throws Exception {
+        Map<Identity,JsonNode> sourceDocs=getDocs(2000,7);
+        Map<Identity,JsonNode> destDocs=getDocs(1900,5);
+
+        MigrationConfiguration cfg=getConfiguration();
+        Map<Identity,List<String>> serial=getMigrator(cfg).compareDocs(sourceDocs,destDocs);
+        cfg=getConfiguration();
+        cfg.setComparisonParallelism(4);
+        Map<Identity,List<String>> parallel=getMigrator(cfg).compareDocs(sourceDocs,destDocs);
+
+        Assert.assertTrue(serial.size()>0);
+        Assert.assertEquals(serial,parallel);
+    }
+
+    /**
+     * A migrator that changes the source documents
+     */
+    private class TransformingMigrator extends DefaultMigrator {
+        public TransformingMigrator() {
+            super(new ThreadGroup("test"));
+        }
+
+        @Override
+        public LightblueClient getLightblueClient(String configPath) {
+            return "source".equals(configPath)?source:dest;
+        }
+
+        @Override
+        public List<JsonNode> getSourceDocuments() {
+            List<JsonNode> docs=super.getSourceDocuments();
+            for(JsonNode doc:docs)
+                ((ObjectNode)doc).put("a","changed");
+            return docs;
+        }
+    }
+
+    @Test
+    public void rawPassThroughWritesChangedDocuments() throws Exception {
+        source.addDocuments("{\"_id\":\"1\",\"a\":1}",
+                            "{\"_id\":\"2\",\"a\":2}");
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setRawPassThrough(true);
+        migrate(setup(new TransformingMigrator(),cfg));
+
+        List<JsonNode> inserts=dest.getRequestBodies(DataInsertRequest.class);
+        Assert.assertEquals(1,inserts.size());
+        for(JsonNode doc:inserts.get(0).get("data"))
+            Assert.assertEquals("changed",doc.get("a").asText());
+    }
+
+    @Test
+    public void rawPassThroughWritesSourceDocuments() throws Exception {
+        source.addDocuments("{\"_id\":\"1\",\"a\":1,\"b\":{\"c\":[1,2]}}",
+                            "{\"_id\":\"2\",\"a\":2}");
+        dest.addDocuments("{\"_id\":\"2\",\"a\":0}");
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setRawPassThrough(true);
+        migrate(getMigrator(cfg));
+
+        Assert.assertEquals(source.getDocuments().get(0),
+                            dest.getRequestBodies(DataInsertRequest.class).get(0).get("data").get(0));
+        Assert.assertEquals(source.getDocuments().get(1),
+                            dest.getRequestBodies(DataSaveRequest.class).get(0).get("data").get(0));
+    }
+
+    @Test
+    public void compactDocumentsAreEncodedWhileFetched() throws Exception {
+        for(int i=1;i<=5;i++)
+            source.addDocuments("{\"_id\":\""+i+"\",\"a\":"+i+",\"b\":[\"x\",{\"c\":true}]}");
+        dest.addDocuments("{\"_id\":\"3\",\"a\":3,\"b\":[\"x\",{\"c\":true}]}",
+                          "{\"_id\":\"4\",\"a\":0,\"b\":[\"x\",{\"c\":true}]}",
+                          "{\"_id\":\"5\",\"a\":5,\"b\":[\"x\",{\"c\":true}]}");
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setCompactDocuments(true);
+        cfg.setComparisonEngine(MigrationConfiguration.COMPARISON_ENGINE_STREAM);
+        DefaultMigrator migrator=getMigrator(cfg);
+        migrate(migrator);
+
+        Assert.assertTrue(migrator.getSourceDocs() instanceof CompactDocumentMap);
+        Assert.assertTrue(migrator.getDestDocs() instanceof CompactDocumentMap);
+        Assert.assertEquals(5,migrator.getSourceDocs().size());
+        Assert.assertEquals(3,migrator.getDestDocs().size());
+        Assert.assertEquals(2,migrator.getInsertDocs().size());
+        Assert.assertEquals(1,migrator.getRewriteDocs().size());
+        Assert.assertEquals(Arrays.asList("a"),migrator.getInconsistentPaths().values().iterator().next());
+        List<JsonNode> saves=dest.getRequestBodies(DataSaveRequest.class);
+        Assert.assertEquals(source.getDocuments().get(3),saves.get(0).get("data").get(0));
+    }
+
+    @Test
+    public void compactDocumentsCallOverriddenHooks() throws Exception {
+        source.addDocuments("{\"_id\":\"1\",\"a\":1}");
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setCompactDocuments(true);
+        DefaultMigrator migrator=setup(new TransformingMigrator(),cfg);
+        migrate(migrator);
+
+        Assert.assertTrue(migrator.getSourceDocs() instanceof CompactDocumentMap);
+        Assert.assertEquals("changed",dest.getRequestBodies(DataInsertRequest.class).get(0).get("data").get(0).get("a").asText());
+    }
+
+    private void numericIdentityWritesByPrimitiveKeys(boolean compact) throws Exception {
+        for(int i=1;i<=5;i++)
+            source.addDocuments("{\"_id\":"+i+",\"a\":"+i+"}");
+        dest.addDocuments("{\"_id\":2,\"a\":2}",
+                          "{\"_id\":3,\"a\":0}");
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setNumericIdentity(true);
+        cfg.setCompactDocuments(compact);
+        DefaultMigrator migrator=getMigrator(cfg);
+        migrate(migrator);
+
+        Assert.assertEquals(3,migrator.getInsertDocs().size());
+        Assert.assertTrue(migrator.getInsertDocs().contains(LongIdentityMap.toIdentity(4)));
+        Assert.assertEquals(1,migrator.getRewriteDocs().size());
+        Assert.assertTrue(migrator.getRewriteDocs().contains(LongIdentityMap.toIdentity(3)));
+        int inserted=0;
+        for(JsonNode insert:dest.getRequestBodies(DataInsertRequest.class))
+            for(JsonNode doc:insert.get("data")) {
+                Assert.assertTrue(doc.get("_id").asInt()!=2&&doc.get("_id").asInt()!=3);
+                inserted++;
+            }
+        Assert.assertEquals(3,inserted);
+        List<JsonNode> saves=dest.getRequestBodies(DataSaveRequest.class);
+        Assert.assertEquals(1,saves.size());
+        Assert.assertEquals(source.getDocuments().get(2),saves.get(0).get("data").get(0));
+    }
+
+    @Test
+    public void numericIdentityWritesByPrimitiveKeys() throws Exception {
+        numericIdentityWritesByPrimitiveKeys(false);
+    }
+
+    @Test
+    public void compactNumericIdentityWritesByPrimitiveKeys() throws Exception {
+        numericIdentityWritesByPrimitiveKeys(true);
+    }
+
+    /**
+     * Makes the migrator write jobs to the given client
+     */
+    private static void setJobClient(Migrator migrator,LightblueClient jobs) {
+        Controller controller=Mockito.mock(Controller.class);
+        Mockito.when(controller.getLightblueClient()).thenReturn(jobs);
+        Mockito.when(migrator.getController().getController()).thenReturn(controller);
+    }
+
+    @Test
+    public void smallJobIsCountedOnly() throws Exception {
+        for(int i=1;i<=5;i++)
+            source.addDocuments("{\"_id\":\""+i+"\"}");
+        DefaultMigrator migrator=getMigrator(getConfiguration());
+        Assert.assertNull(migrator.splitJob(5));
+        // Only the count, no field values
+        List<JsonNode> finds=source.getRequestBodies(DataFindRequest.class);
+        Assert.assertEquals(1,finds.size());
+        Assert.assertTrue(finds.get(0).has("range"));
+    }
+
+    @Test
+    public void splitJobCreatesChildrenOnce() throws Exception {
+        for(int i=1;i<=5;i++)
+            source.addDocuments("{\"_id\":\""+i+"\"}");
+        TestLightblueClient jobs=new TestLightblueClient();
+        MigrationConfiguration cfg=getConfiguration();
+        cfg.setMaxJobSize(2);
+        DefaultMigrator migrator=getMigrator(cfg);
+        setJobClient(migrator,jobs);
+        Assert.assertEquals(MigrationJob.STATE_SPLIT,migrate(migrator).getStatus());
+        Assert.assertEquals(3,jobs.getDocuments().size());
+        for(JsonNode job:jobs.getDocuments())
+            Assert.assertEquals("job",job.get("parentJobId").asText());
+        // The count and the values are read in ranged requests
+        for(JsonNode find:source.getRequestBodies(DataFindRequest.class))
+            Assert.assertTrue(find.has("range"));
+
+        // The job is run again, as if it was not marked as split
+        migrator=getMigrator(cfg);
+        setJobClient(migrator,jobs);
+        Assert.assertEquals(MigrationJob.STATE_SPLIT,migrate(migrator).getStatus());
+        Assert.assertEquals(3,jobs.getDocuments().size());
+    }
+}
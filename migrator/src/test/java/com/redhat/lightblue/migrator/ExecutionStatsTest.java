@@ -0,0 +1,79 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.redhat.lightblue.client.expression.query.Query;
+import com.redhat.lightblue.client.request.AbstractLightblueDataRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+
+public class ExecutionStatsTest {
+
+    @Test
+    public void requestsAreCountedPerPhase() {
+        ExecutionStats stats=new ExecutionStats();
+        stats.addRequest(1,1,1,1);
+        stats.startPhase(ExecutionStats.PHASE_SOURCE_FETCH);
+        stats.addRequest(10,5,100,50);
+        stats.addRequest(10,5,100,50);
+        stats.endPhase(7);
+        stats.startPhase(ExecutionStats.PHASE_COMPARE);
+        stats.startPhase(ExecutionStats.PHASE_INSERT);
+        stats.addRequest(3,3,4,4);
+        stats.endPhase(2);
+
+        Assert.assertEquals(4,stats.getRequestCount());
+        List<ExecutionPhase> phases=stats.getPhases();
+        Assert.assertEquals(3,phases.size());
+        ExecutionPhase source=phases.get(0);
+        Assert.assertEquals(ExecutionStats.PHASE_SOURCE_FETCH,source.getName());
+        Assert.assertEquals(2,source.getRequestCount());
+        Assert.assertEquals(7,source.getDocumentCount());
+        Assert.assertEquals(20,source.getRawBytesSent());
+        Assert.assertEquals(10,source.getBytesSent());
+        Assert.assertEquals(200,source.getRawBytesReceived());
+        Assert.assertEquals(100,source.getBytesReceived());
+        Assert.assertEquals(ExecutionStats.PHASE_COMPARE,phases.get(1).getName());
+        Assert.assertEquals(0,phases.get(1).getRequestCount());
+        Assert.assertEquals(1,phases.get(2).getRequestCount());
+    }
+
+    @Test
+    public void utf8Length() {
+        Assert.assertEquals(0,MeteringLightblueClient.utf8Length(null));
+        Assert.assertEquals(3,MeteringLightblueClient.utf8Length("abc"));
+        Assert.assertEquals("a\u00e9\u20ac\ud83d\ude00".getBytes(java.nio.charset.Charset.forName("UTF-8")).length,
+                            MeteringLightblueClient.utf8Length("a\u00e9\u20ac\ud83d\ude00"));
+    }
+
+    @Test
+    public void typedRequestsAreDelegated() throws Exception {
+        final boolean[] typed=new boolean[1];
+        TestLightblueClient client=new TestLightblueClient() {
+                @Override
+                public <T> T data(AbstractLightblueDataRequest req,Class<T> type) throws IOException {
+                    typed[0]=true;
+                    return super.data(req,type);
+                }
+            };
+        client.addDocuments("{\"_id\":\"1\"}");
+        TrafficStats stats=new TrafficStats();
+        DataFindRequest req=new DataFindRequest("source","1.0.0");
+        req.where(new Query() {
+                public String toJson() {
+                    return "{}";
+                }
+            });
+        JsonNode[] docs=new MeteringLightblueClient(client,stats).data(req,JsonNode[].class);
+
+        Assert.assertTrue(typed[0]);
+        Assert.assertEquals(1,docs.length);
+        Assert.assertEquals(1,stats.getRequestCount());
+        Assert.assertEquals(MeteringLightblueClient.utf8Length(req.getBody()),stats.getRawBytesSent());
+    }
+}
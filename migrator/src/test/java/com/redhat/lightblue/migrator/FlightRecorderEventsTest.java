@@ -0,0 +1,26 @@
+package com.redhat.lightblue.migrator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlightRecorderEventsTest {
+
+    @Test
+    public void disabledEventIsNoop() {
+        // No recording is running, so the event type is not enabled
+        Assert.assertFalse(FlightRecorderEvents.PHASE.isEnabled());
+        FlightRecorder.Event event=FlightRecorderEvents.PHASE.begin();
+        event.set("configurationName","test").set("documentCount",10l).commit();
+    }
+
+    @Test
+    public void phaseEventsDoNotChangeStats() {
+        ExecutionStats stats=new ExecutionStats();
+        stats.setJob("test","1");
+        stats.startPhase(ExecutionStats.PHASE_SOURCE_FETCH);
+        stats.addRequest(10,5,20,10);
+        stats.endPhase(3);
+        Assert.assertEquals(1,stats.getPhases().size());
+        Assert.assertEquals(3,stats.getPhases().get(0).getDocumentCount());
+    }
+}
@@ -0,0 +1,93 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InconsistencySinkTest {
+
+    private static class ListWriter implements InconsistencyWriter {
+        final List<Inconsistency> written=Collections.synchronizedList(new ArrayList<Inconsistency>());
+        final List<Integer> batches=Collections.synchronizedList(new ArrayList<Integer>());
+        boolean closed=false;
+
+        @Override
+        public void write(List<Inconsistency> batch) {
+            batches.add(batch.size());
+            written.addAll(batch);
+        }
+
+        @Override
+        public void close() {
+            closed=true;
+        }
+    }
+
+    private static Inconsistency inconsistency(int i,String... paths) {
+        MigrationConfiguration cfg=new MigrationConfiguration();
+        cfg.setConfigurationName("test");
+        return new Inconsistency(cfg,"job","_id",Integer.toString(i),Arrays.asList(paths));
+    }
+
+    @Test
+    public void writesInBatches() {
+        ListWriter w=new ListWriter();
+        InconsistencySink sink=new InconsistencySink("test",w,1000,10,0);
+        sink.start();
+        for(int i=0;i<95;i++)
+            sink.add(inconsistency(i,"a","b"));
+        sink.close();
+        Assert.assertTrue(w.closed);
+        Assert.assertEquals(95,w.written.size());
+        Assert.assertEquals(95,sink.getWritten());
+        for(Integer n:w.batches)
+            Assert.assertTrue(n<=10);
+        Assert.assertEquals(95,sink.getPathCount("a"));
+        // Added after close
+        sink.add(inconsistency(0,"a"));
+        Assert.assertEquals(1,sink.getDropped());
+    }
+
+    @Test
+    public void samplesAboveThreshold() {
+        ListWriter w=new ListWriter();
+        InconsistencySink sink=new InconsistencySink("test",w,1000,10,5);
+        for(int i=0;i<205;i++)
+            sink.add(inconsistency(i,"a"));
+        sink.close();
+        // All counted, but only 5 + 2 sampled written, unless the
+        // loop crossed a second boundary
+        Assert.assertEquals(205,sink.getPathCount("a"));
+        Assert.assertEquals(205,sink.getWritten()+sink.getSampledOut());
+        Assert.assertTrue(sink.getSampledOut()>0);
+    }
+
+    @Test
+    public void fileWriterRolls() throws Exception {
+        File dir=new File(System.getProperty("java.io.tmpdir"),"inconsistencySinkTest"+System.nanoTime());
+        String name=new File(dir,"inconsistencies.json").getPath();
+        FileInconsistencyWriter w=new FileInconsistencyWriter(name,1000,2);
+        for(int i=0;i<30;i++)
+            w.write(Arrays.asList(inconsistency(i,"x.y")));
+        w.close();
+        Assert.assertTrue(new File(name).exists());
+        Assert.assertTrue(new File(name+".1").exists());
+        Assert.assertTrue(new File(name+".2").exists());
+        Assert.assertFalse(new File(name+".3").exists());
+        try (BufferedReader r=new BufferedReader(new FileReader(name))) {
+            String line=r.readLine();
+            Assert.assertTrue(line.startsWith("{\"configurationName\":\"test\""));
+            Assert.assertTrue(line.contains("\"inconsistentPaths\":[\"x.y\"]"));
+        }
+        for(File f:dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,134 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+
+import com.redhat.lightblue.client.util.ClientConstants;
+
+public class JobGeneratorTest {
+
+    private static final ObjectMapper MAPPER=new ObjectMapper();
+
+    private static JsonNode json(String s) throws Exception {
+        return MAPPER.readTree(s.replace('\'','"'));
+    }
+
+    @Test
+    public void rangeQuery() throws Exception {
+        Assert.assertEquals(json("{'$and':[{'field':'x','op':'=','rvalue':1},{'field':'id','op':'>=','rvalue':10},{'field':'id','op':'<','rvalue':20}]}"),
+                            MAPPER.readTree(JobGenerator.getRangeQuery(json("{'field':'x','op':'=','rvalue':1}"),"id",
+                                                                       JsonNodeFactory.instance.numberNode(10),
+                                                                       JsonNodeFactory.instance.numberNode(20))));
+        Assert.assertEquals(json("{'$and':[{'field':'id','op':'<','rvalue':'b'}]}"),
+                            MAPPER.readTree(JobGenerator.getRangeQuery(null,"id",null,JsonNodeFactory.instance.textNode("b"))));
+    }
+
+    @Test
+    public void keyRanges() throws Exception {
+        List<String> queries=JobGenerator.getKeyRangeQueries(null,"id",0,25,10);
+        Assert.assertEquals(3,queries.size());
+        Assert.assertEquals(json("{'$and':[{'field':'id','op':'>=','rvalue':0},{'field':'id','op':'<','rvalue':10}]}"),
+                            MAPPER.readTree(queries.get(0)));
+        Assert.assertEquals(json("{'$and':[{'field':'id','op':'>=','rvalue':20},{'field':'id','op':'<','rvalue':25}]}"),
+                            MAPPER.readTree(queries.get(2)));
+    }
+
+    @Test
+    public void dateRanges() throws Exception {
+        Date from=new Date(0);
+        Date to=new Date(3*3600l*1000l);
+        List<String> queries=JobGenerator.getDateRangeQueries("{\"field\":\"x\",\"op\":\"=\",\"rvalue\":1}","d",from,to,3600l*1000l);
+        Assert.assertEquals(3,queries.size());
+        JsonNode last=MAPPER.readTree(queries.get(2)).get("$and");
+        Assert.assertEquals(3,last.size());
+        Assert.assertEquals(ClientConstants.getDateFormat().format(to),
+                            last.get(2).get("rvalue").asText());
+    }
+
+    @Test
+    public void boundaries() throws Exception {
+        List<String> queries=JobGenerator.getRangeQueries(null,"id",
+                                                          Arrays.asList((JsonNode)JsonNodeFactory.instance.textNode("a"),
+                                                                        JsonNodeFactory.instance.textNode("m"),
+                                                                        JsonNodeFactory.instance.textNode("z")));
+        Assert.assertEquals(2,queries.size());
+        Assert.assertEquals(json("{'$and':[{'field':'id','op':'>=','rvalue':'m'},{'field':'id','op':'<','rvalue':'z'}]}"),
+                            MAPPER.readTree(queries.get(1)));
+    }
+
+    private static JobGenerator getGenerator() {
+        MigrationConfiguration cfg=new MigrationConfiguration();
+        cfg.setConfigurationName("test");
+        cfg.setSourceEntityName("source");
+        cfg.setSourceEntityVersion("1.0.0");
+        return new JobGenerator(null,cfg);
+    }
+
+    @Test
+    public void balancedRangesReadValuesOnce() throws Exception {
+        TestLightblueClient source=new TestLightblueClient();
+        for(int i=99;i>=0;i--)
+            source.addDocuments("{\"_id\":"+i+"}");
+        JobGenerator generator=getGenerator();
+        generator.setValuePageSize(30);
+        List<String> queries=generator.getBalancedQueries(source,null,"_id",
+                                                          JsonNodeFactory.instance.numberNode(0),
+                                                          JsonNodeFactory.instance.numberNode(100),4);
+        Assert.assertEquals(4,queries.size());
+        Assert.assertEquals(json("{'$and':[{'field':'_id','op':'>=','rvalue':25},{'field':'_id','op':'<','rvalue':50}]}"),
+                            MAPPER.readTree(queries.get(1)));
+        Assert.assertEquals(json("{'$and':[{'field':'_id','op':'>=','rvalue':75},{'field':'_id','op':'<','rvalue':100}]}"),
+                            MAPPER.readTree(queries.get(3)));
+        // The count, and three pages up to the last boundary, none skipping documents
+        List<JsonNode> finds=source.getRequestBodies(DataFindRequest.class);
+        Assert.assertEquals(4,finds.size());
+        for(JsonNode find:finds)
+            Assert.assertEquals(0,find.get("range").get(0).asInt());
+    }
+
+    @Test
+    public void balancedRangesKeepRepeatedValues() throws Exception {
+        TestLightblueClient source=new TestLightblueClient();
+        for(int i:new int[] {1,1,1,1,1,2,2,3})
+            source.addDocuments("{\"k\":"+i+"}");
+        List<String> queries=getGenerator().getBalancedQueries(source,null,"k",
+                                                               JsonNodeFactory.instance.numberNode(0),
+                                                               JsonNodeFactory.instance.numberNode(10),2);
+        Assert.assertEquals(2,queries.size());
+        Assert.assertEquals(json("{'$and':[{'field':'k','op':'>=','rvalue':0},{'field':'k','op':'<','rvalue':2}]}"),
+                            MAPPER.readTree(queries.get(0)));
+    }
+
+    @Test
+    public void splitReadsValuesInPages() throws Exception {
+        TestLightblueClient source=new TestLightblueClient();
+        for(int i:new int[] {5,1,2,2,2,3,4,6,7})
+            source.addDocuments("{\"k\":"+i+",\"x\":1}");
+        JobGenerator generator=getGenerator();
+        generator.setValuePageSize(4);
+        List<String> queries=generator.getSplitQueries(source,"{\"field\":\"x\",\"op\":\"=\",\"rvalue\":1}","k",2);
+        // 1,2,2,2 | 3,4 | 5,6 | 7, the repeated 2 stays in one job
+        Assert.assertEquals(4,queries.size());
+        Assert.assertEquals(json("{'$and':[{'field':'x','op':'=','rvalue':1},{'field':'k','op':'<','rvalue':3}]}"),
+                            MAPPER.readTree(queries.get(0)));
+        Assert.assertEquals(json("{'$and':[{'field':'x','op':'=','rvalue':1},{'field':'k','op':'>=','rvalue':3},{'field':'k','op':'<','rvalue':5}]}"),
+                            MAPPER.readTree(queries.get(1)));
+        Assert.assertEquals(json("{'$and':[{'field':'x','op':'=','rvalue':1},{'field':'k','op':'>=','rvalue':7}]}"),
+                            MAPPER.readTree(queries.get(3)));
+        // Every request is a page, none returns all values
+        List<JsonNode> finds=source.getRequestBodies(DataFindRequest.class);
+        Assert.assertEquals(3,finds.size());
+        for(JsonNode find:finds)
+            Assert.assertEquals(3,find.get("range").get(1).asInt());
+    }
+}
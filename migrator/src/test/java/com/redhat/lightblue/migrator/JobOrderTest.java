@@ -0,0 +1,113 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JobOrderTest {
+
+    private static final long MINUTE=60000l;
+
+    private static MigrationJob job(String id,long scheduledMinutesAgo,long estimate,Date now) {
+        MigrationJob job=new MigrationJob();
+        job.set_id(id);
+        job.setScheduledDate(new Date(now.getTime()-scheduledMinutesAgo*MINUTE));
+        job.setEstimatedDocumentCount(estimate);
+        return job;
+    }
+
+    private static String ids(List<MigrationJob> jobs) {
+        StringBuilder sb=new StringBuilder();
+        for(MigrationJob job:jobs)
+            sb.append(job.get_id());
+        return sb.toString();
+    }
+
+    @Test
+    public void largestFirst() {
+        Date now=new Date();
+        List<MigrationJob> jobs=new ArrayList<>();
+        jobs.add(job("a",10,100,now));
+        jobs.add(job("b",10,5000,now));
+        jobs.add(job("c",5,1000,now));
+        jobs.add(job("d",20,1000,now));
+        JobOrder.sortLargestFirst(jobs,now,60*MINUTE,0,new HashMap<String,long[]>());
+        // Same estimate, older first
+        Assert.assertEquals("bdca",ids(jobs));
+    }
+
+    @Test
+    public void starvedJobsFirst() {
+        Date now=new Date();
+        List<MigrationJob> jobs=new ArrayList<>();
+        jobs.add(job("a",10,5000,now));
+        jobs.add(job("b",90,10,now));
+        jobs.add(job("c",120,20,now));
+        jobs.add(job("d",30,100,now));
+        Map<String,long[]> seen=new HashMap<>();
+        JobOrder.sortLargestFirst(jobs,new Date(now.getTime()-120*MINUTE),60*MINUTE,0,seen);
+        Assert.assertEquals("adcb",ids(jobs));
+        // a was started by another controller, the others were passed
+        // over for two hours
+        jobs.remove(0);
+        JobOrder.sortLargestFirst(jobs,new Date(now.getTime()-59*MINUTE),60*MINUTE,0,seen);
+        // A larger job seen for the first time waits for them
+        jobs.add(job("e",1,9000,now));
+        JobOrder.sortLargestFirst(jobs,now,60*MINUTE,0,seen);
+        Assert.assertEquals("cbde",ids(jobs));
+        Assert.assertFalse(seen.containsKey("a"));
+    }
+
+    @Test
+    public void longWaveIsNotStarved() {
+        Date now=new Date();
+        List<MigrationJob> jobs=new ArrayList<>();
+        // A wave scheduled hours ago, first offered now
+        jobs.add(job("a",300,10,now));
+        jobs.add(job("b",300,5000,now));
+        jobs.add(job("c",300,100,now));
+        JobOrder.sortLargestFirst(jobs,now,60*MINUTE,0,new HashMap<String,long[]>());
+        Assert.assertEquals("bca",ids(jobs));
+    }
+
+    @Test
+    public void jobsNotSeenAreForgotten() {
+        Date now=new Date();
+        Map<String,long[]> seen=new HashMap<>();
+        List<MigrationJob> jobs=new ArrayList<>();
+        jobs.add(job("a",10,10,now));
+        JobOrder.sortLargestFirst(jobs,new Date(now.getTime()-120*MINUTE),60*MINUTE,0,seen);
+        jobs.clear();
+        jobs.add(job("b",10,10,now));
+        JobOrder.sortLargestFirst(jobs,now,60*MINUTE,0,seen);
+        Assert.assertFalse(seen.containsKey("a"));
+        Assert.assertTrue(seen.containsKey("b"));
+    }
+
+    @Test
+    public void defaultEstimate() {
+        Date now=new Date();
+        List<MigrationJob> jobs=new ArrayList<>();
+        jobs.add(job("a",10,100,now));
+        jobs.add(job("b",10,0,now));
+        jobs.add(job("c",10,1000,now));
+        JobOrder.sortLargestFirst(jobs,now,60*MINUTE,500,new HashMap<String,long[]>());
+        Assert.assertEquals("cba",ids(jobs));
+        JobOrder.sortLargestFirst(jobs,now,60*MINUTE,0,new HashMap<String,long[]>());
+        Assert.assertEquals("cab",ids(jobs));
+    }
+
+    @Test
+    public void addJobsSkipsKnownJobs() {
+        Date now=new Date();
+        List<MigrationJob> jobs=new ArrayList<>();
+        jobs.add(job("a",10,100,now));
+        JobOrder.addJobs(jobs,new MigrationJob[] {job("a",10,100,now),job("b",10,100,now)});
+        Assert.assertEquals("ab",ids(jobs));
+    }
+}
@@ -0,0 +1,128 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.util.ClientConstants;
+
+public class JobPollerTest {
+
+    @Test
+    public void query() {
+        Date now=new Date();
+        JsonNode q=JobPoller.getQuery(Arrays.asList("a","b"),now);
+        JsonNode and=q.get("$and");
+        Assert.assertEquals(3,and.size());
+        Assert.assertEquals("configurationName",and.get(0).get("field").asText());
+        Assert.assertEquals("$in",and.get(0).get("op").asText());
+        Assert.assertEquals(2,and.get(0).get("values").size());
+        Assert.assertEquals("available",and.get(1).get("rvalue").asText());
+        Assert.assertEquals(ClientConstants.getDateFormat().format(now),and.get(2).get("rvalue").asText());
+    }
+
+    private static MigratorController getController(String name) {
+        return getController(name,null);
+    }
+
+    private static MigratorController getController(String name,String jobOrder) {
+        MigrationConfiguration cfg=new MigrationConfiguration();
+        cfg.setConfigurationName(name);
+        cfg.setJobOrder(jobOrder);
+        MigratorController mig=Mockito.mock(MigratorController.class);
+        Mockito.when(mig.getMigrationConfiguration()).thenReturn(cfg);
+        return mig;
+    }
+
+    private static String job(String id,String cfg,Date scheduled) {
+        return job(id,cfg,scheduled,0);
+    }
+
+    private static String job(String id,String cfg,Date scheduled,long estimate) {
+        return "{\"_id\":\""+id+"\",\"configurationName\":\""+cfg+
+            "\",\"status\":\"available\",\"scheduledDate\":\""+
+            ClientConstants.getDateFormat().format(scheduled)+"\",\"estimatedDocumentCount\":"+estimate+"}";
+    }
+
+    private static List<MigrationJob> offered(MigratorController mig) {
+        ArgumentCaptor<List> jobs=ArgumentCaptor.forClass(List.class);
+        Mockito.verify(mig).offerJobs(jobs.capture());
+        return jobs.getValue();
+    }
+
+    @Test
+    public void floodingConfigurationDoesNotStarveOthers() throws Exception {
+        TestLightblueClient client=new TestLightblueClient();
+        long now=System.currentTimeMillis();
+        // Enough old jobs of one configuration to fill a poll for two
+        int numFlood=MigratorController.JOB_FETCH_BATCH_SIZE*3;
+        for(int i=0;i<numFlood;i++)
+            client.addDocuments(job("flood"+i,"flood",new Date(now-600000l-i*1000l)));
+        client.addDocuments(job("quiet","quiet",new Date(now-60000l)));
+        Map<String,MigratorController> hungry=new HashMap<>();
+        MigratorController flood=getController("flood");
+        MigratorController quiet=getController("quiet");
+        hungry.put("flood",flood);
+        hungry.put("quiet",quiet);
+
+        Assert.assertTrue(new JobPoller(null,client).poll(hungry));
+
+        Assert.assertEquals(MigratorController.JOB_FETCH_BATCH_SIZE*2,offered(flood).size());
+        List<MigrationJob> quietJobs=offered(quiet);
+        Assert.assertEquals(1,quietJobs.size());
+        Assert.assertEquals("quiet",quietJobs.get(0).get_id());
+        Assert.assertEquals(2,client.getRequestBodies(DataFindRequest.class).size());
+    }
+
+    @Test
+    public void partialPollIsNotRepeated() throws Exception {
+        TestLightblueClient client=new TestLightblueClient();
+        client.addDocuments(job("1","a",new Date(System.currentTimeMillis()-60000l)));
+        Map<String,MigratorController> hungry=new HashMap<>();
+        MigratorController a=getController("a");
+        MigratorController b=getController("b");
+        hungry.put("a",a);
+        hungry.put("b",b);
+
+        Assert.assertTrue(new JobPoller(null,client).poll(hungry));
+
+        Assert.assertEquals(1,offered(a).size());
+        Assert.assertEquals(0,offered(b).size());
+        Assert.assertEquals(1,client.getRequestBodies(DataFindRequest.class).size());
+    }
+
+    @Test
+    public void largestJobsArePolledForLargestFirst() throws Exception {
+        TestLightblueClient client=new TestLightblueClient();
+        long now=System.currentTimeMillis();
+        // A full poll of small old jobs, and a large newer job
+        for(int i=0;i<MigratorController.JOB_FETCH_BATCH_SIZE*2;i++)
+            client.addDocuments(job("small"+i,"big",new Date(now-600000l-i*1000l),10));
+        client.addDocuments(job("large","big",new Date(now-60000l),100000));
+        Map<String,MigratorController> hungry=new HashMap<>();
+        MigratorController big=getController("big",JobOrder.LARGEST_FIRST);
+        hungry.put("big",big);
+
+        Assert.assertTrue(new JobPoller(null,client).poll(hungry));
+
+        List<MigrationJob> jobs=offered(big);
+        Set<String> ids=new HashSet<>();
+        for(MigrationJob job:jobs)
+            Assert.assertTrue(ids.add(job.get_id()));
+        Assert.assertTrue(ids.contains("large"));
+        Assert.assertTrue(ids.contains("small"+(MigratorController.JOB_FETCH_BATCH_SIZE*2-1)));
+        Assert.assertEquals(2,client.getRequestBodies(DataFindRequest.class).size());
+    }
+}
@@ -0,0 +1,110 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+public class LongIdentityMapTest {
+
+    private static Identity id(Object value) {
+        return new Identity(new Object[] {value});
+    }
+
+    @Test
+    public void conversions() {
+        Assert.assertEquals(Long.valueOf(42),LongIdentityMap.toLong(id("42")));
+        Assert.assertEquals(Long.valueOf(-7),LongIdentityMap.toLong(id("-7")));
+        Assert.assertNull(LongIdentityMap.toLong(id("007")));
+        Assert.assertNull(LongIdentityMap.toLong(id("abc")));
+        Assert.assertNull(LongIdentityMap.toLong(id(null)));
+        Assert.assertNull(LongIdentityMap.toLong(new Identity(new Object[] {"1","2"})));
+        Assert.assertEquals(id("42"),LongIdentityMap.toIdentity(42));
+    }
+
+    @Test
+    public void canonicalLongs() {
+        Assert.assertEquals(Long.valueOf(Long.MAX_VALUE),LongIdentityMap.toLong(id("9223372036854775807")));
+        Assert.assertEquals(Long.valueOf(Long.MIN_VALUE),LongIdentityMap.toLong(id("-9223372036854775808")));
+        Assert.assertEquals(Long.valueOf(0),LongIdentityMap.toLong(id("0")));
+        Assert.assertNull(LongIdentityMap.toLong(id("9223372036854775808")));
+        Assert.assertNull(LongIdentityMap.toLong(id("-9223372036854775809")));
+        Assert.assertNull(LongIdentityMap.toLong(id("-0")));
+        Assert.assertNull(LongIdentityMap.toLong(id("+1")));
+        Assert.assertNull(LongIdentityMap.toLong(id("")));
+        Assert.assertNull(LongIdentityMap.toLong(id("-")));
+    }
+
+    @Test
+    public void longsFromNodes() {
+        JsonNodeFactory f=JsonNodeFactory.instance;
+        Assert.assertTrue(LongIdentityMap.isLong(f.numberNode(42)));
+        Assert.assertEquals(42,LongIdentityMap.longValue(f.numberNode(42)));
+        Assert.assertTrue(LongIdentityMap.isLong(f.numberNode(Long.MIN_VALUE)));
+        Assert.assertEquals(Long.MIN_VALUE,LongIdentityMap.longValue(f.numberNode(Long.MIN_VALUE)));
+        Assert.assertTrue(LongIdentityMap.isLong(f.textNode("-12")));
+        Assert.assertEquals(-12,LongIdentityMap.longValue(f.textNode("-12")));
+        Assert.assertFalse(LongIdentityMap.isLong(f.textNode("012")));
+        Assert.assertFalse(LongIdentityMap.isLong(f.numberNode(1.5)));
+        Assert.assertFalse(LongIdentityMap.isLong(f.nullNode()));
+        Assert.assertFalse(LongIdentityMap.isLong(null));
+    }
+
+    @Test
+    public void primitiveKeys() {
+        LongIdentityMap<String> map=new LongIdentityMap<>();
+        for(long i=-50;i<50;i++)
+            map.put(i*1000003,"v"+i);
+        Assert.assertTrue(map.containsKey(-50000150l));
+        Assert.assertFalse(map.containsKey(1l));
+        Assert.assertEquals("v7",map.get(7000021l));
+        Assert.assertEquals("v7",map.get(id("7000021")));
+        Assert.assertNull(map.get(1l));
+        long[] keys=map.keys();
+        Arrays.sort(keys);
+        Assert.assertEquals(100,keys.length);
+        Assert.assertEquals(-50000150l,keys[0]);
+        Assert.assertEquals(49000147l,keys[99]);
+
+        LongIdentityMap<String> copy=new LongIdentityMap<>();
+        copy.put(1l,"x");
+        copy.putAll(map);
+        Assert.assertEquals(101,copy.size());
+        Assert.assertEquals("v-3",copy.get(-3000009l));
+        Assert.assertEquals("x",copy.get(1l));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsNonIntegerIdentity() {
+        new LongIdentityMap<String>().put(id("x"),"x");
+    }
+
+    @Test
+    public void behavesLikeHashMap() {
+        LongIdentityMap<String> map=new LongIdentityMap<>();
+        Map<Identity,String> expected=new HashMap<>();
+        Random rnd=new Random(1);
+        for(int i=0;i<20000;i++) {
+            Identity key=id(Long.toString(rnd.nextInt(5000)-2500));
+            if(rnd.nextInt(4)==0)
+                Assert.assertEquals(expected.remove(key),map.remove(key));
+            else
+                Assert.assertEquals(expected.put(key,"v"+i),map.put(key,"v"+i));
+        }
+        Assert.assertEquals(expected.size(),map.size());
+        Assert.assertEquals(expected,map);
+        for(int i=-2500;i<2500;i++) {
+            Identity key=id(Integer.toString(i));
+            Assert.assertEquals(expected.containsKey(key),map.containsKey(key));
+            Assert.assertEquals(expected.get(key),map.get(key));
+        }
+        Assert.assertFalse(map.containsKey(id("x")));
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+    }
+}
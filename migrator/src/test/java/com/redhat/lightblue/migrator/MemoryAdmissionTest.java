@@ -0,0 +1,93 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoryAdmissionTest {
+
+    private static class TestAdmission extends MemoryAdmission {
+        long used;
+
+        TestAdmission(int percent) {
+            super(percent);
+        }
+
+        @Override
+        protected long getMaxHeap() {
+            return 1000;
+        }
+
+        @Override
+        protected long getHeapUsed() {
+            return used;
+        }
+    }
+
+    @Test
+    public void admitsWithinLimit() {
+        TestAdmission a=new TestAdmission(80);
+        Assert.assertEquals(800,a.getHeapLimit());
+        a.used=300;
+        Assert.assertTrue(a.admit(200,300,1));
+        Assert.assertFalse(a.admit(201,300,1));
+        a.used=900;
+        // Nothing running, nothing to wait for
+        Assert.assertTrue(a.admit(500,0,0));
+    }
+
+    @Test
+    public void estimatesFromCompletedJobs() {
+        JobMemoryEstimator e=new JobMemoryEstimator();
+        e.jobCompleted(100,10000);
+        Assert.assertEquals(100,e.getDocumentsPerJob(),0.001);
+        Assert.assertEquals(100,e.getBytesPerDocument(),0.001);
+        Assert.assertEquals((long)(100*100*JobMemoryEstimator.IN_MEMORY_FACTOR),e.estimate(0,0,0));
+        // Known size of the job wins over the average
+        Assert.assertEquals((long)(10*100*JobMemoryEstimator.IN_MEMORY_FACTOR),e.estimate(10,0,0));
+        // Larger jobs are split
+        Assert.assertEquals((long)(50*100*JobMemoryEstimator.IN_MEMORY_FACTOR),e.estimate(0,50,0));
+        e.jobCompleted(200,40000);
+        Assert.assertEquals(120,e.getDocumentsPerJob(),0.001);
+        Assert.assertEquals(120,e.getBytesPerDocument(),0.001);
+        // Split jobs fetch nothing
+        e.jobCompleted(0,0);
+        Assert.assertEquals(120,e.getDocumentsPerJob(),0.001);
+    }
+
+    @Test
+    public void estimatesBeforeCompletedJobs() {
+        JobMemoryEstimator e=new JobMemoryEstimator();
+        double f=JobMemoryEstimator.IN_MEMORY_FACTOR;
+        Assert.assertEquals((long)(JobMemoryEstimator.DEFAULT_DOCUMENTS_PER_JOB*JobMemoryEstimator.DEFAULT_DOCUMENT_SIZE*f),
+                            e.estimate(0,0,0));
+        Assert.assertEquals((long)(500*JobMemoryEstimator.DEFAULT_DOCUMENT_SIZE*f),e.estimate(0,500,0));
+        Assert.assertEquals((long)(500*100*f),e.estimate(0,500,100));
+        Assert.assertEquals((long)(20*100*f),e.estimate(20,500,100));
+        // History wins over the configured size
+        e.jobCompleted(10,500);
+        Assert.assertEquals((long)(20*50*f),e.estimate(20,500,100));
+    }
+
+    @Test
+    public void estimatesFromPhases() {
+        JobMemoryEstimator e=new JobMemoryEstimator();
+        List<ExecutionPhase> phases=new ArrayList<>();
+        phases.add(phase(ExecutionStats.PHASE_SOURCE_FETCH,10,1000));
+        phases.add(phase(ExecutionStats.PHASE_DESTINATION_FETCH,10,1000));
+        phases.add(phase(ExecutionStats.PHASE_INSERT,5,50));
+        e.jobCompleted(phases);
+        Assert.assertEquals(10,e.getDocumentsPerJob(),0.001);
+        Assert.assertEquals(200,e.getBytesPerDocument(),0.001);
+    }
+
+    private static ExecutionPhase phase(String name,long docs,long bytes) {
+        ExecutionPhase p=new ExecutionPhase();
+        p.setName(name);
+        p.setDocumentCount(docs);
+        p.setRawBytesReceived(bytes);
+        return p;
+    }
+}
@@ -0,0 +1,141 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.client.request.LightblueRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import com.redhat.lightblue.client.request.data.DataUpdateRequest;
+import com.redhat.lightblue.client.util.ClientConstants;
+
+public class MigratorControllerTest {
+
+    private static final ObjectMapper MAPPER=new ObjectMapper();
+
+    private static final long MINUTE=60000l;
+
+    private final TestLightblueClient client=new TestLightblueClient();
+
+    private MigratorController getController(MigrationConfiguration cfg) {
+        Controller controller=Mockito.mock(Controller.class);
+        Mockito.when(controller.getLightblueClient()).thenReturn(client);
+        return new MigratorController(controller,cfg);
+    }
+
+    private static MigrationConfiguration getConfiguration(Date mark) {
+        MigrationConfiguration cfg=new MigrationConfiguration();
+        cfg.set_id("cfg");
+        cfg.setConfigurationName("test");
+        cfg.setIncrementalSyncField("lastModified");
+        cfg.setIncrementalSyncPeriod(10);
+        cfg.setIncrementalSyncLag(120);
+        cfg.setIncrementalSyncOverlap(30);
+        cfg.setIncrementalSyncHighWaterMark(mark);
+        return cfg;
+    }
+
+    private static String format(Date d) {
+        return ClientConstants.getDateFormat().format(d);
+    }
+
+    @Test
+    public void firstSyncSetsMissingMark() throws Exception {
+        client.addDocuments("{\"_id\":\"cfg\"}");
+        MigrationConfiguration cfg=getConfiguration(null);
+        Date now=new Date();
+        getController(cfg).syncIncrementalChanges(now);
+
+        Assert.assertEquals(new Date(now.getTime()-120000l),cfg.getIncrementalSyncHighWaterMark());
+        Assert.assertEquals(1,client.getRequestBodies(DataUpdateRequest.class).size());
+        Assert.assertEquals(0,client.getRequestBodies(DataInsertRequest.class).size());
+    }
+
+    @Test
+    public void firstSyncKeepsExistingMark() throws Exception {
+        Date other=new Date(System.currentTimeMillis()-MINUTE);
+        client.addDocuments("{\"_id\":\"cfg\",\"incrementalSyncHighWaterMark\":\""+format(other)+"\"}");
+        MigrationConfiguration cfg=getConfiguration(null);
+        Date now=new Date();
+        getController(cfg).syncIncrementalChanges(now);
+
+        // Another controller set the mark, this one does not move it
+        Assert.assertEquals(1,client.getRequestBodies(DataUpdateRequest.class).size());
+        Assert.assertEquals(0,client.getRequestBodies(DataInsertRequest.class).size());
+        Assert.assertFalse(new Date(now.getTime()-120000l).equals(cfg.getIncrementalSyncHighWaterMark()));
+    }
+
+    @Test
+    public void syncWaitsForLag() throws Exception {
+        Date mark=new Date(System.currentTimeMillis()-100*MINUTE);
+        client.addDocuments("{\"_id\":\"cfg\",\"incrementalSyncHighWaterMark\":\""+format(mark)+"\"}");
+        MigrationConfiguration cfg=getConfiguration(mark);
+        // A period passed, but not a period and the lag
+        getController(cfg).syncIncrementalChanges(new Date(mark.getTime()+11*MINUTE));
+
+        Assert.assertEquals(0,client.getRequestBodies(DataUpdateRequest.class).size());
+        Assert.assertEquals(mark,cfg.getIncrementalSyncHighWaterMark());
+    }
+
+    @Test
+    public void syncJobOverlapsPreviousJob() throws Exception {
+        Date mark=new Date(System.currentTimeMillis()-100*MINUTE);
+        client.addDocuments("{\"_id\":\"cfg\",\"incrementalSyncHighWaterMark\":\""+format(mark)+"\"}");
+        MigrationConfiguration cfg=getConfiguration(mark);
+        Date now=new Date(mark.getTime()+15*MINUTE);
+        getController(cfg).syncIncrementalChanges(now);
+
+        Date end=new Date(now.getTime()-120000l);
+        Assert.assertEquals(end,cfg.getIncrementalSyncHighWaterMark());
+        List<JsonNode> inserts=client.getRequestBodies(DataInsertRequest.class);
+        Assert.assertEquals(1,inserts.size());
+        JsonNode range=MAPPER.readTree(inserts.get(0).get("data").get(0).get("query").asText()).get("$and");
+        Assert.assertEquals(format(new Date(mark.getTime()-30000l)),range.get(0).get("rvalue").asText());
+        Assert.assertEquals(format(end),range.get(1).get("rvalue").asText());
+    }
+
+    @Test
+    public void jobSearchMovesToTheNextBatch() throws Exception {
+        // Only the newest job, in the second batch, can be locked
+        TestLightblueClient jobs=new TestLightblueClient() {
+                @Override
+                protected JsonNode respond(LightblueRequest req,JsonNode body) {
+                    JsonNode response=super.respond(req,body);
+                    if(req instanceof DataInsertRequest) {
+                        JsonNode ae=body.get("data").isArray()?body.get("data").get(0):body.get("data");
+                        if("last".equals(ae.get("migrationJobId").asText()))
+                            ((ArrayNode)response.get("processed")).add(ae);
+                        else
+                            ((ObjectNode)response).put("modifiedCount",0);
+                    }
+                    return response;
+                }
+            };
+        long t=System.currentTimeMillis()-100*MINUTE;
+        for(int i=0;i<=MigratorController.JOB_FETCH_BATCH_SIZE;i++)
+            jobs.addDocuments("{\"_id\":\""+(i==MigratorController.JOB_FETCH_BATCH_SIZE?"last":"job"+i)+
+                              "\",\"configurationName\":\"test\",\"status\":\"available\",\"scheduledDate\":\""+
+                              format(new Date(t+i*1000l))+"\"}");
+        Controller controller=Mockito.mock(Controller.class);
+        Mockito.when(controller.getLightblueClient()).thenReturn(jobs);
+        Mockito.when(controller.admitJob(Mockito.anyLong())).thenReturn(true);
+        MigratorController mig=new MigratorController(controller,getConfiguration(null));
+
+        MigratorController.LockRecord lck=mig.findAndLockMigrationJob();
+
+        Assert.assertNotNull(lck);
+        Assert.assertEquals("last",lck.mj.get_id());
+        Assert.assertEquals(2,jobs.getRequestBodies(DataFindRequest.class).size());
+        Assert.assertEquals(MigratorController.JOB_FETCH_BATCH_SIZE+1,jobs.getRequestBodies(DataInsertRequest.class).size());
+    }
+}
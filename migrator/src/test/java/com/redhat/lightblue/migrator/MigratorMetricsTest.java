@@ -0,0 +1,57 @@
+package com.redhat.lightblue.migrator;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MigratorMetricsTest {
+
+    @Test
+    public void latencyHistogram() {
+        MigratorMetrics.LatencyHistogram h=new MigratorMetrics.LatencyHistogram();
+        Assert.assertEquals(0,h.getPercentile(0.5));
+        for(int i=0;i<90;i++)
+            h.record(3);
+        for(int i=0;i<10;i++)
+            h.record(150);
+        Assert.assertEquals(100,h.getCount());
+        Assert.assertEquals(150,h.getMax());
+        Assert.assertEquals(17.7,h.getMean(),0.001);
+        Assert.assertEquals(5,h.getPercentile(0.5));
+        Assert.assertEquals(150,h.getPercentile(0.95));
+        Assert.assertEquals(90,h.getBucketCounts()[2]);
+        Assert.assertEquals(10,h.getBucketCounts()[7]);
+    }
+
+    @Test
+    public void jobCounters() {
+        MigratorMetrics m=new MigratorMetrics("test",null);
+        m.jobStarted();
+        m.jobStarted();
+        m.jobStarted();
+        m.jobFinished(MigrationJob.STATE_COMPLETED);
+        m.jobFinished(MigrationJob.STATE_FAILED);
+        m.jobFinished(MigrationJob.STATE_SPLIT);
+        m.documentsSaved(10);
+        m.documentsSaved(5);
+        Assert.assertEquals(3,m.getJobsStarted());
+        Assert.assertEquals(1,m.getJobsCompleted());
+        Assert.assertEquals(1,m.getJobsFailed());
+        Assert.assertEquals(1,m.getJobsSplit());
+        Assert.assertEquals(15,m.getDocumentsSaved());
+    }
+
+    @Test
+    public void registration() throws Exception {
+        MigratorMetrics m=new MigratorMetrics("test config",null);
+        m.register();
+        ObjectName name=new ObjectName(MigratorMetrics.DOMAIN+":type=MigratorController,name="+ObjectName.quote("test config"));
+        m.lockFailed();
+        Assert.assertEquals(1L,ManagementFactory.getPlatformMBeanServer().getAttribute(name,"LockFailures"));
+        m.unregister();
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,63 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PathHistogramTest {
+
+    @Test
+    public void topPaths() {
+        PathHistogram h=new PathHistogram();
+        h.addDocument(Arrays.asList("a","b"));
+        h.addDocument(Arrays.asList("a","a","c"));
+        h.addDocument(Arrays.asList("a","b"));
+        Assert.assertEquals(3,h.getDocumentCount());
+        Assert.assertEquals(3,h.getCount("a"));
+        Assert.assertEquals(2,h.getCount("b"));
+        Assert.assertEquals(0,h.getCount("x"));
+        List<PathCount> top=h.getTop(2);
+        Assert.assertEquals(2,top.size());
+        Assert.assertEquals("a",top.get(0).getPath());
+        Assert.assertEquals("b",top.get(1).getPath());
+        Assert.assertEquals(3,h.getTop(10).size());
+    }
+
+    @Test
+    public void boundedPaths() {
+        PathHistogram h=new PathHistogram(2);
+        h.addDocument(Arrays.asList("a"));
+        h.addDocument(Arrays.asList("b"));
+        h.addDocument(Arrays.asList("c"));
+        h.addDocument(Arrays.asList("d"));
+        h.addDocument(Arrays.asList("a"));
+        Assert.assertEquals(3,h.size());
+        Assert.assertEquals(2,h.getCount(PathHistogram.OTHER_PATHS));
+        Assert.assertEquals(2,h.getCount("a"));
+    }
+
+    @Test
+    public void overflowCountedOncePerDocument() {
+        PathHistogram h=new PathHistogram(1);
+        h.addDocument(Arrays.asList("a"));
+        h.addDocument(Arrays.asList("a","b","c","d"));
+        h.addDocument(Arrays.asList("e","f"));
+        Assert.assertEquals(3,h.getDocumentCount());
+        Assert.assertEquals(2,h.getCount("a"));
+        Assert.assertEquals(2,h.getCount(PathHistogram.OTHER_PATHS));
+    }
+
+    @Test
+    public void merge() {
+        PathHistogram h=new PathHistogram();
+        h.addDocument(Arrays.asList("a"));
+        PathHistogram g=new PathHistogram();
+        g.addDocument(Arrays.asList("a","b"));
+        h.merge(g);
+        Assert.assertEquals(2,h.getDocumentCount());
+        Assert.assertEquals(2,h.getCount("a"));
+        Assert.assertEquals(1,h.getCount("b"));
+    }
+}
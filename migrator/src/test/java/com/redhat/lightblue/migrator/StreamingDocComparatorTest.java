@@ -0,0 +1,109 @@
+package com.redhat.lightblue.migrator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+public class StreamingDocComparatorTest {
+
+    private static final JsonFactory FACTORY=new JsonFactory();
+
+    private List<String> compare(String source,String dest,String...excludes) throws Exception {
+        StreamingDocComparator cmp=new StreamingDocComparator(Arrays.asList(excludes));
+        return cmp.compare(FACTORY.createParser(source.replace('\'','"')),
+                           FACTORY.createParser(dest.replace('\'','"')));
+    }
+
+    @Test
+    public void sameDocs() throws Exception {
+        Assert.assertEquals(Collections.emptyList(),
+                            compare("{'a':1,'b':{'c':'x','d':[1,2,{'e':true}]},'f':null}",
+                                    "{'a':1,'b':{'c':'x','d':[1,2,{'e':true}]},'f':null}"));
+    }
+
+    @Test
+    public void differentValues() throws Exception {
+        Assert.assertEquals(Arrays.asList("a","b.c","b.d"),
+                            compare("{'a':1,'b':{'c':'x','d':[1,2]}}",
+                                    "{'a':2,'b':{'c':'y','d':[1,3]}}"));
+    }
+
+    @Test
+    public void numbersComparedByText() throws Exception {
+        Assert.assertEquals(Collections.emptyList(),compare("{'a':1.50,'b':'1'}","{'a':1.5,'b':1}"));
+    }
+
+    @Test
+    public void missingAndExtraFields() throws Exception {
+        Assert.assertEquals(Arrays.asList("b"),
+                            compare("{'a':1,'b':2}","{'a':1,'c':3}"));
+        Assert.assertEquals(Collections.emptyList(),
+                            compare("{'a':1}","{'a':1,'c':{'d':[1]}}"));
+    }
+
+    @Test
+    public void reorderedFields() throws Exception {
+        Assert.assertEquals(Arrays.asList("c.e"),
+                            compare("{'a':1,'b':2,'c':{'d':1,'e':2}}",
+                                    "{'x':0,'c':{'e':3,'d':1},'b':2,'a':1}"));
+    }
+
+    @Test
+    public void arraySizeMismatch() throws Exception {
+        Assert.assertEquals(Arrays.asList("a"),compare("{'a':[1,2,3],'b':1}","{'a':[1,5],'b':1}"));
+        Assert.assertEquals(Arrays.asList("a"),compare("{'a':[{'x':1}],'b':1}","{'a':[{'x':1},{'x':2}],'b':1}"));
+    }
+
+    @Test
+    public void typeMismatch() throws Exception {
+        Assert.assertEquals(Arrays.asList("a","b"),compare("{'a':[1],'b':{'x':1}}","{'a':{'x':1},'b':[1]}"));
+        Assert.assertEquals(Arrays.asList("*"),compare("{'a':1}","[1]"));
+    }
+
+    @Test
+    public void exclusions() throws Exception {
+        Assert.assertEquals(Arrays.asList("c"),
+                            compare("{'a':1,'b':{'x':[1,2]},'c':1}",
+                                    "{'a':2,'b':{'x':[1]},'c':2}","a","b.x"));
+    }
+
+    @Test
+    public void pathsAfterNestedFields() throws Exception {
+        Assert.assertEquals(Arrays.asList("a.b.c","a.e","d"),
+                            compare("{'a':{'b':{'c':1},'e':1},'d':2}",
+                                    "{'a':{'b':{'c':2},'e':2},'d':3}"));
+        Assert.assertEquals(Arrays.asList("a.b.c","a.e","d"),
+                            compare("{'a':{'b':{'c':1},'e':1},'d':2}",
+                                    "{'d':3,'a':{'e':2,'b':{'c':2}}}"));
+    }
+
+    @Test
+    public void numbersOfDifferentSizes() throws Exception {
+        Assert.assertEquals(Collections.emptyList(),
+                            compare("{'a':5,'b':12345678901,'c':123456789012345678901234567890}",
+                                    "{'a':5,'b':12345678901,'c':123456789012345678901234567890}"));
+        Assert.assertEquals(Arrays.asList("b","c"),
+                            compare("{'a':5,'b':12345678901,'c':123456789012345678901234567890}",
+                                    "{'a':5,'b':12345678902,'c':123456789012345678901234567891}"));
+        Assert.assertEquals(Arrays.asList("a"),compare("{'a':0.0}","{'a':-0.0}"));
+    }
+
+    @Test
+    public void elementMismatchesDroppedWhenSizesDiffer() throws Exception {
+        Assert.assertEquals(Arrays.asList("a"),compare("{'a':[{'x':1},2,3]}","{'a':[{'x':2},2]}"));
+    }
+
+    @Test
+    public void comparatorIsReusable() throws Exception {
+        StreamingDocComparator cmp=new StreamingDocComparator(null);
+        for(int i=0;i<3;i++)
+            Assert.assertEquals(Arrays.asList("a.b"),
+                                cmp.compare(FACTORY.createParser("{\"a\":{\"b\":1}}"),
+                                            FACTORY.createParser("{\"a\":{\"b\":"+(i+2)+"}}")));
+    }
+}
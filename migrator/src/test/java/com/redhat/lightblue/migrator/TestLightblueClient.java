@@ -0,0 +1,194 @@
+package com.redhat.lightblue.migrator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.request.AbstractLightblueDataRequest;
+import com.redhat.lightblue.client.request.LightblueRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import com.redhat.lightblue.client.request.data.DataSaveRequest;
+import com.redhat.lightblue.client.request.data.DataUpdateRequest;
+import com.redhat.lightblue.client.response.LightblueResponse;
+
+/**
+ * A lightblue client for a single entity whose documents are kept in
+ * memory. Finds and updates understand only field value comparisons,
+ * $in, $and and $or. Finds sort on the first sort field, and apply
+ * the range. Inserts and saves add the documents, saves replace
+ * the documents with the same _id, updates count the matching
+ * documents as modified without changing them. All requests are
+ * recorded.
+ */
+public class TestLightblueClient implements LightblueClient {
+
+    private static final ObjectMapper MAPPER=new ObjectMapper();
+
+    private final List<JsonNode> docs=new ArrayList<>();
+    private final List<LightblueRequest> requests=new ArrayList<>();
+
+    public synchronized TestLightblueClient addDocuments(String... json) throws IOException {
+        for(String s:json)
+            docs.add(MAPPER.readTree(s));
+        return this;
+    }
+
+    public synchronized List<JsonNode> getDocuments() {
+        return new ArrayList<>(docs);
+    }
+
+    /**
+     * Returns the bodies of the recorded requests of the given type
+     */
+    public synchronized List<JsonNode> getRequestBodies(Class<? extends LightblueRequest> type) throws IOException {
+        List<JsonNode> ret=new ArrayList<>();
+        for(LightblueRequest req:requests)
+            if(type.isInstance(req))
+                ret.add(MAPPER.readTree(req.getBody()));
+        return ret;
+    }
+
+    public synchronized void clearRequests() {
+        requests.clear();
+    }
+
+    @Override
+    public LightblueResponse metadata(LightblueRequest lightblueRequest) {
+        throw new UnsupportedOperationException("metadata");
+    }
+
+    @Override
+    public synchronized LightblueResponse data(LightblueRequest req) {
+        requests.add(req);
+        try {
+            return new LightblueResponse(respond(req,MAPPER.readTree(req.getBody())).toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public <T> T data(AbstractLightblueDataRequest req, Class<T> type) throws IOException {
+        return data((LightblueRequest)req).parseProcessed(type);
+    }
+
+    /**
+     * Builds the response to a request. Tests override this to return
+     * errors.
+     */
+    protected JsonNode respond(LightblueRequest req,JsonNode body) {
+        ObjectNode response=JsonNodeFactory.instance.objectNode();
+        response.put("status","COMPLETE");
+        ArrayNode processed=response.putArray("processed");
+        int n=0;
+        if(req instanceof DataInsertRequest||req instanceof DataSaveRequest) {
+            JsonNode data=body.get("data");
+            List<JsonNode> written=new ArrayList<>();
+            if(data.isArray()) {
+                for(JsonNode doc:data)
+                    written.add(doc);
+            } else {
+                written.add(data);
+            }
+            for(JsonNode doc:written) {
+                if(req instanceof DataSaveRequest)
+                    remove(doc.get("_id"));
+                docs.add(doc);
+                n++;
+            }
+            response.put("modifiedCount",n);
+        } else if(req instanceof DataFindRequest||req instanceof DataUpdateRequest) {
+            List<JsonNode> matching=new ArrayList<>();
+            for(JsonNode doc:docs)
+                if(matches(doc,body.get("query")))
+                    matching.add(doc);
+            n=matching.size();
+            if(body.has("sort")) {
+                JsonNode sort=body.get("sort").isArray()?body.get("sort").get(0):body.get("sort");
+                final String field=sort.fieldNames().next();
+                final int direction="$desc".equals(sort.get(field).asText())?-1:1;
+                Collections.sort(matching,new Comparator<JsonNode>() {
+                        public int compare(JsonNode x,JsonNode y) {
+                            return direction*TestLightblueClient.compare(Identity.getFieldValue(x,field),Identity.getFieldValue(y,field));
+                        }
+                    });
+            }
+            int from=0;
+            int to=n-1;
+            if(body.has("range")) {
+                from=body.get("range").get(0).asInt();
+                to=Math.min(to,body.get("range").get(1).asInt());
+            }
+            for(int i=from;i<=to;i++)
+                processed.add(matching.get(i));
+            response.put("modifiedCount",req instanceof DataUpdateRequest?n:0);
+        }
+        response.put("matchCount",n);
+        return response;
+    }
+
+    private void remove(JsonNode id) {
+        for(Iterator<JsonNode> itr=docs.iterator();itr.hasNext();)
+            if(id!=null&&id.equals(itr.next().get("_id")))
+                itr.remove();
+    }
+
+    static boolean matches(JsonNode doc,JsonNode query) {
+        if(query==null||query.size()==0)
+            return true;
+        if(query.has("$and")) {
+            for(JsonNode q:query.get("$and"))
+                if(!matches(doc,q))
+                    return false;
+            return true;
+        }
+        if(query.has("$or")) {
+            for(JsonNode q:query.get("$or"))
+                if(matches(doc,q))
+                    return true;
+            return false;
+        }
+        JsonNode value=Identity.getFieldValue(doc,query.get("field").asText());
+        if(query.has("values")) {
+            if(value!=null)
+                for(JsonNode v:query.get("values"))
+                    if(compare(value,v)==0)
+                        return true;
+            return false;
+        }
+        if(query.path("rvalue").isNull())
+            // Null matches missing fields
+            return (value==null||value.isNull())==!"!=".equals(query.path("op").asText());
+        if(value==null)
+            return false;
+        int c=compare(value,query.get("rvalue"));
+        switch(query.path("op").asText("=")) {
+        case ">": return c>0;
+        case ">=": return c>=0;
+        case "<": return c<0;
+        case "<=": return c<=0;
+        case "!=": return c!=0;
+        default: return c==0;
+        }
+    }
+
+    /**
+     * Compares numbers by value, and anything else by text
+     */
+    static int compare(JsonNode x,JsonNode y) {
+        if(x.isNumber()&&y.isNumber())
+            return Double.compare(x.asDouble(),y.asDouble());
+        return x.asText().compareTo(y.asText());
+    }
+}
@@ -0,0 +1,124 @@
+package com.redhat.lightblue.migrator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadBudgetTest {
+
+    private static class TestMember implements ThreadBudget.Member {
+        int running;
+        final int weight;
+
+        TestMember(int weight) {
+            this.weight=weight;
+        }
+
+        @Override
+        public int getRunningThreads() {
+            return running;
+        }
+
+        @Override
+        public int getThreadWeight() {
+            return weight;
+        }
+    }
+
+    /**
+     * Acquires a thread and starts it
+     */
+    private static boolean start(ThreadBudget budget,TestMember m) {
+        if(budget.tryAcquire(m)) {
+            m.running++;
+            budget.release(m);
+            return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void idleMembersLendThreads() {
+        ThreadBudget budget=new ThreadBudget(4);
+        TestMember busy=new TestMember(1);
+        TestMember idle=new TestMember(3);
+        budget.register(busy);
+        budget.register(idle);
+        for(int i=0;i<4;i++)
+            Assert.assertTrue(start(budget,busy));
+        Assert.assertFalse(start(budget,busy));
+        Assert.assertEquals(4,budget.getUsed());
+        busy.running--;
+        Assert.assertTrue(start(budget,busy));
+    }
+
+    @Test
+    public void sharedByWeight() {
+        ThreadBudget budget=new ThreadBudget(8);
+        TestMember a=new TestMember(3);
+        TestMember b=new TestMember(1);
+        budget.register(a);
+        budget.register(b);
+        a.running=4;
+        b.running=4;
+        // Both always have jobs, and wait for threads
+        Assert.assertFalse(start(budget,a));
+        Assert.assertFalse(start(budget,b));
+        for(int i=0;i<20;i++) {
+            // A thread ends, the next goes to the lower share
+            if(i%2==0&&a.running>0)
+                a.running--;
+            else
+                b.running--;
+            if(!start(budget,a))
+                Assert.assertTrue(start(budget,b));
+            // The one that started a thread wants another
+            Assert.assertFalse(start(budget,a));
+            Assert.assertFalse(start(budget,b));
+        }
+        Assert.assertEquals(6,a.running);
+        Assert.assertEquals(2,b.running);
+    }
+
+    @Test
+    public void reservationsCount() {
+        ThreadBudget budget=new ThreadBudget(1);
+        TestMember a=new TestMember(1);
+        TestMember b=new TestMember(1);
+        budget.register(a);
+        budget.register(b);
+        Assert.assertTrue(budget.tryAcquire(a));
+        Assert.assertFalse(budget.tryAcquire(b));
+        // a could not lock a job
+        budget.release(a);
+        Assert.assertTrue(budget.tryAcquire(b));
+    }
+
+    @Test
+    public void waitingMemberGoesFirst() {
+        ThreadBudget budget=new ThreadBudget(2);
+        TestMember a=new TestMember(1);
+        TestMember b=new TestMember(1);
+        budget.register(a);
+        budget.register(b);
+        Assert.assertTrue(start(budget,a));
+        Assert.assertTrue(start(budget,a));
+        Assert.assertFalse(start(budget,b));
+        a.running--;
+        // b is waiting with no threads, a has to wait for it
+        Assert.assertFalse(start(budget,a));
+        Assert.assertTrue(start(budget,b));
+        budget.cancel(a);
+        Assert.assertEquals(2,budget.getUsed());
+    }
+
+    @Test(timeout=5000)
+    public void acquireTimesOut() throws Exception {
+        ThreadBudget budget=new ThreadBudget(1);
+        TestMember a=new TestMember(1);
+        budget.register(a);
+        a.running=1;
+        Assert.assertFalse(budget.acquire(a,100));
+        a.running=0;
+        Assert.assertTrue(budget.acquire(a,100));
+    }
+}